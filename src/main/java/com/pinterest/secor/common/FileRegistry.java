@@ -17,6 +17,7 @@
 package com.pinterest.secor.common;
 
 import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.uploader.StreamingUploader;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.ReflectionUtil;
 import com.pinterest.secor.util.StatsUtil;
@@ -32,21 +33,62 @@ import java.util.*;
  * FileRegistry keeps track of local log files currently being appended to and the associated
  * writers.
  *
+ * The registry also tracks what the upload policy needs to find topic partitions that may be due
+ * for upload without scanning all of them: aggregate file sizes maintained as files are written
+ * and a queue of file age deadlines ordered by file creation time.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class FileRegistry {
     private static final Logger LOG = LoggerFactory.getLogger(FileRegistry.class);
 
     private final SecorConfig mConfig;
-    private HashMap<TopicPartition, HashSet<LogFilePath>> mFiles;
+    private final TopicPartitionRegistry mTopicPartitionRegistry;
+    // Paths indexed by topic partition slot.  Null if the topic partition has no paths.
+    private ArrayList<HashSet<LogFilePath>> mFiles;
     private HashMap<LogFilePath, FileWriter> mWriters;
     private HashMap<LogFilePath, Long> mCreationTimes;
+    private StreamingUploader mStreamingUploader;
+    // Aggregate length of files with writers, indexed by topic partition slot.
+    private LongSlotArray mSizes;
+    // Creation time of the most recently created file, indexed by topic partition slot.  -1 if
+    // the topic partition has no files.
+    private LongSlotArray mLatestCreationTimes;
+    // Creation times of the most recently created files.  Entries superseded by a more recent
+    // file in the same topic partition are skipped.
+    private PriorityQueue<CreationTime> mCreationTimeQueue;
+    // Creation times close to the age limit moved from the queue above, ordered by creation time
+    // less the age jitter of their topic partitions.
+    private PriorityQueue<CreationTime> mJitteredCreationTimeQueue;
+    // Slots of topic partitions that have been written to or were due for upload when last
+    // checked.  Flags are indexed by slot.
+    private ArrayList<Integer> mCandidateSlots;
+    private LongSlotArray mCandidateFlags;
 
     public FileRegistry(SecorConfig mConfig) {
+        this(mConfig, TopicPartitionRegistry.getInstance());
+    }
+
+    public FileRegistry(SecorConfig mConfig, TopicPartitionRegistry topicPartitionRegistry) {
         this.mConfig = mConfig;
-        mFiles = new HashMap<TopicPartition, HashSet<LogFilePath>>();
+        mTopicPartitionRegistry = topicPartitionRegistry;
+        mFiles = new ArrayList<HashSet<LogFilePath>>();
         mWriters = new HashMap<LogFilePath, FileWriter>();
         mCreationTimes = new HashMap<LogFilePath, Long>();
+        mSizes = new LongSlotArray(0);
+        mLatestCreationTimes = new LongSlotArray(-1);
+        mCreationTimeQueue = new PriorityQueue<CreationTime>();
+        mJitteredCreationTimeQueue = new PriorityQueue<CreationTime>();
+        mCandidateSlots = new ArrayList<Integer>();
+        mCandidateFlags = new LongSlotArray(0);
+    }
+
+    /**
+     * Stream files to an object store while they are being written.
+     * @param streamingUploader The uploader tracking uploads of written files.
+     */
+    public void setStreamingUploader(StreamingUploader streamingUploader) {
+        mStreamingUploader = streamingUploader;
     }
 
     /**
@@ -54,12 +96,31 @@ public class FileRegistry {
      * @return Collection of all registered topic partitions.
      */
     public Collection<TopicPartition> getTopicPartitions() {
-        Set<TopicPartition> topicPartitions = mFiles.keySet();
-        if (topicPartitions == null) {
-            return new HashSet<TopicPartition>();
+        HashSet<TopicPartition> topicPartitions = new HashSet<TopicPartition>();
+        for (int slot = 0; slot < mFiles.size(); ++slot) {
+            if (mFiles.get(slot) != null) {
+                topicPartitions.add(mTopicPartitionRegistry.getTopicPartition(slot));
+            }
+        }
+        return topicPartitions;
+    }
+
+    private HashSet<LogFilePath> getFiles(TopicPartition topicPartition) {
+        return getFiles(mTopicPartitionRegistry.getSlot(topicPartition));
+    }
+
+    private HashSet<LogFilePath> getFiles(int slot) {
+        if (slot < mFiles.size()) {
+            return mFiles.get(slot);
+        }
+        return null;
+    }
+
+    private void setFiles(int slot, HashSet<LogFilePath> files) {
+        while (mFiles.size() <= slot) {
+            mFiles.add(null);
         }
-        // Return a copy of the collection to prevent the caller from modifying internals.
-        return new HashSet<TopicPartition>(topicPartitions);
+        mFiles.set(slot, files);
     }
 
     /**
@@ -68,7 +129,7 @@ public class FileRegistry {
      * @return Collection of file paths in the given topic partition.
      */
     public Collection<LogFilePath> getPaths(TopicPartition topicPartition) {
-        HashSet<LogFilePath> logFilePaths = mFiles.get(topicPartition);
+        HashSet<LogFilePath> logFilePaths = getFiles(topicPartition);
         if (logFilePaths == null) {
             return new HashSet<LogFilePath>();
         }
@@ -89,19 +150,28 @@ public class FileRegistry {
             // Just in case.
             FileUtil.delete(path.getLogFilePath());
             FileUtil.delete(path.getLogFileCrcPath());
-            TopicPartition topicPartition = new TopicPartition(path.getTopic(),
-                    path.getKafkaPartition());
-            HashSet<LogFilePath> files = mFiles.get(topicPartition);
+            FileUtil.delete(path.getLogFileIndexPath());
+            int slot = mTopicPartitionRegistry.getSlot(path.getTopic(), path.getKafkaPartition());
+            HashSet<LogFilePath> files = getFiles(slot);
             if (files == null) {
                 files = new HashSet<LogFilePath>();
-                mFiles.put(topicPartition, files);
+                setFiles(slot, files);
             }
             if (!files.contains(path)) {
                 files.add(path);
             }
             writer = ReflectionUtil.createFileWriter(mConfig.getFileReaderWriterFactory(), path, codec);
+            if (mStreamingUploader != null) {
+                writer = mStreamingUploader.createWriter(path, writer);
+            }
             mWriters.put(path, writer);
-            mCreationTimes.put(path, System.currentTimeMillis() / 1000L);
+            long creationTime = System.currentTimeMillis() / 1000L;
+            mCreationTimes.put(path, creationTime);
+            if (mLatestCreationTimes.get(slot) != creationTime) {
+                mLatestCreationTimes.set(slot, creationTime);
+                mCreationTimeQueue.add(new CreationTime(creationTime, creationTime, slot));
+            }
+            addSize(slot, writer.getLength());
             LOG.debug("created writer for path " + path.getLogFilePath());
         }
         return writer;
@@ -113,20 +183,52 @@ public class FileRegistry {
      * @throws IOException
      */
     public void deletePath(LogFilePath path) throws IOException {
-        TopicPartition topicPartition = new TopicPartition(path.getTopic(),
-                                                           path.getKafkaPartition());
-        HashSet<LogFilePath> paths = mFiles.get(topicPartition);
+        int slot = mTopicPartitionRegistry.getSlot(path.getTopic(), path.getKafkaPartition());
+        TopicPartition topicPartition = mTopicPartitionRegistry.getTopicPartition(slot);
+        HashSet<LogFilePath> paths = getFiles(slot);
+        deleteWriter(path);
         paths.remove(path);
         if (paths.isEmpty()) {
-            mFiles.remove(topicPartition);
-            StatsUtil.clearLabel("secor.size." + topicPartition.getTopic() + "." +
-                                 topicPartition.getPartition());
-            StatsUtil.clearLabel("secor.modification_age_sec." + topicPartition.getTopic() + "." +
-                                 topicPartition.getPartition());
+            setFiles(slot, null);
+            resetPolicyState(slot);
+            clearStats(topicPartition);
+        }
+        if (mStreamingUploader != null) {
+            mStreamingUploader.abort(path);
         }
-        deleteWriter(path);
         FileUtil.delete(path.getLogFilePath());
         FileUtil.delete(path.getLogFileCrcPath());
+        FileUtil.delete(path.getLogFileIndexPath());
+    }
+
+    private void clearStats(TopicPartition topicPartition) {
+        StatsUtil.clearLabel("secor.size." + topicPartition.getTopic() + "." +
+                             topicPartition.getPartition());
+        StatsUtil.clearLabel("secor.modification_age_sec." + topicPartition.getTopic() + "." +
+                             topicPartition.getPartition());
+    }
+
+    /**
+     * Remove all paths in a given topic partition from the registry and close their writers.
+     * Underlying files are not removed.  New writers in the topic partition will start new files.
+     * @param topicPartition The topic partition to seal.
+     * @return Collection of removed paths.
+     * @throws IOException
+     */
+    public Collection<LogFilePath> sealTopicPartition(TopicPartition topicPartition)
+            throws IOException {
+        int slot = mTopicPartitionRegistry.getSlot(topicPartition);
+        HashSet<LogFilePath> paths = getFiles(slot);
+        if (paths == null) {
+            return new HashSet<LogFilePath>();
+        }
+        for (LogFilePath path : paths) {
+            deleteWriter(path);
+        }
+        setFiles(slot, null);
+        resetPolicyState(slot);
+        clearStats(topicPartition);
+        return paths;
     }
 
     /**
@@ -135,7 +237,7 @@ public class FileRegistry {
      * @throws IOException
      */
     public void deleteTopicPartition(TopicPartition topicPartition) throws IOException {
-        HashSet<LogFilePath> paths = mFiles.get(topicPartition);
+        HashSet<LogFilePath> paths = getFiles(topicPartition);
         if (paths == null) {
             return;
         }
@@ -155,6 +257,8 @@ public class FileRegistry {
             LOG.warn("No writer found for path " + path.getLogFilePath());
         } else {
             LOG.info("Deleting writer for path " + path.getLogFilePath());
+            int slot = mTopicPartitionRegistry.getSlot(path.getTopic(), path.getKafkaPartition());
+            mSizes.set(slot, mSizes.get(slot) - writer.getLength());
             writer.close();
             mWriters.remove(path);
             mCreationTimes.remove(path);
@@ -166,7 +270,7 @@ public class FileRegistry {
      * @param topicPartition The topic partition to remove the writers for.
      */
     public void deleteWriters(TopicPartition topicPartition) throws IOException {
-        HashSet<LogFilePath> paths = mFiles.get(topicPartition);
+        HashSet<LogFilePath> paths = getFiles(topicPartition);
         if (paths == null) {
             LOG.warn("No paths found for topic " + topicPartition.getTopic() + " partition " +
                      topicPartition.getPartition());
@@ -193,11 +297,130 @@ public class FileRegistry {
                 result += writer.getLength();
             }
         }
+        mSizes.set(mTopicPartitionRegistry.getSlot(topicPartition), result);
         StatsUtil.setLabel("secor.size." + topicPartition.getTopic() + "." +
                            topicPartition.getPartition(), Long.toString(result));
         return result;
     }
 
+    /**
+     * Account for data appended to files in a given topic partition.
+     * @param slot Slot of the topic partition.
+     * @param bytes Number of bytes appended.
+     */
+    public void addSize(int slot, long bytes) {
+        mSizes.set(slot, mSizes.get(slot) + bytes);
+        addCandidate(slot);
+    }
+
+    private void addCandidate(int slot) {
+        if (mCandidateFlags.get(slot) == 0) {
+            mCandidateFlags.set(slot, 1);
+            mCandidateSlots.add(slot);
+        }
+    }
+
+    private void resetPolicyState(int slot) {
+        mSizes.clear(slot);
+        mLatestCreationTimes.clear(slot);
+    }
+
+    /**
+     * Get the amount of time by which age based uploads in a given topic partition are advanced.
+     * The jitter is derived from the topic partition so that files created at the same time in
+     * different topic partitions reach the age limit at different times.
+     * @param topicPartition The topic partition to get the jitter of.
+     * @param maxAgeJitterSec Upper bound on the jitter.
+     * @return Jitter in seconds between 0 and maxAgeJitterSec.
+     */
+    public static long getAgeJitterSec(TopicPartition topicPartition, long maxAgeJitterSec) {
+        if (maxAgeJitterSec <= 0) {
+            return 0;
+        }
+        long hash = (topicPartition.getTopic().hashCode() * 31L + topicPartition.getPartition()) *
+                    0x9E3779B97F4A7C15L;
+        return (hash >>> 1) % (maxAgeJitterSec + 1);
+    }
+
+    /**
+     * Get topic partitions that may be due for upload, i.e., their files reached a given aggregate
+     * size or their most recently created file reached a given age less the age jitter of the
+     * topic partition.  Only topic partitions written to since the last call, those with files
+     * reaching the age limit since the last call, and those returned by the last call are
+     * examined.  Sizes are tracked as files are written and may be off, e.g., if files are written
+     * past this registry.  Callers should check the exact size with
+     * {@link #getSize(TopicPartition)}.
+     * @param maxSizeBytes Size threshold.
+     * @param maxAgeSec Age threshold.
+     * @param maxAgeJitterSec Upper bound on age jitter, see
+     *     {@link #getAgeJitterSec(TopicPartition, long)}.
+     * @return Collection of topic partitions that may be due for upload.
+     */
+    public Collection<TopicPartition> getDueTopicPartitions(long maxSizeBytes, long maxAgeSec,
+                                                           long maxAgeJitterSec) {
+        long maxCreationTime = System.currentTimeMillis() / 1000L - maxAgeSec;
+        // Files created up to maxAgeJitterSec after maxCreationTime may be due depending on the
+        // jitter of their topic partitions.
+        while (!mCreationTimeQueue.isEmpty() &&
+               mCreationTimeQueue.peek().getTime() <= maxCreationTime + maxAgeJitterSec) {
+            CreationTime creationTime = mCreationTimeQueue.poll();
+            int slot = creationTime.getSlot();
+            if (mLatestCreationTimes.get(slot) == creationTime.getCreationTime()) {
+                long jitter = getAgeJitterSec(mTopicPartitionRegistry.getTopicPartition(slot),
+                                              maxAgeJitterSec);
+                mJitteredCreationTimeQueue.add(new CreationTime(
+                    creationTime.getCreationTime() - jitter, creationTime.getCreationTime(), slot));
+            }
+        }
+        while (!mJitteredCreationTimeQueue.isEmpty() &&
+               mJitteredCreationTimeQueue.peek().getTime() <= maxCreationTime) {
+            CreationTime creationTime = mJitteredCreationTimeQueue.poll();
+            if (mLatestCreationTimes.get(creationTime.getSlot()) ==
+                    creationTime.getCreationTime()) {
+                addCandidate(creationTime.getSlot());
+            }
+        }
+        HashSet<TopicPartition> topicPartitions = new HashSet<TopicPartition>();
+        ArrayList<Integer> candidateSlots = new ArrayList<Integer>();
+        for (int slot : mCandidateSlots) {
+            if (getFiles(slot) == null) {
+                mCandidateFlags.clear(slot);
+                continue;
+            }
+            TopicPartition topicPartition = mTopicPartitionRegistry.getTopicPartition(slot);
+            long latestCreationTime = mLatestCreationTimes.get(slot);
+            if (mSizes.get(slot) >= maxSizeBytes ||
+                (latestCreationTime != -1 &&
+                 latestCreationTime - getAgeJitterSec(topicPartition, maxAgeJitterSec) <=
+                     maxCreationTime)) {
+                topicPartitions.add(topicPartition);
+                candidateSlots.add(slot);
+            } else {
+                mCandidateFlags.clear(slot);
+            }
+        }
+        mCandidateSlots = candidateSlots;
+        return topicPartitions;
+    }
+
+    /**
+     * Get the creation time of the least recently created file in a given topic partition.
+     * @param topicPartition The topic partition to get the creation time of.
+     * @return Creation time in seconds since the epoch of the least recently created file in the
+     *     topic partition or -1 if no file in the partition has a writer.
+     */
+    public long getCreationTimeSec(TopicPartition topicPartition) {
+        long result = -1;
+        Collection<LogFilePath> paths = getPaths(topicPartition);
+        for (LogFilePath path : paths) {
+            Long creationTime = mCreationTimes.get(path);
+            if (creationTime != null && (result == -1 || creationTime < result)) {
+                result = creationTime;
+            }
+        }
+        return result;
+    }
+
     /**
      * Get the creation age of the most recently created file in a given topic partition.
      * @param topicPartition The topic partition to get the age of.
@@ -227,4 +450,34 @@ public class FileRegistry {
             topicPartition.getPartition(), Long.toString(result));
         return result;
     }
+
+    private static class CreationTime implements Comparable<CreationTime> {
+        // Time the queue is ordered by.
+        private final long mTime;
+        private final long mCreationTime;
+        private final int mSlot;
+
+        public CreationTime(long time, long creationTime, int slot) {
+            mTime = time;
+            mCreationTime = creationTime;
+            mSlot = slot;
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+
+        public long getCreationTime() {
+            return mCreationTime;
+        }
+
+        public int getSlot() {
+            return mSlot;
+        }
+
+        @Override
+        public int compareTo(CreationTime other) {
+            return mTime < other.mTime ? -1 : (mTime == other.mTime ? 0 : 1);
+        }
+    }
 }
@@ -16,10 +16,13 @@
  */
 package com.pinterest.secor.common;
 
+import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
 import com.pinterest.secor.message.Message;
+import com.pinterest.secor.util.ReflectionUtil;
 import kafka.api.FetchRequestBuilder;
 import kafka.api.PartitionOffsetRequestInfo;
+import kafka.common.ErrorMapping;
 import kafka.common.TopicAndPartition;
 import kafka.javaapi.FetchResponse;
 import kafka.javaapi.OffsetRequest;
@@ -36,60 +39,180 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Kafka client encapsulates the logic interacting with Kafka brokers.
  *
+ * Connections to brokers are pooled and topic metadata, including partition leaders, is cached
+ * for secor.kafka.metadata.ttl.seconds.  Cached metadata of a topic is dropped as soon as a broker
+ * reports that it no longer leads a partition of the topic.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class KafkaClient {
     private static final Logger LOG = LoggerFactory.getLogger(KafkaClient.class);
 
+    private static final int SO_TIMEOUT_MS = 100000;
+    private static final int BUFFER_SIZE_BYTES = 64 * 1024;
+    // Requests failing due to leadership changes or broker failures are retried once.
+    private static final int MAX_ATTEMPTS = 2;
+    // Brokers may return up to the max message size per partition so fetch requests are split to
+    // keep responses below this size.
+    private static final int MAX_FETCH_RESPONSE_BYTES = 32 * 1024 * 1024;
+
     private SecorConfig mConfig;
-    private ZookeeperConnector mZookeeperConnector;
+    private OffsetStore mOffsetStore;
+    private HashMap<HostAndPort, SimpleConsumer> mConsumers;
+    private HashMap<String, CachedTopicMetadata> mTopicMetadata;
+    // Sends requests to different brokers concurrently.
+    private ExecutorService mExecutor;
 
-    public KafkaClient(SecorConfig config) {
+    public KafkaClient(SecorConfig config) throws Exception {
         mConfig = config;
-        mZookeeperConnector = new ZookeeperConnector(mConfig);
+        mOffsetStore = ReflectionUtil.createOffsetStore(mConfig.getOffsetStoreClass(), mConfig);
+        mConsumers = new HashMap<HostAndPort, SimpleConsumer>();
+        mTopicMetadata = new HashMap<String, CachedTopicMetadata>();
     }
 
-    private HostAndPort findLeader(TopicPartition topicPartition) {
-        SimpleConsumer consumer = null;
+    private synchronized SimpleConsumer getConsumer(HostAndPort broker) {
+        SimpleConsumer consumer = mConsumers.get(broker);
+        if (consumer == null) {
+            consumer = new SimpleConsumer(broker.getHostText(), broker.getPort(), SO_TIMEOUT_MS,
+                                          BUFFER_SIZE_BYTES, "secorClient");
+            mConsumers.put(broker, consumer);
+        }
+        return consumer;
+    }
+
+    private synchronized void closeConsumer(HostAndPort broker) {
+        SimpleConsumer consumer = mConsumers.remove(broker);
+        if (consumer != null) {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Close connections to all brokers.
+     */
+    public synchronized void close() {
+        for (SimpleConsumer consumer : mConsumers.values()) {
+            consumer.close();
+        }
+        mConsumers.clear();
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private int mThreadIndex = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "secor-kafka-client-" + mThreadIndex++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+
+    private synchronized TopicMetadata getTopicMetadata(String topic) {
+        long now = System.currentTimeMillis();
+        CachedTopicMetadata cachedMetadata = mTopicMetadata.get(topic);
+        if (cachedMetadata != null &&
+            now - cachedMetadata.getFetchTimeMs() < mConfig.getKafkaMetadataTtlSeconds() * 1000L) {
+            return cachedMetadata.getMetadata();
+        }
+        LOG.info("looking up metadata for topic " + topic);
+        HostAndPort seedBroker = HostAndPort.fromParts(mConfig.getKafkaSeedBrokerHost(),
+                                                       mConfig.getKafkaSeedBrokerPort());
+        List<String> topics = new ArrayList<String>();
+        topics.add(topic);
+        TopicMetadataResponse response;
         try {
-            LOG.info("looking up leader for topic " + topicPartition.getTopic() + " partition " +
-                topicPartition.getPartition());
-            consumer = new SimpleConsumer(mConfig.getKafkaSeedBrokerHost(),
-                    mConfig.getKafkaSeedBrokerPort(),
-                    100000, 64 * 1024, "leaderLookup");
-            List<String> topics = new ArrayList<String>();
-            topics.add(topicPartition.getTopic());
-            TopicMetadataRequest request = new TopicMetadataRequest(topics);
-            TopicMetadataResponse response = consumer.send(request);
-
-            List<TopicMetadata> metaData = response.topicsMetadata();
-            for (TopicMetadata item : metaData) {
-                for (PartitionMetadata part : item.partitionsMetadata()) {
-                    if (part.partitionId() == topicPartition.getPartition()) {
-                        return HostAndPort.fromParts(part.leader().host(), part.leader().port());
-                    }
+            response = getConsumer(seedBroker).send(new TopicMetadataRequest(topics));
+        } catch (Exception e) {
+            closeConsumer(seedBroker);
+            throw new RuntimeException("Failed to look up metadata for topic " + topic, e);
+        }
+        if (response.topicsMetadata().size() != 1) {
+            throw new RuntimeException("Expected one metadata for topic " + topic + " found " +
+                response.topicsMetadata().size());
+        }
+        TopicMetadata topicMetadata = response.topicsMetadata().get(0);
+        mTopicMetadata.put(topic, new CachedTopicMetadata(topicMetadata, now));
+        return topicMetadata;
+    }
+
+    private synchronized void invalidateTopicMetadata(String topic) {
+        mTopicMetadata.remove(topic);
+    }
+
+    private HostAndPort findLeader(TopicPartition topicPartition) {
+        TopicMetadata topicMetadata = getTopicMetadata(topicPartition.getTopic());
+        for (PartitionMetadata part : topicMetadata.partitionsMetadata()) {
+            if (part.partitionId() == topicPartition.getPartition()) {
+                if (part.leader() == null) {
+                    break;
                 }
-            }
-        } finally {
-            if (consumer != null) {
-                consumer.close();
+                return HostAndPort.fromParts(part.leader().host(), part.leader().port());
             }
         }
-        return null;
+        // Do not remember partitions without leaders.
+        invalidateTopicMetadata(topicPartition.getTopic());
+        throw new RuntimeException("No leader found for topic " + topicPartition.getTopic() +
+                                   " partition " + topicPartition.getPartition());
     }
 
     private static String getClientName(TopicPartition topicPartition) {
         return "secorClient_" + topicPartition.getTopic() + "_" + topicPartition.getPartition();
     }
 
-    private long findLastOffset(TopicPartition topicPartition, SimpleConsumer consumer) {
+    private static boolean isLeaderError(short errorCode) {
+        return errorCode == ErrorMapping.NotLeaderForPartitionCode() ||
+               errorCode == ErrorMapping.LeaderNotAvailableCode() ||
+               errorCode == ErrorMapping.UnknownTopicOrPartitionCode();
+    }
+
+    // @return whether the failed request should be retried
+    private boolean handleError(TopicPartition topicPartition, short errorCode, int attempt) {
+        if (isLeaderError(errorCode) && attempt < MAX_ATTEMPTS) {
+            LOG.info("leader of topic " + topicPartition.getTopic() + " partition " +
+                     topicPartition.getPartition() + " changed, error code " + errorCode);
+            invalidateTopicMetadata(topicPartition.getTopic());
+            return true;
+        }
+        return false;
+    }
+
+    private void handleBrokerFailure(TopicPartition topicPartition, HostAndPort broker,
+                                     int attempt, Exception exception) {
+        // The broker may be down.  The partition will likely get a new leader.
+        closeConsumer(broker);
+        invalidateTopicMetadata(topicPartition.getTopic());
+        if (attempt >= MAX_ATTEMPTS) {
+            throw new RuntimeException("Request to broker " + broker + " failed", exception);
+        }
+        LOG.warn("request to broker " + broker + " failed", exception);
+    }
+
+    private long findLastOffset(TopicPartition topicPartition) {
         TopicAndPartition topicAndPartition = new TopicAndPartition(topicPartition.getTopic(),
                 topicPartition.getPartition());
         Map<TopicAndPartition, PartitionOffsetRequestInfo> requestInfo =
@@ -100,19 +223,30 @@ public class KafkaClient {
         OffsetRequest request = new OffsetRequest(requestInfo,
                                                   kafka.api.OffsetRequest.CurrentVersion(),
                                                   clientName);
-        OffsetResponse response = consumer.getOffsetsBefore(request);
-
-        if (response.hasError()) {
-            throw new RuntimeException("Error fetching offset data. Reason: " +
-                    response.errorCode(topicPartition.getTopic(), topicPartition.getPartition()));
+        for (int attempt = 1; ; ++attempt) {
+            HostAndPort leader = findLeader(topicPartition);
+            OffsetResponse response;
+            try {
+                response = getConsumer(leader).getOffsetsBefore(request);
+            } catch (Exception e) {
+                handleBrokerFailure(topicPartition, leader, attempt, e);
+                continue;
+            }
+            if (response.hasError()) {
+                short errorCode = response.errorCode(topicPartition.getTopic(),
+                                                     topicPartition.getPartition());
+                if (handleError(topicPartition, errorCode, attempt)) {
+                    continue;
+                }
+                throw new RuntimeException("Error fetching offset data. Reason: " + errorCode);
+            }
+            long[] offsets = response.offsets(topicPartition.getTopic(),
+                    topicPartition.getPartition());
+            return offsets[0] - 1;
         }
-        long[] offsets = response.offsets(topicPartition.getTopic(),
-                topicPartition.getPartition());
-        return offsets[0] - 1;
     }
 
-    private Message getMessage(TopicPartition topicPartition, long offset,
-                               SimpleConsumer consumer) {
+    private Message getMessage(TopicPartition topicPartition, long offset) {
         LOG.info("fetching message topic " + topicPartition.getTopic() + " partition " +
                 topicPartition.getPartition() + " offset " + offset);
         final int MAX_MESSAGE_SIZE_BYTES = mConfig.getMaxMessageSizeBytes();
@@ -121,68 +255,293 @@ public class KafkaClient {
                 .addFetch(topicPartition.getTopic(), topicPartition.getPartition(), offset,
                           MAX_MESSAGE_SIZE_BYTES)
                 .build();
-        FetchResponse response = consumer.fetch(request);
-        if (response.hasError()) {
-            consumer.close();
-            throw new RuntimeException("Error fetching offset data. Reason: " +
-                    response.errorCode(topicPartition.getTopic(), topicPartition.getPartition()));
+        for (int attempt = 1; ; ++attempt) {
+            HostAndPort leader = findLeader(topicPartition);
+            FetchResponse response;
+            try {
+                response = getConsumer(leader).fetch(request);
+            } catch (Exception e) {
+                handleBrokerFailure(topicPartition, leader, attempt, e);
+                continue;
+            }
+            if (response.hasError()) {
+                short errorCode = response.errorCode(topicPartition.getTopic(),
+                                                     topicPartition.getPartition());
+                if (handleError(topicPartition, errorCode, attempt)) {
+                    continue;
+                }
+                throw new RuntimeException("Error fetching offset data. Reason: " + errorCode);
+            }
+            MessageAndOffset messageAndOffset = response.messageSet(
+                    topicPartition.getTopic(), topicPartition.getPartition()).iterator().next();
+            ByteBuffer payload = messageAndOffset.message().payload();
+            byte[] payloadBytes = new byte[payload.limit()];
+            payload.get(payloadBytes);
+            return new Message(topicPartition.getTopic(), topicPartition.getPartition(),
+                    messageAndOffset.offset(), payloadBytes);
+        }
+    }
+
+    /**
+     * Send a request for a group of topic partitions to each of their leaders.  Topic partitions
+     * whose leaders cannot be found or whose requests fail are left out of the results so that
+     * callers can retry them one by one.
+     * @param topicPartitions The topic partitions to send requests for.
+     * @param request The request to send to each leader.
+     * @return Map from topic partitions to request results.
+     * @throws Exception
+     */
+    private <T> Map<TopicPartition, T> sendToLeaders(Collection<TopicPartition> topicPartitions,
+                                                     final BatchRequest<T> request)
+            throws Exception {
+        HashMap<HostAndPort, List<TopicPartition>> topicPartitionsByLeader =
+            new HashMap<HostAndPort, List<TopicPartition>>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            HostAndPort leader;
+            try {
+                leader = findLeader(topicPartition);
+            } catch (RuntimeException e) {
+                LOG.warn("failed to find leader of topic " + topicPartition.getTopic() +
+                         " partition " + topicPartition.getPartition(), e);
+                continue;
+            }
+            List<TopicPartition> leaderTopicPartitions = topicPartitionsByLeader.get(leader);
+            if (leaderTopicPartitions == null) {
+                leaderTopicPartitions = new ArrayList<TopicPartition>();
+                topicPartitionsByLeader.put(leader, leaderTopicPartitions);
+            }
+            leaderTopicPartitions.add(topicPartition);
+        }
+        List<Future<Map<TopicPartition, T>>> futures =
+            new ArrayList<Future<Map<TopicPartition, T>>>();
+        for (Map.Entry<HostAndPort, List<TopicPartition>> entry :
+                topicPartitionsByLeader.entrySet()) {
+            final HostAndPort leader = entry.getKey();
+            final List<TopicPartition> leaderTopicPartitions = entry.getValue();
+            futures.add(getExecutor().submit(new Callable<Map<TopicPartition, T>>() {
+                @Override
+                public Map<TopicPartition, T> call() {
+                    try {
+                        return request.send(getConsumer(leader), leaderTopicPartitions);
+                    } catch (Exception e) {
+                        LOG.warn("request to broker " + leader + " failed", e);
+                        closeConsumer(leader);
+                        for (TopicPartition topicPartition : leaderTopicPartitions) {
+                            invalidateTopicMetadata(topicPartition.getTopic());
+                        }
+                        return new HashMap<TopicPartition, T>();
+                    }
+                }
+            }));
+        }
+        HashMap<TopicPartition, T> results = new HashMap<TopicPartition, T>();
+        for (Future<Map<TopicPartition, T>> future : futures) {
+            results.putAll(future.get());
+        }
+        return results;
+    }
+
+    // @return whether the request for the topic partition succeeded
+    private boolean checkError(TopicPartition topicPartition, short errorCode) {
+        if (errorCode == ErrorMapping.NoError()) {
+            return true;
+        }
+        if (isLeaderError(errorCode)) {
+            invalidateTopicMetadata(topicPartition.getTopic());
+        }
+        return false;
+    }
+
+    private Map<TopicPartition, Long> findLastOffsets(Collection<TopicPartition> topicPartitions)
+            throws Exception {
+        Map<TopicPartition, Long> lastOffsets = sendToLeaders(topicPartitions,
+            new BatchRequest<Long>() {
+                @Override
+                public Map<TopicPartition, Long> send(SimpleConsumer consumer,
+                                                      List<TopicPartition> topicPartitions) {
+                    Map<TopicAndPartition, PartitionOffsetRequestInfo> requestInfo =
+                        new HashMap<TopicAndPartition, PartitionOffsetRequestInfo>();
+                    for (TopicPartition topicPartition : topicPartitions) {
+                        requestInfo.put(new TopicAndPartition(topicPartition.getTopic(),
+                                                              topicPartition.getPartition()),
+                                        new PartitionOffsetRequestInfo(
+                                            kafka.api.OffsetRequest.LatestTime(), 1));
+                    }
+                    OffsetResponse response = consumer.getOffsetsBefore(new OffsetRequest(
+                        requestInfo, kafka.api.OffsetRequest.CurrentVersion(), "secorClient"));
+                    HashMap<TopicPartition, Long> results = new HashMap<TopicPartition, Long>();
+                    for (TopicPartition topicPartition : topicPartitions) {
+                        if (checkError(topicPartition, response.errorCode(
+                                topicPartition.getTopic(), topicPartition.getPartition()))) {
+                            long[] offsets = response.offsets(topicPartition.getTopic(),
+                                                              topicPartition.getPartition());
+                            results.put(topicPartition, offsets[0] - 1);
+                        }
+                    }
+                    return results;
+                }
+            });
+        for (TopicPartition topicPartition : topicPartitions) {
+            if (!lastOffsets.containsKey(topicPartition)) {
+                lastOffsets.put(topicPartition, findLastOffset(topicPartition));
+            }
         }
-        MessageAndOffset messageAndOffset = response.messageSet(
-                topicPartition.getTopic(), topicPartition.getPartition()).iterator().next();
-        ByteBuffer payload = messageAndOffset.message().payload();
-        byte[] payloadBytes = new byte[payload.limit()];
-        payload.get(payloadBytes);
-        return new Message(topicPartition.getTopic(), topicPartition.getPartition(),
-                messageAndOffset.offset(), payloadBytes);
+        return lastOffsets;
     }
 
-   public SimpleConsumer createConsumer(TopicPartition topicPartition) {
+    private Map<TopicPartition, Message> getMessages(final Map<TopicPartition, Long> offsets)
+            throws Exception {
+        final int MAX_MESSAGE_SIZE_BYTES = mConfig.getMaxMessageSizeBytes();
+        final int MAX_PARTITIONS_PER_FETCH = Math.max(1,
+            MAX_FETCH_RESPONSE_BYTES / MAX_MESSAGE_SIZE_BYTES);
+        Map<TopicPartition, Message> messages = sendToLeaders(offsets.keySet(),
+            new BatchRequest<Message>() {
+                @Override
+                public Map<TopicPartition, Message> send(SimpleConsumer consumer,
+                                                         List<TopicPartition> topicPartitions) {
+                    HashMap<TopicPartition, Message> results =
+                        new HashMap<TopicPartition, Message>();
+                    for (List<TopicPartition> fetchPartitions : Lists.partition(
+                            topicPartitions, MAX_PARTITIONS_PER_FETCH)) {
+                        fetch(consumer, fetchPartitions, results);
+                    }
+                    return results;
+                }
+
+                private void fetch(SimpleConsumer consumer, List<TopicPartition> topicPartitions,
+                                   Map<TopicPartition, Message> results) {
+                    FetchRequestBuilder builder = new FetchRequestBuilder().clientId(
+                        "secorClient");
+                    for (TopicPartition topicPartition : topicPartitions) {
+                        builder.addFetch(topicPartition.getTopic(), topicPartition.getPartition(),
+                                         offsets.get(topicPartition), MAX_MESSAGE_SIZE_BYTES);
+                    }
+                    FetchResponse response = consumer.fetch(builder.build());
+                    for (TopicPartition topicPartition : topicPartitions) {
+                        if (!checkError(topicPartition, response.errorCode(
+                                topicPartition.getTopic(), topicPartition.getPartition()))) {
+                            continue;
+                        }
+                        Iterator<MessageAndOffset> iterator = response.messageSet(
+                            topicPartition.getTopic(), topicPartition.getPartition()).iterator();
+                        if (!iterator.hasNext()) {
+                            continue;
+                        }
+                        MessageAndOffset messageAndOffset = iterator.next();
+                        ByteBuffer payload = messageAndOffset.message().payload();
+                        byte[] payloadBytes = new byte[payload.limit()];
+                        payload.get(payloadBytes);
+                        results.put(topicPartition, new Message(topicPartition.getTopic(),
+                            topicPartition.getPartition(), messageAndOffset.offset(),
+                            payloadBytes));
+                    }
+                }
+            });
+        for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+            if (!messages.containsKey(entry.getKey())) {
+                Message message = getMessage(entry.getKey(), entry.getValue());
+                if (message != null) {
+                    messages.put(entry.getKey(), message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Create a consumer connected to the leader of a topic partition.  The consumer is not pooled
+     * and has to be closed by the caller.
+     */
+    public SimpleConsumer createConsumer(TopicPartition topicPartition) {
         HostAndPort leader = findLeader(topicPartition);
         LOG.info("leader for topic " + topicPartition.getTopic() + " partition " +
                  topicPartition.getPartition() + " is " + leader.toString());
         final String clientName = getClientName(topicPartition);
-        return new SimpleConsumer(leader.getHostText(), leader.getPort(), 100000, 64 * 1024,
-                                  clientName);
+        return new SimpleConsumer(leader.getHostText(), leader.getPort(), SO_TIMEOUT_MS,
+                                  BUFFER_SIZE_BYTES, clientName);
     }
 
     public int getNumPartitions(String topic) {
-        SimpleConsumer consumer = null;
-        try {
-            consumer = new SimpleConsumer(mConfig.getKafkaSeedBrokerHost(),
-                    mConfig.getKafkaSeedBrokerPort(),
-                    100000, 64 * 1024, "partitionLookup");
-            List<String> topics = new ArrayList<String>();
-            topics.add(topic);
-            TopicMetadataRequest request = new TopicMetadataRequest(topics);
-            TopicMetadataResponse response = consumer.send(request);
-            if (response.topicsMetadata().size() != 1) {
-                throw new RuntimeException("Expected one metadata for topic " + topic + " found " +
-                    response.topicsMetadata().size());
-            }
-            TopicMetadata topicMetadata = response.topicsMetadata().get(0);
-            return topicMetadata.partitionsMetadata().size();
-        } finally {
-            if (consumer != null) {
-                consumer.close();
-            }
-        }
+        return getTopicMetadata(topic).partitionsMetadata().size();
     }
 
     public Message getLastMessage(TopicPartition topicPartition) throws TException {
-        SimpleConsumer consumer = createConsumer(topicPartition);
-        long lastOffset = findLastOffset(topicPartition, consumer);
+        long lastOffset = findLastOffset(topicPartition);
         if (lastOffset < 1) {
             return null;
         }
-        return getMessage(topicPartition, lastOffset, consumer);
+        return getMessage(topicPartition, lastOffset);
+    }
+
+    /**
+     * Get the last messages of a group of topic partitions.
+     * @param topicPartitions The topic partitions to get the last messages of.
+     * @return Map from topic partitions to their last messages.  Topic partitions without
+     *     messages are not included.
+     * @throws Exception
+     */
+    public Map<TopicPartition, Message> getLastMessages(Collection<TopicPartition> topicPartitions)
+            throws Exception {
+        HashMap<TopicPartition, Long> offsets = new HashMap<TopicPartition, Long>();
+        for (Map.Entry<TopicPartition, Long> entry : findLastOffsets(topicPartitions).entrySet()) {
+            if (entry.getValue() >= 1) {
+                offsets.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return getMessages(offsets);
+    }
+
+    /**
+     * Get the last committed messages of a group of topic partitions.
+     * @param topicPartitions The topic partitions to get the committed messages of.
+     * @return Map from topic partitions to their last committed messages.  Topic partitions
+     *     without committed messages are not included.
+     * @throws Exception
+     */
+    public Map<TopicPartition, Message> getCommittedMessages(
+            Collection<TopicPartition> topicPartitions) throws Exception {
+        HashMap<TopicPartition, Long> offsets = new HashMap<TopicPartition, Long>();
+        for (TopicPartition topicPartition : new HashSet<TopicPartition>(topicPartitions)) {
+            long committedOffset = mOffsetStore.getCommittedOffsetCount(topicPartition) - 1;
+            if (committedOffset >= 0) {
+                offsets.put(topicPartition, committedOffset);
+            }
+        }
+        return getMessages(offsets);
     }
 
     public Message getCommittedMessage(TopicPartition topicPartition) throws Exception {
-        long committedOffset = mZookeeperConnector.getCommittedOffsetCount(topicPartition) - 1;
+        long committedOffset = mOffsetStore.getCommittedOffsetCount(topicPartition) - 1;
         if (committedOffset < 0) {
             return null;
         }
-        SimpleConsumer consumer = createConsumer(topicPartition);
-        return getMessage(topicPartition, committedOffset, consumer);
+        return getMessage(topicPartition, committedOffset);
+    }
+
+    private interface BatchRequest<T> {
+        /**
+         * Send a request for a group of topic partitions led by the broker of a given consumer.
+         * @return Map from topic partitions whose requests succeeded to request results.
+         */
+        public Map<TopicPartition, T> send(SimpleConsumer consumer,
+                                           List<TopicPartition> topicPartitions);
+    }
+
+    private static class CachedTopicMetadata {
+        private final TopicMetadata mMetadata;
+        private final long mFetchTimeMs;
+
+        public CachedTopicMetadata(TopicMetadata metadata, long fetchTimeMs) {
+            mMetadata = metadata;
+            mFetchTimeMs = fetchTimeMs;
+        }
+
+        public TopicMetadata getMetadata() {
+            return mMetadata;
+        }
+
+        public long getFetchTimeMs() {
+            return mFetchTimeMs;
+        }
     }
 }
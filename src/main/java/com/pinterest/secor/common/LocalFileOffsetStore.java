@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offset store keeping committed offset counts in a local file.  The file is rewritten and synced
+ * to the disk on every update.  Updates made concurrently by different threads are synced
+ * together so a single sync may cover multiple commits.  Offsets are not visible to other hosts
+ * so the store is only suitable for single-process deployments and benchmarks.
+ *
+ * Each line of the file holds a topic, a partition, and a committed offset count separated by
+ * tabs.
+ */
+public class LocalFileOffsetStore implements OffsetStore {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalFileOffsetStore.class);
+
+    // Shared by all stores of a given file.
+    private static final HashMap<String, OffsetFile> mOffsetFiles =
+        new HashMap<String, OffsetFile>();
+
+    private final OffsetFile mOffsetFile;
+
+    public LocalFileOffsetStore(SecorConfig config) throws IOException {
+        this(new File(config.getOffsetStoreLocalPath()));
+    }
+
+    public LocalFileOffsetStore(File file) throws IOException {
+        mOffsetFile = getOffsetFile(file);
+    }
+
+    private static synchronized OffsetFile getOffsetFile(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        OffsetFile offsetFile = mOffsetFiles.get(path);
+        if (offsetFile == null) {
+            offsetFile = new OffsetFile(file);
+            mOffsetFiles.put(path, offsetFile);
+        }
+        return offsetFile;
+    }
+
+    @Override
+    public long getCommittedOffsetCount(TopicPartition topicPartition) {
+        return mOffsetFile.get(topicPartition);
+    }
+
+    @Override
+    public void setCommittedOffsetCount(TopicPartition topicPartition, long count)
+            throws IOException {
+        mOffsetFile.set(Collections.singletonMap(topicPartition, count));
+    }
+
+    @Override
+    public void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) throws IOException {
+        mOffsetFile.set(counts);
+    }
+
+    @Override
+    public List<String> getCommittedOffsetTopics() {
+        HashSet<String> topics = new HashSet<String>();
+        for (TopicPartition topicPartition : mOffsetFile.getTopicPartitions()) {
+            topics.add(topicPartition.getTopic());
+        }
+        ArrayList<String> result = new ArrayList<String>(topics);
+        Collections.sort(result);
+        return result;
+    }
+
+    @Override
+    public List<Integer> getCommittedOffsetPartitions(String topic) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for (TopicPartition topicPartition : mOffsetFile.getTopicPartitions()) {
+            if (topicPartition.getTopic().equals(topic)) {
+                result.add(topicPartition.getPartition());
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static class OffsetFile {
+        private final File mFile;
+        // Guarded by this.
+        private final HashMap<TopicPartition, Long> mCounts;
+        private long mVersion;
+        // Guarded by mSyncLock.
+        private final Object mSyncLock = new Object();
+        private long mSyncedVersion;
+
+        public OffsetFile(File file) throws IOException {
+            mFile = file;
+            mCounts = new HashMap<TopicPartition, Long>();
+            File parent = mFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            if (mFile.exists()) {
+                load();
+            }
+        }
+
+        private void load() throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] elements = line.split("\t");
+                    if (elements.length != 3) {
+                        throw new IOException("Malformed line '" + line + "' in " + mFile);
+                    }
+                    mCounts.put(new TopicPartition(elements[0], Integer.parseInt(elements[1])),
+                                Long.parseLong(elements[2]));
+                }
+            } finally {
+                reader.close();
+            }
+            LOG.info("loaded " + mCounts.size() + " committed offset counts from " + mFile);
+        }
+
+        public synchronized long get(TopicPartition topicPartition) {
+            Long count = mCounts.get(topicPartition);
+            return count == null ? -1 : count;
+        }
+
+        public synchronized List<TopicPartition> getTopicPartitions() {
+            return new ArrayList<TopicPartition>(mCounts.keySet());
+        }
+
+        public void set(Map<TopicPartition, Long> counts) throws IOException {
+            long version;
+            synchronized (this) {
+                mCounts.putAll(counts);
+                version = ++mVersion;
+            }
+            sync(version);
+        }
+
+        private void sync(long version) throws IOException {
+            synchronized (mSyncLock) {
+                // A sync started while we were waiting may have covered our update.
+                if (mSyncedVersion >= version) {
+                    return;
+                }
+                HashMap<TopicPartition, Long> snapshot;
+                long snapshotVersion;
+                synchronized (this) {
+                    snapshot = new HashMap<TopicPartition, Long>(mCounts);
+                    snapshotVersion = mVersion;
+                }
+                write(snapshot);
+                mSyncedVersion = snapshotVersion;
+            }
+        }
+
+        private void write(Map<TopicPartition, Long> counts) throws IOException {
+            File tmpFile = new File(mFile.getPath() + ".tmp");
+            FileOutputStream outputStream = new FileOutputStream(tmpFile);
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+                for (Map.Entry<TopicPartition, Long> entry : counts.entrySet()) {
+                    writer.write(entry.getKey().getTopic() + "\t" +
+                                 entry.getKey().getPartition() + "\t" + entry.getValue() + "\n");
+                }
+                writer.flush();
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+            // Renaming replaces the file atomically so readers never see a partial file.
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + mFile);
+            }
+        }
+    }
+}
@@ -49,6 +49,11 @@ public class LogFilePath {
     private int mKafkaPartition;
     private long mOffset;
     private String mExtension;
+    // Lazily computed derived values.  Log file paths are immutable so they never go stale.
+    private String mLogFilePath;
+    private String mLogFileCrcPath;
+    private String mLogFileIndexPath;
+    private int mHashCode;
 
     public LogFilePath(String prefix, int generation, long lastCommittedOffset,
                        ParsedMessage message, String extension) {
@@ -131,31 +136,41 @@ public class LogFilePath {
     }
 
     private String getLogFileBasename() {
-        ArrayList<String> basenameElements = new ArrayList<String>();
-        basenameElements.add(Integer.toString(mGeneration));
-        basenameElements.add(Integer.toString(mKafkaPartition));
-        basenameElements.add(String.format("%020d", mOffset));
-        return StringUtils.join(basenameElements, "_");
+        // Equivalent to String.format("%020d", mOffset) for non-negative offsets but much cheaper.
+        String offset = Long.toString(mOffset);
+        StringBuilder basename = new StringBuilder(32);
+        basename.append(mGeneration).append('_').append(mKafkaPartition).append('_');
+        if (mOffset >= 0) {
+            for (int i = offset.length(); i < 20; ++i) {
+                basename.append('0');
+            }
+            basename.append(offset);
+        } else {
+            basename.append(String.format("%020d", mOffset));
+        }
+        return basename.toString();
     }
 
     public String getLogFilePath() {
-        String basename = getLogFileBasename();
-
-        ArrayList<String> pathElements = new ArrayList<String>();
-        pathElements.add(getLogFileDir());
-        pathElements.add(basename);
-
-        return StringUtils.join(pathElements, "/") + mExtension;
+        if (mLogFilePath == null) {
+            mLogFilePath = getLogFileDir() + '/' + getLogFileBasename() + mExtension;
+        }
+        return mLogFilePath;
     }
 
     public String getLogFileCrcPath() {
-        String basename = "." + getLogFileBasename() + ".crc";
-
-        ArrayList<String> pathElements = new ArrayList<String>();
-        pathElements.add(getLogFileDir());
-        pathElements.add(basename);
+        if (mLogFileCrcPath == null) {
+            mLogFileCrcPath = getLogFileDir() + "/." + getLogFileBasename() + ".crc";
+        }
+        return mLogFileCrcPath;
+    }
 
-        return StringUtils.join(pathElements, "/");
+    public String getLogFileIndexPath() {
+        if (mLogFileIndexPath == null) {
+            mLogFileIndexPath = getLogFileDir() + "/." + getLogFileBasename() + mExtension +
+                ".index";
+        }
+        return mLogFileIndexPath;
     }
 
     public String getTopic() {
@@ -201,12 +216,16 @@ public class LogFilePath {
 
     @Override
     public int hashCode() {
+        if (mHashCode != 0) {
+            return mHashCode;
+        }
         int result = mPrefix != null ? mPrefix.hashCode() : 0;
         result = 31 * result + (mTopic != null ? mTopic.hashCode() : 0);
         result = 31 * result + (mPartitions != null ? Arrays.hashCode(mPartitions) : 0);
         result = 31 * result + mGeneration;
         result = 31 * result + mKafkaPartition;
         result = 31 * result + (int) (mOffset ^ (mOffset >>> 32));
+        mHashCode = result;
         return result;
     }
 
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import com.pinterest.secor.message.ParsedMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Log file path cache returns the same log file path instance for messages landing in the same
+ * file.  This spares the write path from building a new path, hashing it, and formatting its
+ * strings for every message.
+ *
+ * Paths are cached per topic partition slot (see {@link TopicPartitionRegistry}) and keyed on
+ * message partitions and committed offset.  Partitions are first compared by identity to take
+ * advantage of parsers reusing partition arrays.  Each slot holds a handful of most recently used
+ * paths.  Committed offsets never go back so entries with an offset other than the requested one
+ * are dropped on a miss.
+ *
+ * The cache is not thread-safe.
+ */
+public class LogFilePathCache {
+    private static final int MAX_ENTRIES_PER_SLOT = 16;
+
+    private final String mPrefix;
+    private final int mGeneration;
+    private final String mExtension;
+    // Most recently used paths first, indexed by topic partition slot.
+    private final ArrayList<ArrayList<LogFilePath>> mPaths;
+
+    public LogFilePathCache(String prefix, int generation, String extension) {
+        mPrefix = prefix;
+        mGeneration = generation;
+        mExtension = extension;
+        mPaths = new ArrayList<ArrayList<LogFilePath>>();
+    }
+
+    /**
+     * Get the path of the file a given message should be written to.
+     *
+     * @param slot Slot of the message topic partition.
+     * @param offset Committed offset count of the message topic partition.
+     * @param message The message to get the path for.
+     * @return Log file path.
+     */
+    public LogFilePath get(int slot, long offset, ParsedMessage message) {
+        while (mPaths.size() <= slot) {
+            mPaths.add(null);
+        }
+        ArrayList<LogFilePath> paths = mPaths.get(slot);
+        if (paths == null) {
+            paths = new ArrayList<LogFilePath>(MAX_ENTRIES_PER_SLOT);
+            mPaths.set(slot, paths);
+        }
+        String[] partitions = message.getPartitions();
+        for (int i = 0; i < paths.size(); ++i) {
+            LogFilePath path = paths.get(i);
+            if (path.getOffset() == offset &&
+                (path.getPartitions() == partitions ||
+                 Arrays.equals(path.getPartitions(), partitions))) {
+                if (i > 0) {
+                    paths.remove(i);
+                    paths.add(0, path);
+                }
+                return path;
+            }
+        }
+        for (int i = paths.size() - 1; i >= 0; --i) {
+            if (paths.get(i).getOffset() != offset) {
+                paths.remove(i);
+            }
+        }
+        if (paths.size() >= MAX_ENTRIES_PER_SLOT) {
+            paths.remove(paths.size() - 1);
+        }
+        LogFilePath path = new LogFilePath(mPrefix, mGeneration, offset, message, mExtension);
+        paths.add(0, path);
+        return path;
+    }
+}
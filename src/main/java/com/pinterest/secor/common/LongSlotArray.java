@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive longs indexed by topic partition slots (see
+ * {@link TopicPartitionRegistry}).  Slots that have never been set hold the default value.
+ *
+ * The array is not thread-safe.
+ */
+public class LongSlotArray {
+    private final long mDefaultValue;
+    private long[] mValues;
+
+    public LongSlotArray(long defaultValue) {
+        mDefaultValue = defaultValue;
+        mValues = new long[0];
+    }
+
+    public long get(int slot) {
+        if (slot < mValues.length) {
+            return mValues[slot];
+        }
+        return mDefaultValue;
+    }
+
+    public void set(int slot, long value) {
+        if (slot >= mValues.length) {
+            int length = Math.max(slot + 1, mValues.length * 2);
+            long[] values = Arrays.copyOf(mValues, length);
+            Arrays.fill(values, mValues.length, length, mDefaultValue);
+            mValues = values;
+        }
+        mValues[slot] = value;
+    }
+
+    public void clear(int slot) {
+        if (slot < mValues.length) {
+            mValues[slot] = mDefaultValue;
+        }
+    }
+
+    /**
+     * @return Upper bound on slots holding non-default values.
+     */
+    public int capacity() {
+        return mValues.length;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Offset store keeping committed offset counts in memory.  Offsets are shared by all stores
+ * created from a config in a given process and lost when the process exits.  Meant for
+ * benchmarks and tests.
+ */
+public class MemoryOffsetStore implements OffsetStore {
+    // Shared by all consumer threads.
+    private static final ConcurrentHashMap<TopicPartition, Long> mSharedCounts =
+        new ConcurrentHashMap<TopicPartition, Long>();
+
+    private final ConcurrentHashMap<TopicPartition, Long> mCounts;
+
+    public MemoryOffsetStore(SecorConfig config) {
+        mCounts = mSharedCounts;
+    }
+
+    /**
+     * Create a store whose offsets are not shared with other stores.
+     */
+    public MemoryOffsetStore() {
+        mCounts = new ConcurrentHashMap<TopicPartition, Long>();
+    }
+
+    @Override
+    public long getCommittedOffsetCount(TopicPartition topicPartition) {
+        Long count = mCounts.get(topicPartition);
+        return count == null ? -1 : count;
+    }
+
+    @Override
+    public void setCommittedOffsetCount(TopicPartition topicPartition, long count) {
+        mCounts.put(topicPartition, count);
+    }
+
+    @Override
+    public void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) {
+        mCounts.putAll(counts);
+    }
+
+    @Override
+    public List<String> getCommittedOffsetTopics() {
+        HashSet<String> topics = new HashSet<String>();
+        for (TopicPartition topicPartition : mCounts.keySet()) {
+            topics.add(topicPartition.getTopic());
+        }
+        ArrayList<String> result = new ArrayList<String>(topics);
+        Collections.sort(result);
+        return result;
+    }
+
+    @Override
+    public List<Integer> getCommittedOffsetPartitions(String topic) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for (TopicPartition topicPartition : mCounts.keySet()) {
+            if (topicPartition.getTopic().equals(topic)) {
+                result.add(topicPartition.getPartition());
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
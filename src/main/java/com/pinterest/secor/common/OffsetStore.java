@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offset store keeps committed offset counts of topic partitions, i.e., the offsets of the first
+ * messages not uploaded yet.
+ *
+ * Implementations must have a constructor accepting a SecorConfig.  Instances are not shared
+ * between threads.
+ *
+ * See the secor.offset.store.class config option.
+ */
+public interface OffsetStore {
+    /**
+     * Get the committed offset count of a topic partition.
+     * @param topicPartition The topic partition to get the committed offset count of.
+     * @return The committed offset count or -1 if there is none.
+     * @throws Exception
+     */
+    public long getCommittedOffsetCount(TopicPartition topicPartition) throws Exception;
+
+    /**
+     * Set the committed offset count of a topic partition.
+     * @param topicPartition The topic partition to set the committed offset count of.
+     * @param count The committed offset count.
+     * @throws Exception
+     */
+    public void setCommittedOffsetCount(TopicPartition topicPartition, long count)
+        throws Exception;
+
+    /**
+     * Set committed offset counts of multiple topic partitions.  Implementations should persist
+     * the counts together rather than one by one.
+     * @param counts Map from topic partitions to their committed offset counts.
+     * @throws Exception
+     */
+    public void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) throws Exception;
+
+    /**
+     * Get topics with committed offsets.
+     * @return List of topic names.
+     * @throws Exception
+     */
+    public List<String> getCommittedOffsetTopics() throws Exception;
+
+    /**
+     * Get partitions of a topic with committed offsets.
+     * @param topic The topic to get the partitions of.
+     * @return List of partition numbers.
+     * @throws Exception
+     */
+    public List<Integer> getCommittedOffsetPartitions(String topic) throws Exception;
+}
@@ -19,38 +19,56 @@ package com.pinterest.secor.common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-
 /**
- * Offset tracker stores offset related metadata.
+ * Offset tracker stores offset related metadata.  State is kept in primitive arrays indexed by
+ * topic partition slots (see {@link TopicPartitionRegistry}).  Slot-based accessors are meant for
+ * the per-message path, topic partition based ones are provided for convenience.
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class OffsetTracker {
     private static final Logger LOG = LoggerFactory.getLogger(OffsetTracker.class);
 
-    private HashMap<TopicPartition, Long> mLastSeenOffset;
-    private HashMap<TopicPartition, Long> mFirstSeendOffset;
-    private HashMap<TopicPartition, Long> mCommittedOffsetCount;
+    private TopicPartitionRegistry mRegistry;
+    private LongSlotArray mLastSeenOffset;
+    private LongSlotArray mFirstSeendOffset;
+    private LongSlotArray mCommittedOffsetCount;
+    // Offset count covered by files sealed for upload but not committed yet.
+    private LongSlotArray mSealedOffsetCount;
 
     public OffsetTracker() {
-        mLastSeenOffset = new HashMap<TopicPartition, Long>();
-        mCommittedOffsetCount = new HashMap<TopicPartition, Long>();
-        mFirstSeendOffset = new HashMap<TopicPartition, Long>();
+        this(TopicPartitionRegistry.getInstance());
+    }
+
+    public OffsetTracker(TopicPartitionRegistry registry) {
+        mRegistry = registry;
+        mLastSeenOffset = new LongSlotArray(-2);
+        mCommittedOffsetCount = new LongSlotArray(-1);
+        mFirstSeendOffset = new LongSlotArray(-1);
+        mSealedOffsetCount = new LongSlotArray(-1);
+    }
+
+    public TopicPartitionRegistry getTopicPartitionRegistry() {
+        return mRegistry;
     }
 
     public long getLastSeenOffset(TopicPartition topicPartition) {
-        Long offset = mLastSeenOffset.get(topicPartition);
-        if (offset == null) {
-            return -2;
-        }
-        return offset.longValue();
+        return getLastSeenOffset(mRegistry.getSlot(topicPartition));
+    }
+
+    public long getLastSeenOffset(int slot) {
+        return mLastSeenOffset.get(slot);
     }
 
     public long setLastSeenOffset(TopicPartition topicPartition, long offset) {
-        long lastSeenOffset = getLastSeenOffset(topicPartition);
-        mLastSeenOffset.put(topicPartition, offset);
+        return setLastSeenOffset(mRegistry.getSlot(topicPartition), offset);
+    }
+
+    public long setLastSeenOffset(int slot, long offset) {
+        long lastSeenOffset = getLastSeenOffset(slot);
+        mLastSeenOffset.set(slot, offset);
         if (lastSeenOffset + 1 != offset) {
+            TopicPartition topicPartition = mRegistry.getTopicPartition(slot);
             if (lastSeenOffset >= 0) {
                 LOG.warn("offset for topic " + topicPartition.getTopic() + " partition " +
                         topicPartition.getPartition() + " changed from " + lastSeenOffset + " to " +
@@ -60,25 +78,34 @@ public class OffsetTracker {
                         topicPartition.getPartition() + " from offset " + offset);
             }
         }
-        if (mFirstSeendOffset.get(topicPartition) == null) {
-            mFirstSeendOffset.put(topicPartition, offset);
+        if (mFirstSeendOffset.get(slot) == -1) {
+            mFirstSeendOffset.set(slot, offset);
         }
         return lastSeenOffset;
     }
 
     public long getTrueCommittedOffsetCount(TopicPartition topicPartition) {
-        Long committedOffsetCount = mCommittedOffsetCount.get(topicPartition);
-        if (committedOffsetCount == null) {
-            return -1L;
-        }
-        return committedOffsetCount;
+        return getTrueCommittedOffsetCount(mRegistry.getSlot(topicPartition));
+    }
+
+    public long getTrueCommittedOffsetCount(int slot) {
+        return mCommittedOffsetCount.get(slot);
     }
 
     public long getAdjustedCommittedOffsetCount(TopicPartition topicPartition) {
-        long trueCommittedOffsetCount = getTrueCommittedOffsetCount(topicPartition);
+        return getAdjustedCommittedOffsetCount(mRegistry.getSlot(topicPartition));
+    }
+
+    public long getAdjustedCommittedOffsetCount(int slot) {
+        long trueCommittedOffsetCount = getTrueCommittedOffsetCount(slot);
+        // New files start where the files sealed for upload end.
+        long sealedOffsetCount = mSealedOffsetCount.get(slot);
+        if (sealedOffsetCount > trueCommittedOffsetCount) {
+            return sealedOffsetCount;
+        }
         if (trueCommittedOffsetCount == -1L) {
-            Long firstSeenOffset = mFirstSeendOffset.get(topicPartition);
-            if (firstSeenOffset != null) {
+            long firstSeenOffset = mFirstSeendOffset.get(slot);
+            if (firstSeenOffset != -1L) {
                 return firstSeenOffset;
             }
         }
@@ -86,11 +113,23 @@ public class OffsetTracker {
     }
 
     public long setCommittedOffsetCount(TopicPartition topicPartition, long count) {
-        long trueCommittedOffsetCount = getTrueCommittedOffsetCount(topicPartition);
+        return setCommittedOffsetCount(mRegistry.getSlot(topicPartition), count);
+    }
+
+    public long setCommittedOffsetCount(int slot, long count) {
+        long trueCommittedOffsetCount = getTrueCommittedOffsetCount(slot);
         // Committed offsets should never go back.
         assert trueCommittedOffsetCount <= count: Long.toString(trueCommittedOffsetCount) +
                 " <= " + count;
-        mCommittedOffsetCount.put(topicPartition, count);
+        mCommittedOffsetCount.set(slot, count);
         return trueCommittedOffsetCount;
     }
+
+    public long getSealedOffsetCount(TopicPartition topicPartition) {
+        return mSealedOffsetCount.get(mRegistry.getSlot(topicPartition));
+    }
+
+    public void setSealedOffsetCount(TopicPartition topicPartition, long count) {
+        mSealedOffsetCount.set(mRegistry.getSlot(topicPartition), count);
+    }
 }
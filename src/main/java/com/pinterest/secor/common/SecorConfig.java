@@ -75,6 +75,10 @@ public class SecorConfig {
         return getInt("kafka.seed.broker.port");
     }
 
+    public int getKafkaMetadataTtlSeconds() {
+        return getInt("secor.kafka.metadata.ttl.seconds");
+    }
+
     public String getKafkaZookeeperPath() {
         return getString("kafka.zookeeper.path");
     }
@@ -127,6 +131,10 @@ public class SecorConfig {
         return getLong("secor.max.file.age.seconds");
     }
 
+    public long getMaxFileAgeJitterSeconds() {
+        return getLong("secor.max.file.age.jitter.seconds");
+    }
+
     public long getOffsetsPerPartition() {
         return getLong("secor.offsets.per.partition");
     }
@@ -135,6 +143,78 @@ public class SecorConfig {
         return getInt("secor.messages.per.second");
     }
 
+    public int getConsumerBatchMaxMessages() {
+        return getInt("secor.consumer.batch.max.messages");
+    }
+
+    public long getConsumerBatchMaxBytes() {
+        return getLong("secor.consumer.batch.max.bytes");
+    }
+
+    public int getConsumerBatchMaxWaitMs() {
+        return getInt("secor.consumer.batch.max.wait.ms");
+    }
+
+    public int getConsumerBatchParserThreads() {
+        return getInt("secor.consumer.batch.parser.threads");
+    }
+
+    public int getConsumerPipelineParserThreads() {
+        return getInt("secor.consumer.pipeline.parser.threads");
+    }
+
+    public int getConsumerPipelineQueueCapacity() {
+        return getInt("secor.consumer.pipeline.queue.capacity");
+    }
+
+    public boolean getUploadAsync() {
+        return getBoolean("secor.upload.async");
+    }
+
+    public long getUploadMaxSealedBytes() {
+        return getLong("secor.upload.max.sealed.bytes");
+    }
+
+    public String getUploadSchedulerClass() {
+        return getString("secor.upload.scheduler.class");
+    }
+
+    public int getUploadThreads() {
+        return getInt("secor.upload.threads");
+    }
+
+    public int getUploadQueueCapacity() {
+        return getInt("secor.upload.queue.capacity");
+    }
+
+    public long getUploadMaxBytesPerSecond() {
+        return getLong("secor.upload.max.bytes.per.second");
+    }
+
+    public int getUploadLeaseSeconds() {
+        return getInt("secor.upload.lease.seconds");
+    }
+
+    public String getUploadObjectStoreClass() {
+        return getString("secor.upload.object.store.class");
+    }
+
+    public int getUploadMultipartPartSizeBytes() {
+        return getInt("secor.upload.multipart.part.size.bytes");
+    }
+
+    public String getUploadLocalObjectStorePath() {
+        return getString("secor.upload.local.object.store.path");
+    }
+
+    public String getOffsetStoreClass() {
+        return getString("secor.offset.store.class");
+    }
+
+    public String getOffsetStoreLocalPath() {
+        return getString("secor.offset.store.local.path");
+    }
+
     public String getS3Bucket() {
         return getString("secor.s3.bucket");
     }
@@ -167,6 +247,16 @@ public class SecorConfig {
         return getString("secor.message.parser.class");
     }
 
+    public String[] getMessageParserRoutes() {
+        // Routes are separated by whitespace since topic regexes may contain commas.  The
+        // properties loader splits values on commas so the pieces are joined back first.
+        String routes = StringUtils.join(getStringArray("secor.message.parser.routes"), ',');
+        if (routes.trim().isEmpty()) {
+            return new String[0];
+        }
+        return routes.trim().split("\\s+");
+    }
+
     public int getTopicPartitionForgetSeconds() {
         return getInt("secor.topic_partition.forget.seconds");
     }
@@ -207,6 +297,10 @@ public class SecorConfig {
         return getString("message.timestamp.name");
     }
 
+    public String getMessageTimestampId() {
+        return getString("message.timestamp.id");
+    }
+
     public String getMessageTimestampInputPattern() {
         return getString("message.timestamp.input.pattern");
     }
@@ -223,6 +317,10 @@ public class SecorConfig {
         return getInt("secor.max.message.size.bytes");
     }
     
+    public boolean getOffsetIndexEnabled() {
+        return getBoolean("secor.offset.index.enabled");
+    }
+
     public String getFileReaderWriterFactory() {
     	return getString("secor.file.reader.writer.factory");
     }
@@ -248,6 +346,11 @@ public class SecorConfig {
         return mProperties.getInt(name);
     }
 
+    private boolean getBoolean(String name) {
+        checkProperty(name);
+        return mProperties.getBoolean(name);
+    }
+
     private long getLong(String name) {
         return mProperties.getLong(name);
     }
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Topic partition registry maps topic partitions to dense integer slots.  Slots are assigned on
+ * first lookup and never reused so per-partition state can be kept in primitive arrays indexed by
+ * slot rather than in hash maps keyed by boxed topic partitions.  The registry also interns
+ * topic partitions, i.e., all lookups of a given slot return the same topic partition instance.
+ *
+ * Lookups of registered topic partitions are lock-free and do not allocate.  Registration is
+ * synchronized and copies the lookup structures so that the registry can be shared among
+ * threads.  The number of topic partitions consumed by a process is bounded so slots are never
+ * released.
+ */
+public class TopicPartitionRegistry {
+    private static final TopicPartitionRegistry INSTANCE = new TopicPartitionRegistry();
+
+    // Topic to array of slots indexed by partition.  Missing partitions are marked with -1.
+    private volatile Map<String, int[]> mTopicSlots;
+    private volatile TopicPartition[] mTopicPartitions;
+
+    public static TopicPartitionRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public TopicPartitionRegistry() {
+        mTopicSlots = new HashMap<String, int[]>();
+        mTopicPartitions = new TopicPartition[0];
+    }
+
+    /**
+     * Get the slot of a given topic partition.  The topic partition is registered if it has not
+     * been seen before.
+     */
+    public int getSlot(String topic, int partition) {
+        int[] slots = mTopicSlots.get(topic);
+        if (slots != null && partition < slots.length) {
+            int slot = slots[partition];
+            if (slot >= 0) {
+                return slot;
+            }
+        }
+        return register(topic, partition);
+    }
+
+    public int getSlot(TopicPartition topicPartition) {
+        return getSlot(topicPartition.getTopic(), topicPartition.getPartition());
+    }
+
+    /**
+     * Get the interned topic partition of a given slot.
+     */
+    public TopicPartition getTopicPartition(int slot) {
+        return mTopicPartitions[slot];
+    }
+
+    /**
+     * @return The number of registered topic partitions.  Valid slots are in the range
+     *     [0, size).
+     */
+    public int size() {
+        return mTopicPartitions.length;
+    }
+
+    private synchronized int register(String topic, int partition) {
+        assert partition >= 0: Integer.toString(partition) + " >= 0";
+        int[] slots = mTopicSlots.get(topic);
+        if (slots != null && partition < slots.length && slots[partition] >= 0) {
+            // Registered by another thread.
+            return slots[partition];
+        }
+        int slot = mTopicPartitions.length;
+        TopicPartition[] topicPartitions = new TopicPartition[slot + 1];
+        System.arraycopy(mTopicPartitions, 0, topicPartitions, 0, slot);
+        topicPartitions[slot] = new TopicPartition(topic, partition);
+
+        int oldLength = slots == null ? 0 : slots.length;
+        int[] newSlots = new int[Math.max(oldLength, partition + 1)];
+        for (int i = 0; i < newSlots.length; ++i) {
+            newSlots[i] = i < oldLength ? slots[i] : -1;
+        }
+        newSlots[partition] = slot;
+        HashMap<String, int[]> topicSlots = new HashMap<String, int[]>(mTopicSlots);
+        topicSlots.put(topic, newSlots);
+
+        // Publish the topic partition before the slot referencing it.
+        mTopicPartitions = topicPartitions;
+        mTopicSlots = topicSlots;
+        return slot;
+    }
+}
@@ -18,6 +18,8 @@ package com.pinterest.secor.common;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.pinterest.secor.util.IdUtil;
+import com.pinterest.secor.util.StatsUtil;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.zookeeper.DistributedLock;
@@ -26,28 +28,50 @@ import com.twitter.common.zookeeper.ZooKeeperClient;
 import org.apache.commons.lang.StringUtils;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ZookeeperConnector implements interactions with Zookeeper.
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
-public class ZookeeperConnector {
+public class ZookeeperConnector implements OffsetStore {
     private static final Logger LOG = LoggerFactory.getLogger(ZookeeperConnector.class);
 
+    // Keeps multi requests well below the default 1 MB request size limit.
+    private static final int MAX_OPS_PER_MULTI = 1000;
+
     private SecorConfig mConfig;
     private ZooKeeperClient mZookeeperClient;
     private HashMap<String, DistributedLock> mLocks;
     private String mCommittedOffsetGroupPath;
+    // Paths known to exist.  Entries may go stale if paths are deleted by someone else in which
+    // case writes relying on them fail and the cache is cleared.
+    private HashSet<String> mExistingPaths = new HashSet<String>();
+    // Committed offset counts keyed by offset path.  Entries are removed by watches on the offset
+    // nodes as soon as the nodes change so they are accessed from the Zookeeper event thread.
+    private ConcurrentHashMap<String, Long> mCommittedOffsetCounts =
+        new ConcurrentHashMap<String, Long>();
+    // Leases held by this connector keyed by lease path.
+    private HashMap<String, Lease> mLeases = new HashMap<String, Lease>();
+    private String mLeaseOwner;
 
     protected ZookeeperConnector() {
     }
@@ -86,6 +110,88 @@ public class ZookeeperConnector {
         mLocks.remove(lockPath);
     }
 
+    private static String getLeasePath(TopicPartition topicPartition) {
+        return "/secor/leases/" + topicPartition.getTopic() + "/" + topicPartition.getPartition();
+    }
+
+    /**
+     * Acquire or renew the lease on a topic partition.  A lease is an ephemeral node storing its
+     * owner and expiration time.  Leases held by others are taken over once they expire or their
+     * owner's session ends.  Leases are renewed once half of their duration has passed so that
+     * consecutive uploads in a topic partition do not write to Zookeeper.  Offsets committed in
+     * leased topic partitions are fenced with the lease node version so they fail if the lease
+     * has been taken over.
+     * @param topicPartition The topic partition to acquire the lease on.
+     * @param leaseMs Lease duration.
+     * @return Whether the lease is held by this connector.
+     * @throws Exception
+     */
+    public boolean acquireLease(TopicPartition topicPartition, long leaseMs) throws Exception {
+        String leasePath = getLeasePath(topicPartition);
+        long now = System.currentTimeMillis();
+        Lease lease = mLeases.get(leasePath);
+        if (lease != null && now < lease.getExpirationTimeMs() - leaseMs / 2) {
+            return true;
+        }
+        if (mLeaseOwner == null) {
+            mLeaseOwner = IdUtil.getConsumerId();
+        }
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        byte[] data = (mLeaseOwner + ":" + (now + leaseMs)).getBytes();
+        if (lease != null) {
+            try {
+                Stat stat = zookeeper.setData(leasePath, data, lease.getVersion());
+                mLeases.put(leasePath, new Lease(stat.getVersion(), now + leaseMs));
+                return true;
+            } catch (KeeperException.BadVersionException exception) {
+                LOG.warn("lost lease " + leasePath);
+            } catch (KeeperException.NoNodeException exception) {
+                LOG.warn("lost lease " + leasePath);
+            }
+            mLeases.remove(leasePath);
+        }
+        createMissingParents(leasePath);
+        try {
+            zookeeper.create(leasePath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            LOG.info("acquired lease " + leasePath);
+            mLeases.put(leasePath, new Lease(0, now + leaseMs));
+            return true;
+        } catch (KeeperException.NodeExistsException exception) {
+        }
+        Stat stat = new Stat();
+        String current;
+        try {
+            current = new String(zookeeper.getData(leasePath, false, stat));
+        } catch (KeeperException.NoNodeException exception) {
+            // Released in the meantime.  Retry on the next call.
+            return false;
+        }
+        int separator = current.lastIndexOf(':');
+        String owner = current.substring(0, separator);
+        long expirationTimeMs = Long.parseLong(current.substring(separator + 1));
+        if (!owner.equals(mLeaseOwner) && now < expirationTimeMs) {
+            LOG.debug("lease " + leasePath + " held by " + owner);
+            return false;
+        }
+        try {
+            if (owner.equals(mLeaseOwner)) {
+                stat = zookeeper.setData(leasePath, data, stat.getVersion());
+                mLeases.put(leasePath, new Lease(stat.getVersion(), now + leaseMs));
+            } else {
+                zookeeper.delete(leasePath, stat.getVersion());
+                zookeeper.create(leasePath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                 CreateMode.EPHEMERAL);
+                mLeases.put(leasePath, new Lease(0, now + leaseMs));
+            }
+        } catch (KeeperException exception) {
+            // Someone else got there first.
+            LOG.debug("failed to take over lease " + leasePath, exception);
+            return false;
+        }
+        LOG.info("took over lease " + leasePath + " from " + owner);
+        return true;
+    }
+
     protected String getCommittedOffsetGroupPath() {
         if (Strings.isNullOrEmpty(mCommittedOffsetGroupPath)) {
             String stripped = StringUtils.strip(mConfig.getKafkaZookeeperPath(), "/");
@@ -109,6 +215,7 @@ public class ZookeeperConnector {
             topicPartition.getPartition();
     }
 
+    @Override
     public long getCommittedOffsetCount(TopicPartition topicPartition) throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
@@ -121,6 +228,43 @@ public class ZookeeperConnector {
         }
     }
 
+    /**
+     * Get the committed offset count of a topic partition from a local cache.  Cached counts are
+     * invalidated by Zookeeper watches so they may lag behind changes made by other processes by
+     * the watch notification delay.  Decisions requiring an exact count should be confirmed with
+     * {@link #getCommittedOffsetCount(TopicPartition)} while holding the topic partition lock.
+     * @param topicPartition The topic partition to get the committed offset count of.
+     * @return The committed offset count or -1 if there is none.
+     * @throws Exception
+     */
+    public long getCachedCommittedOffsetCount(TopicPartition topicPartition) throws Exception {
+        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+        Long count = mCommittedOffsetCounts.get(offsetPath);
+        if (count != null) {
+            return count;
+        }
+        StatsUtil.incr("secor.zookeeper.offset_cache_misses", 1);
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        InvalidatingWatcher watcher = new InvalidatingWatcher(offsetPath);
+        try {
+            byte[] data = zookeeper.getData(offsetPath, watcher, null);
+            count = Long.parseLong(new String(data));
+        } catch (KeeperException.NoNodeException exception) {
+            // Watch for the node to be created.
+            if (zookeeper.exists(offsetPath, watcher) != null) {
+                return getCommittedOffsetCount(topicPartition);
+            }
+            count = -1L;
+        }
+        mCommittedOffsetCounts.put(offsetPath, count);
+        // The node may have changed before the count was cached.
+        if (watcher.hasFired()) {
+            mCommittedOffsetCounts.remove(offsetPath);
+        }
+        return count;
+    }
+
+    @Override
     public List<Integer> getCommittedOffsetPartitions(String topic) throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         String topicPath = getCommittedOffsetTopicPath(topic);
@@ -134,6 +278,7 @@ public class ZookeeperConnector {
         return result;
     }
 
+    @Override
     public List<String> getCommittedOffsetTopics() throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         String offsetPath = getCommittedOffsetGroupPath();
@@ -150,31 +295,98 @@ public class ZookeeperConnector {
     private void createMissingParents(String path) throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         assert path.charAt(0) == '/': path + ".charAt(0) == '/'";
+        String parent = path.substring(0, path.lastIndexOf('/'));
+        if (parent.isEmpty() || mExistingPaths.contains(parent)) {
+            return;
+        }
+        LOG.info("creating missing parents for zookeeper path " + path);
         String[] elements = path.split("/");
         String prefix = "";
         for (int i = 1; i < elements.length - 1; ++i) {
             prefix += "/" + elements[i];
+            if (mExistingPaths.contains(prefix)) {
+                continue;
+            }
             try {
                 zookeeper.create(prefix, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
                 LOG.info("created path " + prefix);
             } catch (KeeperException.NodeExistsException exception) {
             }
+            mExistingPaths.add(prefix);
         }
     }
 
+    @Override
     public void setCommittedOffsetCount(TopicPartition topicPartition, long count)
             throws Exception {
+        setCommittedOffsetCounts(Collections.singletonMap(topicPartition, count));
+    }
+
+    /**
+     * Set committed offset counts of multiple topic partitions.  Offsets are written in batches,
+     * each applied atomically in a single multi request.  Batches including topic partitions whose
+     * leases have been taken over fail.
+     * @param counts Map from topic partitions to their committed offset counts.
+     * @throws Exception
+     */
+    @Override
+    public void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) throws Exception {
+        ArrayList<Map.Entry<TopicPartition, Long>> entries =
+            new ArrayList<Map.Entry<TopicPartition, Long>>(counts.entrySet());
+        for (int i = 0; i < entries.size(); i += MAX_OPS_PER_MULTI) {
+            List<Map.Entry<TopicPartition, Long>> batch =
+                entries.subList(i, Math.min(entries.size(), i + MAX_OPS_PER_MULTI));
+            try {
+                setCommittedOffsetCounts(batch);
+            } catch (KeeperException exception) {
+                // Some of the cached paths may have been deleted.
+                LOG.warn("failed to set committed offset counts, retrying with cleared path cache",
+                         exception);
+                mExistingPaths.clear();
+                try {
+                    setCommittedOffsetCounts(batch);
+                } catch (KeeperException retryException) {
+                    // Leases may have been taken over.
+                    for (Map.Entry<TopicPartition, Long> entry : batch) {
+                        mLeases.remove(getLeasePath(entry.getKey()));
+                    }
+                    throw retryException;
+                }
+            }
+        }
+    }
+
+    private void setCommittedOffsetCounts(List<Map.Entry<TopicPartition, Long>> counts)
+            throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
-        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
-        LOG.info("creating missing parents for zookeeper path " + offsetPath);
-        createMissingParents(offsetPath);
-        byte[] data = Long.toString(count).getBytes();
+        ArrayList<Op> ops = new ArrayList<Op>(counts.size());
+        ArrayList<String> offsetPaths = new ArrayList<String>(counts.size());
+        for (Map.Entry<TopicPartition, Long> entry : counts) {
+            String offsetPath = getCommittedOffsetPartitionPath(entry.getKey());
+            createMissingParents(offsetPath);
+            byte[] data = Long.toString(entry.getValue()).getBytes();
+            LOG.info("setting zookeeper path " + offsetPath + " value " + entry.getValue());
+            if (mExistingPaths.contains(offsetPath) || zookeeper.exists(offsetPath, false) != null) {
+                // -1 matches any version
+                ops.add(Op.setData(offsetPath, data, -1));
+            } else {
+                ops.add(Op.create(offsetPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                  CreateMode.PERSISTENT));
+            }
+            offsetPaths.add(offsetPath);
+            Lease lease = mLeases.get(getLeasePath(entry.getKey()));
+            if (lease != null) {
+                ops.add(Op.check(getLeasePath(entry.getKey()), lease.getVersion()));
+            }
+        }
         try {
-            LOG.info("setting zookeeper path " + offsetPath + " value " + count);
-            // -1 matches any version
-            zookeeper.setData(offsetPath, data, -1);
-        } catch (KeeperException.NoNodeException exception) {
-            zookeeper.create(offsetPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            zookeeper.multi(ops);
+            mExistingPaths.addAll(offsetPaths);
+        } finally {
+            // Do not wait for watches to invalidate our own changes.
+            for (String offsetPath : offsetPaths) {
+                mCommittedOffsetCounts.remove(offsetPath);
+            }
         }
     }
 
@@ -185,7 +397,9 @@ public class ZookeeperConnector {
             TopicPartition topicPartition = new TopicPartition(topic, partition);
             String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
             LOG.info("deleting path " + offsetPath);
+            mExistingPaths.remove(offsetPath);
             zookeeper.delete(offsetPath, -1);
+            mCommittedOffsetCounts.remove(offsetPath);
         }
     }
 
@@ -194,10 +408,53 @@ public class ZookeeperConnector {
         String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
         ZooKeeper zookeeper = mZookeeperClient.get();
         LOG.info("deleting path " + offsetPath);
+        mExistingPaths.remove(offsetPath);
         zookeeper.delete(offsetPath, -1);
+        mCommittedOffsetCounts.remove(offsetPath);
     }
 
     protected void setConfig(SecorConfig config) {
         this.mConfig = config;
     }
+
+    private static class Lease {
+        private final int mVersion;
+        private final long mExpirationTimeMs;
+
+        public Lease(int version, long expirationTimeMs) {
+            mVersion = version;
+            mExpirationTimeMs = expirationTimeMs;
+        }
+
+        public int getVersion() {
+            return mVersion;
+        }
+
+        public long getExpirationTimeMs() {
+            return mExpirationTimeMs;
+        }
+    }
+
+    /**
+     * One-time watch removing the cached committed offset count of an offset node when the node
+     * changes or the connection state changes.
+     */
+    private class InvalidatingWatcher implements Watcher {
+        private final String mPath;
+        private volatile boolean mFired;
+
+        public InvalidatingWatcher(String path) {
+            mPath = path;
+        }
+
+        public boolean hasFired() {
+            return mFired;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            mFired = true;
+            mCommittedOffsetCounts.remove(mPath);
+        }
+    }
 }
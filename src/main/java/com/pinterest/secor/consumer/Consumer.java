@@ -34,6 +34,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.Thread;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Consumer is a top-level component coordinating reading, writing, and uploading Kafka log
@@ -53,6 +55,7 @@ public class Consumer extends Thread {
     private MessageReader mMessageReader;
     private MessageWriter mMessageWriter;
     private MessageParser mMessageParser;
+    private ParallelMessageParser mParallelMessageParser;
     private OffsetTracker mOffsetTracker;
     private Uploader mUploader;
     // TODO(pawel): we should keep a count per topic partition.
@@ -65,9 +68,14 @@ public class Consumer extends Thread {
     private void init() throws Exception {
         mOffsetTracker = new OffsetTracker();
         mMessageReader = new MessageReader(mConfig, mOffsetTracker);
-        FileRegistry fileRegistry = new FileRegistry(mConfig);
+        FileRegistry fileRegistry = new FileRegistry(mConfig,
+                                                     mOffsetTracker.getTopicPartitionRegistry());
         mMessageWriter = new MessageWriter(mConfig, mOffsetTracker, fileRegistry);
         mMessageParser = ReflectionUtil.createMessageParser(mConfig.getMessageParserClass(), mConfig);
+        if (mConfig.getConsumerBatchMaxMessages() > 1 &&
+            mConfig.getConsumerBatchParserThreads() > 1) {
+            mParallelMessageParser = new ParallelMessageParser(mConfig);
+        }
         mUploader = new Uploader(mConfig, mOffsetTracker, fileRegistry);
         mUnparsableMessages = 0.;
     }
@@ -84,6 +92,14 @@ public class Consumer extends Thread {
         // check upload policy every N seconds or 10,000 messages/consumer timeouts
         long checkEveryNSeconds = Math.min(10 * 60, mConfig.getMaxFileAgeSeconds() / 2);
         long checkMessagesPerSecond = mConfig.getMessagesPerSecond();
+        if (mConfig.getConsumerPipelineParserThreads() > 0) {
+            runPipelined(checkEveryNSeconds, checkMessagesPerSecond);
+            return;
+        }
+        if (mConfig.getConsumerBatchMaxMessages() > 1) {
+            runBatched(checkEveryNSeconds, checkMessagesPerSecond);
+            return;
+        }
         long nMessages = 0;
         long lastChecked = System.currentTimeMillis();
         while (true) {
@@ -99,7 +115,85 @@ public class Consumer extends Thread {
                 checkUploadPolicy();
             }
         }
-        checkUploadPolicy();
+        finishUploads();
+    }
+
+    private void runBatched(long checkEveryNSeconds, long checkMessagesPerSecond) {
+        long nMessages = 0;
+        long nextCheckMessages = 0;
+        long lastChecked = System.currentTimeMillis();
+        while (true) {
+            int nConsumed = consumeNextBatch();
+            if (nConsumed < 0) {
+                break;
+            }
+
+            // Consumer timeouts count as a single message like in the per-message loop.
+            nMessages += Math.max(nConsumed, 1);
+            long now = System.currentTimeMillis();
+            if (nMessages >= nextCheckMessages ||
+                    (now - lastChecked) > checkEveryNSeconds * 1000) {
+                nextCheckMessages = nMessages + checkMessagesPerSecond;
+                lastChecked = now;
+                checkUploadPolicy();
+            }
+        }
+        if (mParallelMessageParser != null) {
+            mParallelMessageParser.shutdown();
+        }
+        finishUploads();
+    }
+
+    private void runPipelined(long checkEveryNSeconds, long checkMessagesPerSecond) {
+        MessagePipeline pipeline;
+        try {
+            pipeline = new MessagePipeline(mConfig, mMessageReader);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to initialize the message pipeline", e);
+        }
+        pipeline.start();
+        long nMessages = 0;
+        long nextCheckMessages = 0;
+        long lastChecked = System.currentTimeMillis();
+        boolean interrupted = false;
+        while (true) {
+            List<ParseResult> results;
+            try {
+                results = pipeline.poll(mConfig.getConsumerTimeoutMs());
+            } catch (InterruptedException e) {
+                // Stop fetching but write out the messages that have already been fetched.
+                LOG.info("Interrupted, draining the message pipeline");
+                pipeline.stop();
+                interrupted = true;
+                continue;
+            }
+            if (results == null) {
+                break;
+            }
+            for (ParseResult result : results) {
+                processPipelinedResult(result);
+            }
+
+            // Poll timeouts count as a single message like in the per-message loop.
+            nMessages += Math.max(results.size(), 1);
+            long now = System.currentTimeMillis();
+            if (nMessages >= nextCheckMessages ||
+                    (now - lastChecked) > checkEveryNSeconds * 1000) {
+                nextCheckMessages = nMessages + checkMessagesPerSecond;
+                lastChecked = now;
+                pipeline.exportStats();
+                checkUploadPolicy();
+            }
+        }
+        try {
+            pipeline.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting for the message pipeline", e);
+        }
+        finishUploads();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void checkUploadPolicy() {
@@ -110,6 +204,15 @@ public class Consumer extends Thread {
         }
     }
 
+    private void finishUploads() {
+        checkUploadPolicy();
+        try {
+            mUploader.flush();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to finish uploads", e);
+        }
+    }
+
     // @return whether there are more messages left to consume
     private boolean consumeNextMessage() {
         Message rawMessage = null;
@@ -125,35 +228,99 @@ public class Consumer extends Thread {
             LOG.trace("Consumer timed out", e);
         }
         if (rawMessage != null) {
-            // Before parsing, update the offset and remove any redundant data
-            try {
-                mMessageWriter.adjustOffset(rawMessage);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to adjust offset.", e);
+            processMessage(rawMessage);
+        }
+        return true;
+    }
+
+    // @return the number of messages in the batch or -1 if there are no more messages left to
+    //     consume
+    private int consumeNextBatch() {
+        List<Message> rawMessages = Collections.emptyList();
+        try {
+            boolean hasNext = mMessageReader.hasNext();
+            if (!hasNext) {
+                return -1;
             }
-            ParsedMessage parsedMessage = null;
-            try {
-                parsedMessage = mMessageParser.parse(rawMessage);
-                final double DECAY = 0.999;
-                mUnparsableMessages *= DECAY;
-            } catch (Exception e) {
-                mUnparsableMessages++;
-                final double MAX_UNPARSABLE_MESSAGES = 1000.;
-                if (mUnparsableMessages > MAX_UNPARSABLE_MESSAGES) {
-                    throw new RuntimeException("Failed to parse message " + rawMessage, e);
-                }
-                LOG.warn("Failed to parse message " + rawMessage, e);
+            rawMessages = mMessageReader.readBatch();
+        } catch (ConsumerTimeoutException e) {
+            // We wait for a new message with a timeout to periodically apply the upload policy
+            // even if no messages are delivered.
+            LOG.trace("Consumer timed out", e);
+        }
+        if (mParallelMessageParser != null && !rawMessages.isEmpty()) {
+            for (ParseResult result : mParallelMessageParser.parse(rawMessages)) {
+                adjustOffset(result.getRawMessage());
+                writeParsedMessage(result.getRawMessage(), result.getParsedMessage(),
+                                   result.getParseException());
             }
+        } else {
+            for (Message rawMessage : rawMessages) {
+                processMessage(rawMessage);
+            }
+        }
+        return rawMessages.size();
+    }
+
+    private void processMessage(Message rawMessage) {
+        // Before parsing, update the offset and remove any redundant data
+        adjustOffset(rawMessage);
+        ParsedMessage parsedMessage = null;
+        Exception parseException = null;
+        try {
+            parsedMessage = mMessageParser.parse(rawMessage);
+        } catch (Exception e) {
+            parseException = e;
+        }
+        writeParsedMessage(rawMessage, parsedMessage, parseException);
+    }
+
+    private void processPipelinedResult(ParseResult result) {
+        Message rawMessage = result.getRawMessage();
+        // The pipeline reads messages without consulting the offset tracker so committed
+        // messages are skipped here, on the thread that owns the tracker.
+        int slot = mOffsetTracker.getTopicPartitionRegistry().getSlot(
+            rawMessage.getTopic(), rawMessage.getKafkaPartition());
+        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(slot);
+        if (rawMessage.getOffset() < committedOffsetCount) {
+            LOG.debug("skipping message message " + rawMessage + " because its offset precedes " +
+                      "committed offset count " + committedOffsetCount);
+            return;
+        }
+        adjustOffset(rawMessage);
+        writeParsedMessage(rawMessage, result.getParsedMessage(), result.getParseException());
+    }
 
-            if (parsedMessage != null) {
-                try {
-                    mMessageWriter.write(parsedMessage);
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to write message " + parsedMessage, e);
-                }
+    private void adjustOffset(Message rawMessage) {
+        try {
+            mMessageWriter.adjustOffset(rawMessage);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to adjust offset.", e);
+        }
+    }
+
+    private void writeParsedMessage(Message rawMessage, ParsedMessage parsedMessage,
+                                    Exception parseException) {
+        if (parseException != null) {
+            mUnparsableMessages++;
+            final double MAX_UNPARSABLE_MESSAGES = 1000.;
+            if (mUnparsableMessages > MAX_UNPARSABLE_MESSAGES) {
+                throw new RuntimeException("Failed to parse message " + rawMessage,
+                                           parseException);
+            }
+            LOG.warn("Failed to parse message " + rawMessage, parseException);
+            return;
+        }
+        final double DECAY = 0.999;
+        mUnparsableMessages *= DECAY;
+
+        if (parsedMessage != null) {
+            try {
+                mMessageWriter.write(parsedMessage);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to write message " + parsedMessage, e);
             }
         }
-        return true;
     }
 
     /**
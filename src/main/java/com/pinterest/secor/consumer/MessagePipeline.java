@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.parser.MessageParser;
+import com.pinterest.secor.reader.MessageReader;
+import com.pinterest.secor.util.ReflectionUtil;
+import com.pinterest.secor.util.StatsUtil;
+
+import kafka.consumer.ConsumerTimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Message pipeline decouples fetching and parsing of Kafka messages from writing them to local
+ * log files.  A dedicated fetch thread pulls message batches from the message reader and
+ * distributes them among parser threads.  Parsed messages are handed to the writer, i.e., the
+ * consumer thread, through a bounded queue.
+ *
+ * All messages from a given topic partition are parsed by the same parser thread so they reach the
+ * writer in the order they were fetched.  The pipeline does not touch the offset tracker.  It is
+ * up to the writer to drop messages whose offsets precede the committed offset count.
+ */
+public class MessagePipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(MessagePipeline.class);
+
+    private static final List<Message> END_OF_MESSAGES = new ArrayList<Message>(0);
+    private static final List<ParseResult> END_OF_RESULTS = new ArrayList<ParseResult>(0);
+
+    private final MessageReader mMessageReader;
+    private final MessageParser[] mMessageParsers;
+    private final ArrayList<BlockingQueue<List<Message>>> mParseQueues;
+    private final BlockingQueue<List<ParseResult>> mWriteQueue;
+    private final AtomicReference<Throwable> mFailure;
+    private final AtomicInteger mRunningParsers;
+    private final AtomicLong mFetchStallNanos;
+    private final AtomicLong mParseStallNanos;
+    private final AtomicLong mWriteStallNanos;
+    private final ArrayList<Thread> mThreads;
+    private volatile boolean mStopped;
+    private boolean mDone;
+
+    public MessagePipeline(SecorConfig config, MessageReader messageReader) throws Exception {
+        mMessageReader = messageReader;
+        final int numParsers = config.getConsumerPipelineParserThreads();
+        final int queueCapacity = config.getConsumerPipelineQueueCapacity();
+        assert numParsers > 0: Integer.toString(numParsers) + " > 0";
+        // Parsers are not thread-safe so each parser thread gets its own instance.
+        mMessageParsers = new MessageParser[numParsers];
+        mParseQueues = new ArrayList<BlockingQueue<List<Message>>>(numParsers);
+        for (int i = 0; i < numParsers; ++i) {
+            mMessageParsers[i] = ReflectionUtil.createMessageParser(
+                config.getMessageParserClass(), config);
+            mParseQueues.add(new ArrayBlockingQueue<List<Message>>(queueCapacity));
+        }
+        mWriteQueue = new ArrayBlockingQueue<List<ParseResult>>(queueCapacity);
+        mFailure = new AtomicReference<Throwable>();
+        mRunningParsers = new AtomicInteger(numParsers);
+        mFetchStallNanos = new AtomicLong();
+        mParseStallNanos = new AtomicLong();
+        mWriteStallNanos = new AtomicLong();
+        mThreads = new ArrayList<Thread>(numParsers + 1);
+    }
+
+    public void start() {
+        String name = "secor-pipeline-" + Thread.currentThread().getId();
+        for (int i = 0; i < mMessageParsers.length; ++i) {
+            startThread(new ParserRunnable(i), name + "-parser-" + i);
+        }
+        startThread(new FetcherRunnable(), name + "-fetcher");
+    }
+
+    /**
+     * Stop fetching new messages.  Messages that have already been fetched are still delivered so
+     * the caller should keep polling until the pipeline has been drained and then join it.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Wait for the pipeline threads to exit.  Should be called once poll() has returned null.
+     */
+    public void join() throws InterruptedException {
+        for (Thread thread : mThreads) {
+            thread.join();
+        }
+    }
+
+    private void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        mThreads.add(thread);
+        thread.start();
+    }
+
+    private int getParserIndex(Message message) {
+        int hash = message.getTopic().hashCode() * 31 + message.getKafkaPartition();
+        return (hash & Integer.MAX_VALUE) % mMessageParsers.length;
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item, AtomicLong stallNanos)
+            throws InterruptedException {
+        if (!queue.offer(item)) {
+            long start = System.nanoTime();
+            queue.put(item);
+            stallNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        if (mFailure.compareAndSet(null, throwable)) {
+            LOG.error("Message pipeline failed", throwable);
+        }
+        mStopped = true;
+        // Unblock the writer.
+        mWriteQueue.offer(END_OF_RESULTS);
+    }
+
+    /**
+     * Retrieve the next batch of parsed messages.  Batches of messages from a given topic partition
+     * are returned in the order they were fetched.
+     *
+     * @param timeoutMs Max time to wait for a batch to become available.
+     * @return List of parsed messages, or an empty list if no messages were available within the
+     *     timeout, or null if the pipeline has been drained.
+     */
+    public List<ParseResult> poll(long timeoutMs) throws InterruptedException {
+        while (!mDone) {
+            rethrowFailure();
+            List<ParseResult> results = mWriteQueue.poll();
+            if (results == null) {
+                long start = System.nanoTime();
+                results = mWriteQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+                mWriteStallNanos.addAndGet(System.nanoTime() - start);
+                if (results == null) {
+                    return new ArrayList<ParseResult>(0);
+                }
+            }
+            if (results != END_OF_RESULTS) {
+                return results;
+            }
+            rethrowFailure();
+            if (mRunningParsers.decrementAndGet() == 0) {
+                mDone = true;
+            }
+        }
+        return null;
+    }
+
+    private void rethrowFailure() {
+        Throwable failure = mFailure.get();
+        if (failure != null) {
+            throw new RuntimeException("Message pipeline failed", failure);
+        }
+    }
+
+    /**
+     * Export queue depths and cumulative stage stall times to Ostrich.  Should be called from the
+     * writer thread.
+     */
+    public void exportStats() {
+        int parseQueueDepth = 0;
+        for (BlockingQueue<List<Message>> parseQueue : mParseQueues) {
+            parseQueueDepth += parseQueue.size();
+        }
+        StatsUtil.setGauge("secor.pipeline.parse_queue_depth", parseQueueDepth);
+        StatsUtil.setGauge("secor.pipeline.write_queue_depth", mWriteQueue.size());
+        StatsUtil.incr("secor.pipeline.fetch_stall_ms",
+                       (int) TimeUnit.NANOSECONDS.toMillis(mFetchStallNanos.getAndSet(0)));
+        StatsUtil.incr("secor.pipeline.parse_stall_ms",
+                       (int) TimeUnit.NANOSECONDS.toMillis(mParseStallNanos.getAndSet(0)));
+        StatsUtil.incr("secor.pipeline.write_stall_ms",
+                       (int) TimeUnit.NANOSECONDS.toMillis(mWriteStallNanos.getAndSet(0)));
+    }
+
+    private class FetcherRunnable implements Runnable {
+        @Override
+        public void run() {
+            try {
+                fetch();
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                try {
+                    for (BlockingQueue<List<Message>> parseQueue : mParseQueues) {
+                        put(parseQueue, END_OF_MESSAGES, mFetchStallNanos);
+                    }
+                } catch (InterruptedException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void fetch() throws InterruptedException {
+            final int numParsers = mMessageParsers.length;
+            while (!mStopped) {
+                List<Message> messages;
+                try {
+                    if (!mMessageReader.hasNext()) {
+                        return;
+                    }
+                    messages = mMessageReader.readBatch(false);
+                } catch (ConsumerTimeoutException e) {
+                    LOG.trace("Consumer timed out", e);
+                    continue;
+                }
+                if (numParsers == 1) {
+                    if (!messages.isEmpty()) {
+                        put(mParseQueues.get(0), messages, mFetchStallNanos);
+                    }
+                    continue;
+                }
+                ArrayList<ArrayList<Message>> partitionedMessages =
+                    new ArrayList<ArrayList<Message>>(numParsers);
+                for (int i = 0; i < numParsers; ++i) {
+                    partitionedMessages.add(null);
+                }
+                for (Message message : messages) {
+                    int index = getParserIndex(message);
+                    ArrayList<Message> parserMessages = partitionedMessages.get(index);
+                    if (parserMessages == null) {
+                        parserMessages = new ArrayList<Message>();
+                        partitionedMessages.set(index, parserMessages);
+                    }
+                    parserMessages.add(message);
+                }
+                for (int i = 0; i < numParsers; ++i) {
+                    ArrayList<Message> parserMessages = partitionedMessages.get(i);
+                    if (parserMessages != null) {
+                        put(mParseQueues.get(i), parserMessages, mFetchStallNanos);
+                    }
+                }
+            }
+        }
+    }
+
+    private class ParserRunnable implements Runnable {
+        private final int mIndex;
+
+        public ParserRunnable(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            BlockingQueue<List<Message>> parseQueue = mParseQueues.get(mIndex);
+            MessageParser messageParser = mMessageParsers[mIndex];
+            try {
+                while (true) {
+                    List<Message> messages = parseQueue.take();
+                    if (messages == END_OF_MESSAGES) {
+                        put(mWriteQueue, END_OF_RESULTS, mParseStallNanos);
+                        return;
+                    }
+                    ArrayList<ParseResult> results = new ArrayList<ParseResult>(messages.size());
+                    for (Message message : messages) {
+                        try {
+                            results.add(new ParseResult(message, messageParser.parse(message),
+                                                        null));
+                        } catch (Exception e) {
+                            results.add(new ParseResult(message, null, e));
+                        }
+                    }
+                    put(mWriteQueue, results, mParseStallNanos);
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.parser.MessageParser;
+import com.pinterest.secor.util.ReflectionUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parallel message parser fans a batch of messages out to multiple threads and reassembles the
+ * results in the original order.  Since messages of a batch are ordered by offset within each
+ * topic partition, so are the parse results.
+ *
+ * The batch is split into contiguous slices, one per parser.  The first slice is parsed on the
+ * calling thread.  Each slice is handled by a dedicated parser instance so parsers do not need to
+ * be thread-safe.  Parse methods must be called from a single thread.
+ */
+public class ParallelMessageParser {
+    // Slices smaller than this are not worth handing off to another thread.
+    private static final int MIN_SLICE_SIZE = 64;
+
+    private final MessageParser[] mMessageParsers;
+    private final ExecutorService mExecutor;
+
+    public ParallelMessageParser(SecorConfig config) throws Exception {
+        this(config, config.getConsumerBatchParserThreads());
+    }
+
+    public ParallelMessageParser(SecorConfig config, int numThreads) throws Exception {
+        assert numThreads > 0: Integer.toString(numThreads) + " > 0";
+        mMessageParsers = new MessageParser[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            mMessageParsers[i] = ReflectionUtil.createMessageParser(
+                config.getMessageParserClass(), config);
+        }
+        if (numThreads > 1) {
+            final String name = "secor-parser-" + Thread.currentThread().getId() + "-";
+            mExecutor = Executors.newFixedThreadPool(numThreads - 1, new ThreadFactory() {
+                private int mThreadIndex = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + mThreadIndex++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * Parse a batch of messages.
+     *
+     * @param messages Messages to parse.
+     * @return Parse results in the order of the input messages.
+     */
+    public List<ParseResult> parse(List<Message> messages) {
+        final int numSlices = Math.max(1, Math.min(mMessageParsers.length,
+                                                   messages.size() / MIN_SLICE_SIZE));
+        if (numSlices == 1) {
+            return parseSlice(mMessageParsers[0], messages);
+        }
+        final int sliceSize = (messages.size() + numSlices - 1) / numSlices;
+        ArrayList<Future<List<ParseResult>>> futures =
+            new ArrayList<Future<List<ParseResult>>>(numSlices - 1);
+        for (int i = 1; i < numSlices; ++i) {
+            final MessageParser messageParser = mMessageParsers[i];
+            final List<Message> slice = messages.subList(
+                Math.min(i * sliceSize, messages.size()),
+                Math.min((i + 1) * sliceSize, messages.size()));
+            futures.add(mExecutor.submit(new Callable<List<ParseResult>>() {
+                @Override
+                public List<ParseResult> call() {
+                    return parseSlice(messageParser, slice);
+                }
+            }));
+        }
+        ArrayList<ParseResult> results = new ArrayList<ParseResult>(messages.size());
+        results.addAll(parseSlice(mMessageParsers[0], messages.subList(0, sliceSize)));
+        for (Future<List<ParseResult>> future : futures) {
+            try {
+                results.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while parsing messages", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to parse messages", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private static List<ParseResult> parseSlice(MessageParser messageParser,
+                                                List<Message> messages) {
+        ArrayList<ParseResult> results = new ArrayList<ParseResult>(messages.size());
+        for (Message message : messages) {
+            try {
+                results.add(new ParseResult(message, messageParser.parse(message), null));
+            } catch (Exception e) {
+                results.add(new ParseResult(message, null, e));
+            }
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.message.ParsedMessage;
+
+/**
+ * Parse result keeps a raw message along with the outcome of its parsing.
+ */
+public class ParseResult {
+    private final Message mRawMessage;
+    private final ParsedMessage mParsedMessage;
+    private final Exception mParseException;
+
+    public ParseResult(Message rawMessage, ParsedMessage parsedMessage, Exception parseException) {
+        mRawMessage = rawMessage;
+        mParsedMessage = parsedMessage;
+        mParseException = parseException;
+    }
+
+    public Message getRawMessage() {
+        return mRawMessage;
+    }
+
+    /**
+     * @return The parsed message or null if the message could not be parsed.
+     */
+    public ParsedMessage getParsedMessage() {
+        return mParsedMessage;
+    }
+
+    /**
+     * @return The exception thrown by the parser or null if parsing succeeded.
+     */
+    public Exception getParseException() {
+        return mParseException;
+    }
+}
@@ -30,6 +30,10 @@ public interface FileReader {
     /**
      * Get the next key/value from the file
      *
+     * The returned value may be a view of a buffer reused by the reader. It
+     * remains valid only until the next call to next() or close(), so callers
+     * retaining values have to copy them.
+     *
      * @return
      * @throws IOException
      */
@@ -38,6 +38,10 @@ public interface FileWriter {
     /**
      * Write the given key and value to the file
      *
+     * Only the value view, i.e. getValueLength() bytes of getValueBuffer()
+     * starting at getValueOffset(), is written. The buffer may be reused by
+     * the caller once this method returns.
+     *
      * @param keyValue
      * @throws java.io.IOException
      */
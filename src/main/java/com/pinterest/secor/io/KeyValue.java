@@ -16,10 +16,16 @@
  */
 package com.pinterest.secor.io;
 
+import java.util.Arrays;
+
 /**
  * Generic Object used to read next message from various file reader
  * implementations
  * 
+ * The value is a view of length bytes of a buffer starting at offset. Views
+ * let readers hand out values stored in buffers they reuse and let writers
+ * take slices of larger buffers without copying.
+ * 
  * @author Praveen Murugesan (praveen@uber.com)
  *
  */
@@ -27,19 +33,49 @@ public class KeyValue {
 	
 	private final long mKey;
 	private final byte[] mValue;
+	private final int mValueOffset;
+	private final int mValueLength;
 	
 	//constructor
 	public KeyValue(long key, byte[] value) {
+		this(key, value, 0, value == null ? 0 : value.length);
+	}
+	
+	public KeyValue(long key, byte[] buffer, int offset, int length) {
 		this.mKey = key;
-		this.mValue = value;
+		this.mValue = buffer;
+		this.mValueOffset = offset;
+		this.mValueLength = length;
 	}
 	
 	public long getKey() {
 		return this.mKey;
 	}
 	
+	/**
+	 * Get a copy of the value bytes. The buffer backing the value may be
+	 * reused by the reader that produced it. Callers that do not keep the
+	 * value should use getValueBuffer(), getValueOffset() and
+	 * getValueLength() to avoid the copy.
+	 */
 	public byte[] getValue() {
+		if (this.mValue == null) {
+			return null;
+		}
+		return Arrays.copyOfRange(this.mValue, this.mValueOffset,
+				this.mValueOffset + this.mValueLength);
+	}
+	
+	public byte[] getValueBuffer() {
 		return this.mValue;
 	}
+	
+	public int getValueOffset() {
+		return this.mValueOffset;
+	}
+	
+	public int getValueLength() {
+		return this.mValueLength;
+	}
 
 }
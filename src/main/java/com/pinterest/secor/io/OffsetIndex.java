@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.io;
+
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.util.FileUtil;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sparse index of the records in a log file.  The file is divided into blocks of consecutive
+ * records starting at positions where the matching reader can resume reading.  For each block
+ * the index keeps its position, the key of its first record, the number of records, the max key,
+ * and whether the keys form a contiguous range.  Keys are those returned by the file reader.
+ *
+ * The index is stored in a sidecar file next to the log file.  It lets the uploader skip records
+ * preceding the committed offset when trimming files and the log file verifier check message
+ * counts and offset sequences without reading payloads.
+ *
+ * Writers index the records with startBlock() and add() and call write() after the log file has
+ * been closed.  Indexes are written only if secor.offset.index.enabled is set.  Readers fall back
+ * to scanning log files without an index.
+ */
+public class OffsetIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(OffsetIndex.class);
+
+    // Number of value bytes after which writers start a new block.
+    public static final long BLOCK_SIZE_BYTES = 1024 * 1024;
+
+    private static final int VERSION = 1;
+
+    private static SecorConfig mConfig = null;
+
+    public static class Entry {
+        private final long mPosition;
+        private long mFirstOffset;
+        private long mMaxOffset;
+        private int mCount;
+        private boolean mContiguous;
+
+        private Entry(long position) {
+            mPosition = position;
+            mContiguous = true;
+        }
+
+        public long getPosition() {
+            return mPosition;
+        }
+
+        public long getFirstOffset() {
+            return mFirstOffset;
+        }
+
+        public long getMaxOffset() {
+            return mMaxOffset;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return true if the keys of the records in the block are getFirstOffset(),
+         *     getFirstOffset() + 1, ..., getFirstOffset() + getCount() - 1 in that order.
+         */
+        public boolean isContiguous() {
+            return mContiguous;
+        }
+
+        private void add(long offset) {
+            if (mCount == 0) {
+                mFirstOffset = offset;
+                mMaxOffset = offset;
+            } else {
+                if (offset != mFirstOffset + mCount) {
+                    mContiguous = false;
+                }
+                mMaxOffset = Math.max(mMaxOffset, offset);
+            }
+            mCount++;
+        }
+    }
+
+    private final ArrayList<Entry> mEntries;
+    private long mBlockBytes;
+
+    public OffsetIndex() {
+        mEntries = new ArrayList<Entry>();
+    }
+
+    public static void configure(SecorConfig config) {
+        mConfig = config;
+    }
+
+    /**
+     * @return true if writers should index the log files they write.
+     */
+    public static boolean isEnabled() {
+        return mConfig != null && mConfig.getOffsetIndexEnabled();
+    }
+
+    /**
+     * @return true if a new block should be started before adding the next record.
+     */
+    public boolean isBlockFull() {
+        return mEntries.isEmpty() || mBlockBytes >= BLOCK_SIZE_BYTES;
+    }
+
+    public void startBlock(long position) {
+        mEntries.add(new Entry(position));
+        mBlockBytes = 0;
+    }
+
+    public void add(long offset, int valueBytes) {
+        assert !mEntries.isEmpty();
+        mEntries.get(mEntries.size() - 1).add(offset);
+        mBlockBytes += valueBytes;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(mEntries);
+    }
+
+    public long getMessageCount() {
+        long result = 0;
+        for (Entry entry : mEntries) {
+            result += entry.getCount();
+        }
+        return result;
+    }
+
+    /**
+     * Find the first block that may contain records with keys greater than or equal to a given
+     * offset.  All records in preceding blocks have lower keys.
+     *
+     * @param offset The offset to look for.
+     * @return The block or null if all records in the file have keys lower than the offset.
+     */
+    public Entry findEntry(long offset) {
+        for (Entry entry : mEntries) {
+            if (entry.getMaxOffset() >= offset) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Store the index of a log file.  Should be called after the log file has been closed.
+     */
+    public void write(LogFilePath path) throws IOException {
+        String indexPath = path.getLogFileIndexPath();
+        FileSystem fs = FileUtil.getFileSystem(indexPath);
+        long fileLength = fs.getFileStatus(new Path(path.getLogFilePath())).getLen();
+        DataOutputStream outputStream = fs.create(new Path(indexPath));
+        try {
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(fileLength);
+            outputStream.writeInt(mEntries.size());
+            for (Entry entry : mEntries) {
+                outputStream.writeLong(entry.getPosition());
+                outputStream.writeLong(entry.getFirstOffset());
+                outputStream.writeLong(entry.getMaxOffset());
+                outputStream.writeInt(entry.getCount());
+                outputStream.writeBoolean(entry.isContiguous());
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Load the index of a log file.
+     *
+     * @return The index or null if the log file has no index or the index is out of date.
+     */
+    public static OffsetIndex read(LogFilePath path) throws IOException {
+        String indexPath = path.getLogFileIndexPath();
+        if (!FileUtil.exists(indexPath)) {
+            return null;
+        }
+        FileSystem fs = FileUtil.getFileSystem(indexPath);
+        DataInputStream inputStream = fs.open(new Path(indexPath));
+        try {
+            int version = inputStream.readInt();
+            if (version != VERSION) {
+                LOG.warn("Ignoring index " + indexPath + " with unsupported version " + version);
+                return null;
+            }
+            long fileLength = inputStream.readLong();
+            if (fileLength != fs.getFileStatus(new Path(path.getLogFilePath())).getLen()) {
+                LOG.warn("Ignoring index " + indexPath + " not matching the length of " +
+                         path.getLogFilePath());
+                return null;
+            }
+            OffsetIndex result = new OffsetIndex();
+            int numEntries = inputStream.readInt();
+            for (int i = 0; i < numEntries; ++i) {
+                Entry entry = new Entry(inputStream.readLong());
+                entry.mFirstOffset = inputStream.readLong();
+                entry.mMaxOffset = inputStream.readLong();
+                entry.mCount = inputStream.readInt();
+                entry.mContiguous = inputStream.readBoolean();
+                result.mEntries.add(entry);
+            }
+            return result;
+        } catch (EOFException e) {
+            LOG.warn("Ignoring truncated index " + indexPath, e);
+            return null;
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.io;
+
+import com.pinterest.secor.common.LogFilePath;
+
+import java.io.IOException;
+
+/**
+ * File writer able to copy records from another file of the same format without decoding and
+ * re-encoding them.  Used to trim log files.
+ */
+public interface RawFileWriter extends FileWriter {
+    /**
+     * Append records with keys greater than or equal to a given offset from a closed file.
+     * Records are expected to be stored in the order of their keys.
+     *
+     * @param srcPath The file to copy records from.
+     * @param startOffset The lowest key of a copied record.
+     * @return The number of appended records or -1 if the records of the file cannot be copied
+     *     in their encoded form, in which case nothing is appended.
+     * @throws IOException
+     */
+    public long appendRaw(LogFilePath srcPath, long startOffset) throws IOException;
+}
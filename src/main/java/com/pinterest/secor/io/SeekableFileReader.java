@@ -0,0 +1,33 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.io;
+
+import java.io.IOException;
+
+/**
+ * File reader able to resume reading at a block of the offset index of the file.
+ */
+public interface SeekableFileReader extends FileReader {
+    /**
+     * Position the reader at the first record of a block.  The following call to next() returns
+     * the record with key entry.getFirstOffset().
+     *
+     * @param entry Block of the offset index of the file being read.
+     * @throws IOException
+     */
+    public void seek(OffsetIndex.Entry entry) throws IOException;
+}
@@ -16,16 +16,19 @@
  */
 package com.pinterest.secor.io.impl;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -42,6 +45,7 @@ import com.pinterest.secor.util.FileUtil;
  */
 public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFactory {
     private static final byte DELIMITER = '\n';
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     @Override
     public FileReader BuildFileReader(LogFilePath logFilePath, CompressionCodec codec)
@@ -54,36 +58,90 @@ public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFac
         return new DelimitedTextFileWriter(logFilePath, codec);
     }
 
-    protected class DelimitedTextFileReader implements FileReader {
-        private final BufferedInputStream mReader;
+    /**
+     * Reader filling a reusable buffer with bulk reads and scanning it for delimiters.  The buffer
+     * grows if a single message does not fit in it.  Returned values are views of the buffer.
+     */
+    protected class DelimitedTextFileReader implements SeekableFileReader {
+        private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+        private final FSDataInputStream mFileStream;
+        private final InputStream mReader;
         private long mOffset;
+        private byte[] mBuffer;
+        // Start of the next message in the buffer.
+        private int mStart;
+        // Position in the buffer from which to continue the delimiter scan.
+        private int mScanned;
+        // End of valid data in the buffer.
+        private int mLimit;
 
         public DelimitedTextFileReader(LogFilePath path, CompressionCodec codec) throws IOException {
             Path fsPath = new Path(path.getLogFilePath());
             FileSystem fs = FileUtil.getFileSystem(path.getLogFilePath());
-            InputStream inputStream = fs.open(fsPath);
-            this.mReader = (codec == null) ? new BufferedInputStream(inputStream)
-                    : new BufferedInputStream(
-                    codec.createInputStream(inputStream));
+            this.mFileStream = fs.open(fsPath);
+            this.mReader = (codec == null) ? mFileStream : codec.createInputStream(mFileStream);
             this.mOffset = path.getOffset();
+            this.mBuffer = new byte[INITIAL_BUFFER_SIZE];
         }
 
         @Override
         public KeyValue next() throws IOException {
-            ByteArrayOutputStream messageBuffer = new ByteArrayOutputStream();
-            int nextByte;
-            while ((nextByte = mReader.read()) != DELIMITER) {
-                if (nextByte == -1) { // end of stream?
-                    if (messageBuffer.size() == 0) { // if no byte read
+            while (true) {
+                final byte[] buffer = mBuffer;
+                final int limit = mLimit;
+                for (int i = mScanned; i < limit; ++i) {
+                    if (buffer[i] == DELIMITER) {
+                        KeyValue keyValue = new KeyValue(this.mOffset++, buffer, mStart,
+                                                         i - mStart);
+                        mStart = i + 1;
+                        mScanned = mStart;
+                        return keyValue;
+                    }
+                }
+                mScanned = limit;
+                if (!fill()) {
+                    if (mStart == mLimit) { // if no byte read
                         return null;
                     } else { // if bytes followed by end of stream: framing error
-                        throw new EOFException(
-                                "Non-empty message without delimiter");
+                        throw new EOFException("Non-empty message without delimiter");
                     }
                 }
-                messageBuffer.write(nextByte);
             }
-            return new KeyValue(this.mOffset++, messageBuffer.toByteArray());
+        }
+
+        // @return false if the end of stream has been reached
+        private boolean fill() throws IOException {
+            if (mLimit == mBuffer.length) {
+                if (mStart > 0) {
+                    // Move the partial message to the front of the buffer.
+                    int remaining = mLimit - mStart;
+                    System.arraycopy(mBuffer, mStart, mBuffer, 0, remaining);
+                    mScanned -= mStart;
+                    mLimit = remaining;
+                    mStart = 0;
+                } else {
+                    mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+                }
+            }
+            int bytesRead = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (bytesRead < 0) {
+                return false;
+            }
+            mLimit += bytesRead;
+            return true;
+        }
+
+        @Override
+        public void seek(OffsetIndex.Entry entry) throws IOException {
+            if (this.mReader != this.mFileStream) {
+                throw new IOException("Seeking in compressed files is not supported");
+            }
+            this.mFileStream.seek(entry.getPosition());
+            this.mOffset = entry.getFirstOffset();
+            mStart = 0;
+            mScanned = 0;
+            mLimit = 0;
         }
 
         @Override
@@ -92,13 +150,27 @@ public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFac
         }
     }
 
-    protected class DelimitedTextFileWriter implements FileWriter {
+    /**
+     * Writer indexing uncompressed files.  Since the keys are not stored, indexed keys are the
+     * offsets assigned by the reader.
+     */
+    protected class DelimitedTextFileWriter implements RawFileWriter {
+        private final LogFilePath mPath;
         private final CountingOutputStream mCountingStream;
         private final BufferedOutputStream mWriter;
+        private final boolean mCompressed;
+        // Null for compressed files or if offset indexes are disabled.
+        private final OffsetIndex mIndex;
+        private long mPosition;
+        private long mOffset;
 
         public DelimitedTextFileWriter(LogFilePath path, CompressionCodec codec) throws IOException {
             Path fsPath = new Path(path.getLogFilePath());
             FileSystem fs = FileUtil.getFileSystem(path.getLogFilePath());
+            this.mPath = path;
+            this.mCompressed = codec != null;
+            this.mIndex = (!this.mCompressed && OffsetIndex.isEnabled()) ? new OffsetIndex() : null;
+            this.mOffset = path.getOffset();
             this.mCountingStream = new CountingOutputStream(fs.create(fsPath));
             this.mWriter = (codec == null) ? new BufferedOutputStream(
                     this.mCountingStream) : new BufferedOutputStream(
@@ -111,15 +183,89 @@ public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFac
             return this.mCountingStream.getCount();
         }
 
+        private void index(int valueBytes) {
+            if (this.mIndex == null) {
+                return;
+            }
+            if (this.mIndex.isBlockFull()) {
+                this.mIndex.startBlock(this.mPosition);
+            }
+            this.mIndex.add(this.mOffset++, valueBytes);
+            this.mPosition += valueBytes + 1;
+        }
+
         @Override
         public void write(KeyValue keyValue) throws IOException {
-            this.mWriter.write(keyValue.getValue());
+            index(keyValue.getValueLength());
+            this.mWriter.write(keyValue.getValueBuffer(), keyValue.getValueOffset(),
+                               keyValue.getValueLength());
             this.mWriter.write(DELIMITER);
         }
 
+        /**
+         * Copy the bytes of records of an uncompressed file.  Keys are assigned sequentially so the
+         * records to skip are found by counting delimiters.
+         */
+        @Override
+        public long appendRaw(LogFilePath srcPath, long startOffset) throws IOException {
+            if (this.mCompressed) {
+                return -1;
+            }
+            FileSystem fs = FileUtil.getFileSystem(srcPath.getLogFilePath());
+            FSDataInputStream inputStream = fs.open(new Path(srcPath.getLogFilePath()));
+            try {
+                long key = srcPath.getOffset();
+                OffsetIndex index = OffsetIndex.read(srcPath);
+                if (index != null) {
+                    OffsetIndex.Entry entry = index.findEntry(startOffset);
+                    if (entry == null) {
+                        return 0;
+                    }
+                    inputStream.seek(entry.getPosition());
+                    key = entry.getFirstOffset();
+                }
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                boolean copying = key >= startOffset;
+                long copied = 0;
+                // Bytes of the current message in preceding buffers.
+                int messageBytes = 0;
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    int copyStart = copying ? 0 : bytesRead;
+                    int messageStart = 0;
+                    for (int i = 0; i < bytesRead; ++i) {
+                        if (buffer[i] == DELIMITER) {
+                            if (copying) {
+                                index(messageBytes + i - messageStart);
+                                copied++;
+                            } else if (++key >= startOffset) {
+                                copying = true;
+                                copyStart = i + 1;
+                            }
+                            messageBytes = 0;
+                            messageStart = i + 1;
+                        }
+                    }
+                    messageBytes += bytesRead - messageStart;
+                    if (copyStart < bytesRead) {
+                        this.mWriter.write(buffer, copyStart, bytesRead - copyStart);
+                    }
+                }
+                if (messageBytes > 0) {
+                    throw new EOFException("Non-empty message without delimiter");
+                }
+                return copied;
+            } finally {
+                inputStream.close();
+            }
+        }
+
         @Override
         public void close() throws IOException {
             this.mWriter.close();
+            if (this.mIndex != null) {
+                this.mIndex.write(this.mPath);
+            }
         }
     }
 }
\ No newline at end of file
@@ -16,8 +16,9 @@
  */
 package com.pinterest.secor.io.impl;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
 
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
@@ -26,12 +27,20 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
 
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
 import com.pinterest.secor.util.FileUtil;
 
 /**
@@ -50,7 +59,7 @@ public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory
         return new SequenceFileWriter(logFilePath, codec);
     }
 
-    protected class SequenceFileReader implements FileReader {
+    protected class SequenceFileReader implements SeekableFileReader {
         private final SequenceFile.Reader mReader;
         private final LongWritable mKey;
         private final BytesWritable mValue;
@@ -67,37 +76,131 @@ public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory
         @Override
         public KeyValue next() throws IOException {
             if (mReader.next(mKey, mValue)) {
-                return new KeyValue(mKey.get(), Arrays.copyOfRange(mValue.getBytes(), 0, mValue.getLength()));
+                // The value buffer is reused by subsequent calls.
+                return new KeyValue(mKey.get(), mValue.getBytes(), 0, mValue.getLength());
             } else {
                 return null;
             }
         }
 
+        @Override
+        public void seek(OffsetIndex.Entry entry) throws IOException {
+            this.mReader.seek(entry.getPosition());
+        }
+
         @Override
         public void close() throws IOException {
             this.mReader.close();
         }
     }
 
-    protected class SequenceFileWriter implements FileWriter {
+    /**
+     * Value of a BytesWritable record serialized straight from a slice of the caller's buffer.
+     * Values of record compressed files are compressed when they are set since the writer needs
+     * their compressed size before it writes them.
+     */
+    private static class ValueBytesView implements SequenceFile.ValueBytes {
+        // Null unless values are compressed.
+        private final CompressionOutputStream mDeflateFilter;
+        private final DataOutputStream mDeflateOut;
+        private final DataOutputBuffer mCompressedBuffer;
+        private byte[] mBuffer;
+        private int mOffset;
+        private int mLength;
+
+        public ValueBytesView() {
+            mDeflateFilter = null;
+            mDeflateOut = null;
+            mCompressedBuffer = null;
+        }
+
+        public ValueBytesView(CompressionCodec codec, Compressor compressor) throws IOException {
+            mCompressedBuffer = new DataOutputBuffer();
+            mDeflateFilter = codec.createOutputStream(mCompressedBuffer, compressor);
+            mDeflateOut = new DataOutputStream(new BufferedOutputStream(mDeflateFilter));
+        }
+
+        public void set(byte[] buffer, int offset, int length) throws IOException {
+            mBuffer = buffer;
+            mOffset = offset;
+            mLength = length;
+            if (mDeflateFilter != null) {
+                // Same steps as the record compressed writer takes for a BytesWritable.
+                mCompressedBuffer.reset();
+                mDeflateFilter.resetState();
+                writeUncompressedBytes(mDeflateOut);
+                mDeflateOut.flush();
+                mDeflateFilter.finish();
+            }
+        }
+
+        @Override
+        public void writeUncompressedBytes(DataOutputStream outStream) throws IOException {
+            // Same layout as BytesWritable.write().
+            outStream.writeInt(mLength);
+            outStream.write(mBuffer, mOffset, mLength);
+        }
+
+        @Override
+        public void writeCompressedBytes(DataOutputStream outStream) throws IOException {
+            if (mDeflateFilter == null) {
+                throw new IOException("Value is not compressed");
+            }
+            outStream.write(mCompressedBuffer.getData(), 0, mCompressedBuffer.getLength());
+        }
+
+        @Override
+        public int getSize() {
+            if (mDeflateFilter != null) {
+                return mCompressedBuffer.getLength();
+            }
+            return 4 + mLength;
+        }
+    }
+
+    protected class SequenceFileWriter implements RawFileWriter {
+        private final LogFilePath mPath;
+        private final Configuration mConfiguration;
         private final SequenceFile.Writer mWriter;
-        private final LongWritable mKey;
-        private final BytesWritable mValue;
+        private final SequenceFile.CompressionType mCompressionType;
+        private final Class<? extends CompressionCodec> mCodecClass;
+        // Null unless values are record compressed.
+        private final Compressor mCompressor;
+        // Serialized LongWritable key.
+        private final byte[] mRawKey;
+        private final ValueBytesView mRawValue;
+        // Null unless offset indexes are enabled.
+        private final OffsetIndex mIndex;
 
         public SequenceFileWriter(LogFilePath path, CompressionCodec codec) throws IOException {
             Configuration config = new Configuration();
             Path fsPath = new Path(path.getLogFilePath());
             FileSystem fs = FileUtil.getFileSystem(path.getLogFilePath());
+            this.mPath = path;
+            this.mConfiguration = config;
             if (codec != null) {
                 this.mWriter = SequenceFile.createWriter(fs, config, fsPath,
                         LongWritable.class, BytesWritable.class,
                         SequenceFile.CompressionType.BLOCK, codec);
+                this.mCompressionType = SequenceFile.CompressionType.BLOCK;
             } else {
                 this.mWriter = SequenceFile.createWriter(fs, config, fsPath,
                         LongWritable.class, BytesWritable.class);
+                // Defaults of SequenceFile.createWriter.
+                this.mCompressionType = SequenceFile.getCompressionType(config);
             }
-            this.mKey = new LongWritable();
-            this.mValue = new BytesWritable();
+            this.mCodecClass = this.mWriter.getCompressionCodec() == null ? null :
+                this.mWriter.getCompressionCodec().getClass();
+            if (this.mCompressionType == SequenceFile.CompressionType.RECORD) {
+                this.mCompressor = CodecPool.getCompressor(this.mWriter.getCompressionCodec());
+                this.mRawValue = new ValueBytesView(this.mWriter.getCompressionCodec(),
+                                                    this.mCompressor);
+            } else {
+                this.mCompressor = null;
+                this.mRawValue = new ValueBytesView();
+            }
+            this.mRawKey = new byte[8];
+            this.mIndex = OffsetIndex.isEnabled() ? new OffsetIndex() : null;
         }
 
         @Override
@@ -105,16 +208,103 @@ public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory
             return this.mWriter.getLength();
         }
 
+        private void index(long key, int valueBytes) throws IOException {
+            if (this.mIndex == null) {
+                return;
+            }
+            if (this.mIndex.isBlockFull()) {
+                // Records of compressed blocks can be reached only from the start of the block.
+                if (this.mCompressionType == SequenceFile.CompressionType.BLOCK) {
+                    this.mWriter.sync();
+                }
+                this.mIndex.startBlock(this.mWriter.getLength());
+            }
+            this.mIndex.add(key, valueBytes);
+        }
+
         @Override
         public void write(KeyValue keyValue) throws IOException {
-            this.mKey.set(keyValue.getKey());
-            this.mValue.set(keyValue.getValue(), 0, keyValue.getValue().length);
-            this.mWriter.append(this.mKey, this.mValue);
+            index(keyValue.getKey(), keyValue.getValueLength());
+            // Records are appended in their serialized form to avoid copying the value into a
+            // BytesWritable.
+            long key = keyValue.getKey();
+            for (int i = 7; i >= 0; --i) {
+                this.mRawKey[i] = (byte) key;
+                key >>>= 8;
+            }
+            this.mRawValue.set(keyValue.getValueBuffer(), keyValue.getValueOffset(),
+                               keyValue.getValueLength());
+            this.mWriter.appendRaw(this.mRawKey, 0, this.mRawKey.length, this.mRawValue);
+        }
+
+        private boolean isCompatible(SequenceFile.Reader reader) {
+            if (reader.getKeyClass() != LongWritable.class ||
+                reader.getValueClass() != BytesWritable.class) {
+                return false;
+            }
+            if (reader.isBlockCompressed()) {
+                return this.mCompressionType == SequenceFile.CompressionType.BLOCK;
+            }
+            if (reader.isCompressed()) {
+                // Record compressed values are copied as is so the codecs have to match.
+                return this.mCompressionType == SequenceFile.CompressionType.RECORD &&
+                    reader.getCompressionCodec().getClass() == this.mCodecClass;
+            }
+            return this.mCompressionType == SequenceFile.CompressionType.NONE;
+        }
+
+        /**
+         * Copy records in their serialized form.  Values of record compressed files are not
+         * decompressed.  Values of block compressed files are decompressed with their blocks and
+         * compressed again but never deserialized.
+         */
+        @Override
+        public long appendRaw(LogFilePath srcPath, long startOffset) throws IOException {
+            FileSystem fs = FileUtil.getFileSystem(srcPath.getLogFilePath());
+            SequenceFile.Reader reader = new SequenceFile.Reader(
+                fs, new Path(srcPath.getLogFilePath()), this.mConfiguration);
+            try {
+                if (!isCompatible(reader)) {
+                    return -1;
+                }
+                OffsetIndex index = OffsetIndex.read(srcPath);
+                if (index != null) {
+                    OffsetIndex.Entry entry = index.findEntry(startOffset);
+                    if (entry == null) {
+                        return 0;
+                    }
+                    reader.seek(entry.getPosition());
+                }
+                DataOutputBuffer key = new DataOutputBuffer();
+                SequenceFile.ValueBytes value = reader.createValueBytes();
+                long copied = 0;
+                while (reader.nextRaw(key, value) != -1) {
+                    long offset = WritableComparator.readLong(key.getData(), 0);
+                    if (offset >= startOffset) {
+                        index(offset, value.getSize());
+                        this.mWriter.appendRaw(key.getData(), 0, key.getLength(), value);
+                        copied++;
+                    }
+                    key.reset();
+                }
+                return copied;
+            } finally {
+                reader.close();
+            }
         }
 
         @Override
         public void close() throws IOException {
-            this.mWriter.close();
+            try {
+                this.mWriter.close();
+            } finally {
+                if (this.mCompressor != null) {
+                    CodecPool.returnCompressor(this.mCompressor);
+                }
+            }
+            if (this.mIndex != null) {
+                this.mIndex.write(this.mPath);
+            }
         }
     }
-}
\ No newline at end of file
+}
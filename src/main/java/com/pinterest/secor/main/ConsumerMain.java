@@ -19,6 +19,7 @@ package com.pinterest.secor.main;
 import com.pinterest.secor.common.OstrichAdminService;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.consumer.Consumer;
+import com.pinterest.secor.io.OffsetIndex;
 import com.pinterest.secor.tools.LogFileDeleter;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.RateLimitUtil;
@@ -55,6 +56,7 @@ public class ConsumerMain {
             OstrichAdminService ostrichService = new OstrichAdminService(config.getOstrichPort());
             ostrichService.start();
             FileUtil.configure(config);
+            OffsetIndex.configure(config);
 
             LogFileDeleter logFileDeleter = new LogFileDeleter(config);
             logFileDeleter.deleteOldLogs();
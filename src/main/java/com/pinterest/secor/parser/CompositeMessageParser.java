@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.message.ParsedMessage;
+import com.pinterest.secor.util.ReflectionUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Composite message parser delegates parsing to other parsers based on the message topic.
+ *
+ * Topics are routed to parsers with regular expressions configured in
+ * 'secor.message.parser.routes'.  The format of topics not matching any route is sniffed from the
+ * first bytes of their first message:
+ *     JSON objects start with '{' (possibly preceded by whitespace),
+ *     MessagePack maps start with a fixmap, map 16, or map 32 marker,
+ *     Thrift structs serialized with the binary protocol start with a field type.
+ *
+ * The parser chosen for a topic is cached so routing costs a single hash lookup per message.
+ * Parsers of a given class are shared among topics.  Like other parsers, the composite is not
+ * thread-safe.
+ */
+public class CompositeMessageParser extends MessageParser {
+    private static final Logger LOG = LoggerFactory.getLogger(CompositeMessageParser.class);
+
+    private static final String JSON_PARSER_CLASS = JsonMessageParser.class.getName();
+    private static final String MESSAGE_PACK_PARSER_CLASS = MessagePackParser.class.getName();
+    private static final String THRIFT_PARSER_CLASS = ThriftMessageParser.class.getName();
+
+    private static class Route {
+        private final Pattern mTopicPattern;
+        private final String mParserClass;
+
+        public Route(Pattern topicPattern, String parserClass) {
+            mTopicPattern = topicPattern;
+            mParserClass = parserClass;
+        }
+    }
+
+    private final ArrayList<Route> mRoutes;
+    // Parser instances by class name.
+    private final HashMap<String, MessageParser> mParsers;
+    // Parser chosen for each topic seen so far.
+    private final HashMap<String, MessageParser> mTopicParsers;
+    private String mLastTopic;
+    private MessageParser mLastParser;
+
+    public CompositeMessageParser(SecorConfig config) {
+        super(config);
+        mRoutes = new ArrayList<Route>();
+        String[] routes = config.getMessageParserRoutes();
+        if (routes != null) {
+            for (String route : routes) {
+                route = route.trim();
+                if (route.isEmpty()) {
+                    continue;
+                }
+                // Class names do not contain colons while regular expressions may.
+                int separator = route.lastIndexOf(':');
+                if (separator <= 0 || separator == route.length() - 1) {
+                    throw new IllegalArgumentException("Invalid message parser route '" + route +
+                                                       "', expected topic_regex:parser_class");
+                }
+                mRoutes.add(new Route(Pattern.compile(route.substring(0, separator)),
+                                      route.substring(separator + 1).trim()));
+            }
+        }
+        mParsers = new HashMap<String, MessageParser>();
+        mTopicParsers = new HashMap<String, MessageParser>();
+    }
+
+    private MessageParser getOrCreateParser(String parserClass) throws Exception {
+        MessageParser parser = mParsers.get(parserClass);
+        if (parser == null) {
+            if (parserClass.equals(getClass().getName())) {
+                throw new IllegalArgumentException("Composite message parser cannot route to " +
+                                                   "itself");
+            }
+            parser = ReflectionUtil.createMessageParser(parserClass, mConfig);
+            mParsers.put(parserClass, parser);
+        }
+        return parser;
+    }
+
+    /**
+     * Guess the parser class from the first bytes of the payload.
+     *
+     * @return Parser class name or null if the format is not recognized.
+     */
+    static String sniffParserClass(byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            return null;
+        }
+        // Skip JSON whitespace.  Note that '\n' is also the Thrift i64 field type so Thrift
+        // payloads are only classified as JSON if the whitespace is followed by '{'.
+        int pos = 0;
+        while (pos < payload.length &&
+               (payload[pos] == ' ' || payload[pos] == '\t' || payload[pos] == '\r' ||
+                payload[pos] == '\n')) {
+            pos++;
+        }
+        if (pos < payload.length && payload[pos] == '{') {
+            return JSON_PARSER_CLASS;
+        }
+        int first = payload[0] & 0xff;
+        if ((first >= 0x80 && first <= 0x8f) || first == 0xde || first == 0xdf) {
+            return MESSAGE_PACK_PARSER_CLASS;
+        }
+        switch (first) {
+            case 2:   // bool
+            case 3:   // byte
+            case 4:   // double
+            case 6:   // i16
+            case 8:   // i32
+            case 10:  // i64
+            case 11:  // string
+            case 12:  // struct
+            case 13:  // map
+            case 14:  // set
+            case 15:  // list
+                return THRIFT_PARSER_CLASS;
+            default:
+                return null;
+        }
+    }
+
+    private MessageParser chooseParser(Message message) throws Exception {
+        String topic = message.getTopic();
+        for (Route route : mRoutes) {
+            if (route.mTopicPattern.matcher(topic).matches()) {
+                LOG.info("routing topic " + topic + " to parser " + route.mParserClass);
+                return getOrCreateParser(route.mParserClass);
+            }
+        }
+        String parserClass = sniffParserClass(message.getPayload());
+        if (parserClass == null) {
+            throw new IllegalArgumentException("Failed to detect format of message " + message);
+        }
+        LOG.info("detected format of topic " + topic + ", routing it to parser " + parserClass);
+        return getOrCreateParser(parserClass);
+    }
+
+    /**
+     * Get the parser for the topic of a given message.
+     */
+    public MessageParser getParser(Message message) throws Exception {
+        String topic = message.getTopic();
+        if (topic == mLastTopic) {
+            return mLastParser;
+        }
+        MessageParser parser = mTopicParsers.get(topic);
+        if (parser == null) {
+            parser = chooseParser(message);
+            mTopicParsers.put(topic, parser);
+        }
+        mLastTopic = topic;
+        mLastParser = parser;
+        return parser;
+    }
+
+    @Override
+    public ParsedMessage parse(Message message) throws Exception {
+        return getParser(message).parse(message);
+    }
+
+    @Override
+    public String[] extractPartitions(Message message) throws Exception {
+        return getParser(message).extractPartitions(message);
+    }
+}
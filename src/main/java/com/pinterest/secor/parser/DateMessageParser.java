@@ -18,6 +18,7 @@ package com.pinterest.secor.parser;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 import net.minidev.json.JSONObject;
 import net.minidev.json.JSONValue;
@@ -42,34 +43,78 @@ public class DateMessageParser extends MessageParser {
     protected static final String defaultDate = "dt=1970-01-01";
     protected static final String defaultFormatter = "yyyy-MM-dd";
 
+    private static final String[] DEFAULT_PARTITIONS = { defaultDate };
+
+    private final JsonFieldExtractor mTimestampExtractor;
+    private final String mInputPattern;
+    // Null if the input pattern is missing or invalid.
+    private final ThreadLocal<SimpleDateFormat> mInputFormatter;
+    private final DatePartitionCache mOutputPartitions;
+
     public DateMessageParser(SecorConfig config) {
         super(config);
+        String timestampName = mConfig.getMessageTimestampName();
+        mTimestampExtractor = timestampName == null ? null : new JsonFieldExtractor(timestampName);
+        mInputPattern = mConfig.getMessageTimestampInputPattern();
+        mInputFormatter = createInputFormatter(mInputPattern);
+        mOutputPartitions = new DatePartitionCache(TimeZone.getDefault());
     }
 
-    @Override
-    public String[] extractPartitions(Message message) {
-        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
-        String result[] = { defaultDate };
+    private static ThreadLocal<SimpleDateFormat> createInputFormatter(String inputPattern) {
+        if (inputPattern == null) {
+            return null;
+        }
+        final SimpleDateFormat prototype;
+        try {
+            prototype = new SimpleDateFormat(inputPattern);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid input pattern = " + inputPattern + ". Using date default=" +
+                     defaultDate, e);
+            return null;
+        }
+        // SimpleDateFormat is not thread-safe so each thread gets its own copy.
+        return new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return (SimpleDateFormat) prototype.clone();
+            }
+        };
+    }
 
+    private Object extractTimestampField(Message message) {
+        if (mTimestampExtractor != null) {
+            try {
+                return mTimestampExtractor.extract(message.getPayload());
+            } catch (JsonFieldExtractor.UnsupportedInputException e) {
+                // Fall back to the full parser.
+            }
+        }
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
         if (jsonObject != null) {
-            Object fieldValue = jsonObject.get(mConfig.getMessageTimestampName());
-            Object inputPattern = mConfig.getMessageTimestampInputPattern();
-            if (fieldValue != null && inputPattern != null) {
-                try {
-                    SimpleDateFormat inputFormatter = new SimpleDateFormat(inputPattern.toString());
-                    SimpleDateFormat outputFormatter = new SimpleDateFormat(defaultFormatter);
-                    Date dateFormat = inputFormatter.parse(fieldValue.toString());
-                    result[0] = "dt=" + outputFormatter.format(dateFormat);
-                    return result;
-                } catch (Exception e) {
-                    LOG.warn("Impossible to convert date = " + fieldValue.toString()
-                            + " for the input pattern = " + inputPattern.toString()
-                            + ". Using date default=" + result[0]);
-                }
+            return jsonObject.get(mConfig.getMessageTimestampName());
+        }
+        return null;
+    }
+
+    @Override
+    public String[] extractPartitions(Message message) {
+        if (mInputFormatter == null) {
+            return DEFAULT_PARTITIONS;
+        }
+        Object fieldValue = extractTimestampField(message);
+        if (fieldValue != null) {
+            try {
+                Date dateFormat = mInputFormatter.get().parse(fieldValue.toString());
+                // The returned array is shared by all messages from the same day.
+                return mOutputPartitions.getPartitions(dateFormat.getTime());
+            } catch (Exception e) {
+                LOG.warn("Impossible to convert date = " + fieldValue.toString()
+                        + " for the input pattern = " + mInputPattern
+                        + ". Using date default=" + defaultDate);
             }
         }
 
-        return result;
+        return DEFAULT_PARTITIONS;
     }
 
 }
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * DatePartitionCache maps timestamps to day partitions of the form dt=yyyy-MM-dd.
+ *
+ * The epoch day of a timestamp is computed with integer arithmetic and looked up in a small
+ * direct-mapped cache of recently seen days.  Messages tend to arrive roughly in timestamp order
+ * so the common case is a single comparison.  Formatting only happens on a cache miss and uses a
+ * per-thread formatter.  The returned partition arrays are shared among callers and must not be
+ * modified.
+ *
+ * The cache is thread-safe.
+ */
+public class DatePartitionCache {
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+    // Must be a power of two.
+    private static final int CACHE_SIZE = 16;
+
+    private final TimeZone mTimeZone;
+    private final boolean mUtc;
+    private final ThreadLocal<SimpleDateFormat> mFormatter;
+    private final Bucket[] mBuckets;
+
+    private static class Bucket {
+        private final long mDay;
+        private final String[] mPartitions;
+
+        public Bucket(long day, String[] partitions) {
+            mDay = day;
+            mPartitions = partitions;
+        }
+    }
+
+    public DatePartitionCache(TimeZone timeZone) {
+        mTimeZone = (TimeZone) timeZone.clone();
+        mUtc = mTimeZone.hasSameRules(TimeZone.getTimeZone("UTC"));
+        mFormatter = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
+                formatter.setTimeZone(mTimeZone);
+                return formatter;
+            }
+        };
+        mBuckets = new Bucket[CACHE_SIZE];
+    }
+
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            result--;
+        }
+        return result;
+    }
+
+    /**
+     * @param timestampMillis Milliseconds since epoch.
+     * @return Single element array with the day partition of the timestamp.
+     */
+    public String[] getPartitions(long timestampMillis) {
+        long localMillis = timestampMillis;
+        if (!mUtc) {
+            localMillis += mTimeZone.getOffset(timestampMillis);
+        }
+        long day = floorDiv(localMillis, MILLIS_PER_DAY);
+        int index = (int) (day & (CACHE_SIZE - 1));
+        // Buckets are immutable so racing readers see either the old or the new bucket.
+        Bucket bucket = mBuckets[index];
+        if (bucket != null && bucket.mDay == day) {
+            return bucket.mPartitions;
+        }
+        String[] partitions = {"dt=" + mFormatter.get().format(new Date(timestampMillis))};
+        mBuckets[index] = new Bucket(day, partitions);
+        return partitions;
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import java.nio.charset.Charset;
+
+/**
+ * JsonFieldExtractor retrieves the value of a single top-level field from a UTF-8 encoded JSON
+ * object without building the object tree.  The payload is scanned byte by byte, values of other
+ * fields are skipped, and only the value of the requested field is decoded.  Scanning stops at the
+ * first occurrence of the field.
+ *
+ * The extractor understands strict JSON only.  If it runs into anything else, e.g., single-quoted
+ * strings accepted by the permissive json-smart parser, or if the field value is an object or an
+ * array, it throws {@link UnsupportedInputException} and the caller should fall back to a full
+ * parser.
+ *
+ * The extractor is stateless and thread-safe.
+ */
+public class JsonFieldExtractor {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String mFieldName;
+    private final byte[] mFieldNameBytes;
+
+    /**
+     * Thrown if the payload cannot be handled by the extractor.  The exception carries no stack
+     * trace to keep fallbacks cheap.
+     */
+    public static class UnsupportedInputException extends Exception {
+        public UnsupportedInputException(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    public JsonFieldExtractor(String fieldName) {
+        mFieldName = fieldName;
+        mFieldNameBytes = fieldName.getBytes(UTF8);
+    }
+
+    /**
+     * Extract the value of the field.
+     *
+     * @param payload UTF-8 encoded JSON object.
+     * @return String value of the field, the literal text of a number or boolean value, or null
+     *     if the field is missing or its value is JSON null.
+     * @throws UnsupportedInputException if the payload is not strict JSON object or the field
+     *     value is an object or an array.
+     */
+    public String extract(byte[] payload) throws UnsupportedInputException {
+        if (payload == null) {
+            throw new UnsupportedInputException("null payload");
+        }
+        int pos = skipWhitespace(payload, 0);
+        pos = expect(payload, pos, '{');
+        pos = skipWhitespace(payload, pos);
+        if (pos < payload.length && payload[pos] == '}') {
+            return null;
+        }
+        while (true) {
+            pos = expect(payload, pos, '"');
+            int keyStart = pos;
+            pos = skipString(payload, pos);
+            // pos points right after the closing quote.
+            boolean matches = keyMatches(payload, keyStart, pos - 1);
+            pos = skipWhitespace(payload, pos);
+            pos = expect(payload, pos, ':');
+            pos = skipWhitespace(payload, pos);
+            if (matches) {
+                return readValue(payload, pos);
+            }
+            pos = skipValue(payload, pos);
+            pos = skipWhitespace(payload, pos);
+            if (pos >= payload.length) {
+                throw new UnsupportedInputException("unterminated object");
+            }
+            if (payload[pos] == '}') {
+                return null;
+            }
+            pos = expect(payload, pos, ',');
+            pos = skipWhitespace(payload, pos);
+        }
+    }
+
+    private boolean keyMatches(byte[] payload, int start, int end) {
+        int length = end - start;
+        for (int i = start; i < end; ++i) {
+            if (payload[i] == '\\') {
+                // Escaped keys are rare, compare decoded strings.
+                try {
+                    return mFieldName.equals(decodeString(payload, start, end));
+                } catch (UnsupportedInputException e) {
+                    return false;
+                }
+            }
+        }
+        if (length != mFieldNameBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (payload[start + i] != mFieldNameBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(byte[] payload, int pos) {
+        while (pos < payload.length) {
+            byte b = payload[pos];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int expect(byte[] payload, int pos, char c) throws UnsupportedInputException {
+        if (pos >= payload.length || payload[pos] != c) {
+            throw new UnsupportedInputException("expected '" + c + "' at position " + pos);
+        }
+        return pos + 1;
+    }
+
+    // @param pos position right after the opening quote
+    // @return position right after the closing quote
+    private static int skipString(byte[] payload, int pos) throws UnsupportedInputException {
+        while (pos < payload.length) {
+            byte b = payload[pos];
+            if (b == '"') {
+                return pos + 1;
+            }
+            if (b == '\\') {
+                pos++;
+            }
+            pos++;
+        }
+        throw new UnsupportedInputException("unterminated string");
+    }
+
+    private static boolean isLiteralByte(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') ||
+            b == '-' || b == '+' || b == '.';
+    }
+
+    private static int skipLiteral(byte[] payload, int pos) throws UnsupportedInputException {
+        int start = pos;
+        while (pos < payload.length && isLiteralByte(payload[pos])) {
+            pos++;
+        }
+        if (pos == start) {
+            throw new UnsupportedInputException("unexpected character at position " + pos);
+        }
+        return pos;
+    }
+
+    private static int skipValue(byte[] payload, int pos) throws UnsupportedInputException {
+        if (pos >= payload.length) {
+            throw new UnsupportedInputException("missing value");
+        }
+        byte b = payload[pos];
+        if (b == '"') {
+            return skipString(payload, pos + 1);
+        }
+        if (b != '{' && b != '[') {
+            return skipLiteral(payload, pos);
+        }
+        // Skip a nested object or array.  Brackets inside strings are ignored.
+        int depth = 0;
+        while (pos < payload.length) {
+            b = payload[pos];
+            if (b == '"') {
+                pos = skipString(payload, pos + 1);
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 0) {
+                    return pos + 1;
+                }
+            }
+            pos++;
+        }
+        throw new UnsupportedInputException("unterminated value");
+    }
+
+    private static String readValue(byte[] payload, int pos) throws UnsupportedInputException {
+        if (pos >= payload.length) {
+            throw new UnsupportedInputException("missing value");
+        }
+        byte b = payload[pos];
+        if (b == '"') {
+            int end = skipString(payload, pos + 1) - 1;
+            return decodeString(payload, pos + 1, end);
+        }
+        if (b == '{' || b == '[') {
+            throw new UnsupportedInputException("structured value");
+        }
+        int end = skipLiteral(payload, pos);
+        String literal = new String(payload, pos, end - pos, UTF8);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (!literal.equals("true") && !literal.equals("false") &&
+            !(b == '-' || (b >= '0' && b <= '9'))) {
+            throw new UnsupportedInputException("unexpected literal " + literal);
+        }
+        return literal;
+    }
+
+    private static String decodeString(byte[] payload, int start, int end)
+            throws UnsupportedInputException {
+        int firstEscape = -1;
+        for (int i = start; i < end; ++i) {
+            if (payload[i] == '\\') {
+                firstEscape = i;
+                break;
+            }
+        }
+        if (firstEscape == -1) {
+            return new String(payload, start, end - start, UTF8);
+        }
+        StringBuilder result = new StringBuilder(end - start);
+        int pos = firstEscape;
+        int chunkStart = start;
+        while (pos < end) {
+            if (payload[pos] != '\\') {
+                pos++;
+                continue;
+            }
+            result.append(new String(payload, chunkStart, pos - chunkStart, UTF8));
+            if (pos + 1 >= end) {
+                throw new UnsupportedInputException("invalid escape");
+            }
+            byte escaped = payload[pos + 1];
+            pos += 2;
+            switch (escaped) {
+                case '"': result.append('"'); break;
+                case '\\': result.append('\\'); break;
+                case '/': result.append('/'); break;
+                case 'b': result.append('\b'); break;
+                case 'f': result.append('\f'); break;
+                case 'n': result.append('\n'); break;
+                case 'r': result.append('\r'); break;
+                case 't': result.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > end) {
+                        throw new UnsupportedInputException("invalid unicode escape");
+                    }
+                    try {
+                        result.append((char) Integer.parseInt(
+                            new String(payload, pos, 4, UTF8), 16));
+                    } catch (NumberFormatException e) {
+                        throw new UnsupportedInputException("invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw new UnsupportedInputException("invalid escape");
+            }
+            chunkStart = pos;
+        }
+        result.append(new String(payload, chunkStart, end - chunkStart, UTF8));
+        return result.toString();
+    }
+}
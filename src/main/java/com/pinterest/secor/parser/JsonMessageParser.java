@@ -26,20 +26,37 @@ import net.minidev.json.JSONValue;
  * from JSON data and partitions data by date.
  */
 public class JsonMessageParser extends TimestampedMessageParser {
+    private final JsonFieldExtractor mTimestampExtractor;
+
     public JsonMessageParser(SecorConfig config) {
         super(config);
+        String timestampName = mConfig.getMessageTimestampName();
+        mTimestampExtractor = timestampName == null ? null : new JsonFieldExtractor(timestampName);
     }
 
     @Override
     public long extractTimestampMillis(final Message message) {
-        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
-        if (jsonObject != null) {
-            Object fieldValue = jsonObject.get(mConfig.getMessageTimestampName());
-            if (fieldValue != null) {
-                return toMillis(Double.valueOf(fieldValue.toString()).longValue());
+        Object fieldValue;
+        if (mTimestampExtractor != null) {
+            try {
+                fieldValue = mTimestampExtractor.extract(message.getPayload());
+            } catch (JsonFieldExtractor.UnsupportedInputException e) {
+                fieldValue = extractTimestampField(message);
             }
+        } else {
+            fieldValue = extractTimestampField(message);
+        }
+        if (fieldValue != null) {
+            return toMillis(Double.valueOf(fieldValue.toString()).longValue());
         }
         return 0;
     }
 
+    private Object extractTimestampField(final Message message) {
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
+        if (jsonObject != null) {
+            return jsonObject.get(mConfig.getMessageTimestampName());
+        }
+        return null;
+    }
 }
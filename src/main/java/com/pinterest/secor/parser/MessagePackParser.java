@@ -16,43 +16,91 @@
  */
 package com.pinterest.secor.parser;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
-import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
 
-import java.util.HashMap;
+import java.nio.charset.Charset;
 
 /**
  * MessagePack timestamped message parser.
  * Requires a second or ms timestamp.
  * Does not support message.timestamp.input.pattern.
  *
+ * The payload is read with a streaming unpacker.  Values of unrelated fields are skipped without
+ * being materialized and unpacking stops as soon as the timestamp field is found.
+ *
  * @author Zack Dever (zack@rd.io)
  */
 public class MessagePackParser extends TimestampedMessageParser {
-    private ObjectMapper mMessagePackObjectMapper;
-    private TypeReference mTypeReference;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] mTimestampNameBytes;
+    // Reusable buffer for map keys of the same length as the timestamp name.
+    private byte[] mKeyBuffer;
 
     public MessagePackParser(SecorConfig config) {
         super(config);
-        mMessagePackObjectMapper = new ObjectMapper(new MessagePackFactory());
-        mTypeReference = new TypeReference<HashMap<String, Object>>(){};
+        String timestampName = mConfig.getMessageTimestampName();
+        if (timestampName != null) {
+            mTimestampNameBytes = timestampName.getBytes(UTF8);
+            mKeyBuffer = new byte[mTimestampNameBytes.length];
+        }
+    }
+
+    // @return whether the next value in the unpacker is a string key matching the timestamp name
+    private boolean matchTimestampKey(MessageUnpacker unpacker) throws Exception {
+        MessageFormat format = unpacker.getNextFormat();
+        if (format.getValueType() != ValueType.STRING || mTimestampNameBytes == null) {
+            unpacker.skipValue();
+            return false;
+        }
+        int length = unpacker.unpackRawStringHeader();
+        if (length != mTimestampNameBytes.length) {
+            unpacker.skipBytes(length);
+            return false;
+        }
+        unpacker.readPayload(mKeyBuffer, 0, length);
+        for (int i = 0; i < length; ++i) {
+            if (mKeyBuffer[i] != mTimestampNameBytes[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public long extractTimestampMillis(Message message) throws Exception {
-        HashMap<String, Object> msgHash = mMessagePackObjectMapper.readValue(message.getPayload(),
-                mTypeReference);
-        Object timestampValue = msgHash.get(mConfig.getMessageTimestampName());
-
-        if (timestampValue instanceof Number) {
-            return toMillis(((Number) timestampValue).longValue());
-        } else if (timestampValue instanceof String) {
-            return toMillis(Long.parseLong((String) timestampValue));
-        } else {
-            return toMillis((Long) timestampValue);
+        MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(message.getPayload());
+        try {
+            int size = unpacker.unpackMapHeader();
+            for (int i = 0; i < size; ++i) {
+                if (!matchTimestampKey(unpacker)) {
+                    unpacker.skipValue();
+                    continue;
+                }
+                MessageFormat format = unpacker.getNextFormat();
+                switch (format.getValueType()) {
+                    case INTEGER:
+                        return toMillis(unpacker.unpackLong());
+                    case FLOAT:
+                        return toMillis((long) unpacker.unpackDouble());
+                    case STRING:
+                        return toMillis(Long.parseLong(unpacker.unpackString()));
+                    case NIL:
+                        throw new NullPointerException("Null timestamp in message " + message);
+                    default:
+                        throw new ClassCastException("Unsupported timestamp type " +
+                                                     format.getValueType() + " in message " +
+                                                     message);
+                }
+            }
+        } finally {
+            unpacker.close();
         }
+        throw new NullPointerException("No timestamp in message " + message);
     }
 }
@@ -20,12 +20,9 @@ import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
 import com.pinterest.secor.message.ParsedMessage;
 
-// TODO(pawel): should we offer a multi-message parser capable of parsing multiple types of
-// messages?  E.g., it could be implemented as a composite trying out different parsers and using
-// the one that works.  What is the performance cost of such approach?
-
 /**
- * Message parser extracts partitions from messages.
+ * Message parser extracts partitions from messages.  See CompositeMessageParser for parsing
+ * topics with different message formats.
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
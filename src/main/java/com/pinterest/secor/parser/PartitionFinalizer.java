@@ -42,7 +42,7 @@ public class PartitionFinalizer {
     private static final Logger LOG = LoggerFactory.getLogger(PartitionFinalizer.class);
 
     private SecorConfig mConfig;
-    private ZookeeperConnector mZookeeperConnector;
+    private OffsetStore mOffsetStore;
     private TimestampedMessageParser mMessageParser;
     private KafkaClient mKafkaClient;
     private QuboleClient mQuboleClient;
@@ -51,7 +51,7 @@ public class PartitionFinalizer {
     public PartitionFinalizer(SecorConfig config) throws Exception {
         mConfig = config;
         mKafkaClient = new KafkaClient(mConfig);
-        mZookeeperConnector = new ZookeeperConnector(mConfig);
+        mOffsetStore = ReflectionUtil.createOffsetStore(mConfig.getOffsetStoreClass(), mConfig);
         mMessageParser = (TimestampedMessageParser) ReflectionUtil.createMessageParser(
           mConfig.getMessageParserClass(), mConfig);
         mQuboleClient = new QuboleClient(mConfig);
@@ -63,8 +63,17 @@ public class PartitionFinalizer {
         }
     }
 
-    private long getLastTimestampMillis(TopicPartition topicPartition) throws Exception {
-        Message message = mKafkaClient.getLastMessage(topicPartition);
+    private List<TopicPartition> getTopicPartitions(String topic) {
+        final int numPartitions = mKafkaClient.getNumPartitions(topic);
+        List<TopicPartition> topicPartitions = new ArrayList<TopicPartition>(numPartitions);
+        for (int partition = 0; partition < numPartitions; ++partition) {
+            topicPartitions.add(new TopicPartition(topic, partition));
+        }
+        return topicPartitions;
+    }
+
+    private long getTimestampMillis(TopicPartition topicPartition, Message message)
+            throws Exception {
         if (message == null) {
             // This will happen if no messages have been posted to the given topic partition.
             LOG.error("No message found for topic " + topicPartition.getTopic() + " partition " +
@@ -75,11 +84,11 @@ public class PartitionFinalizer {
     }
 
     private long getLastTimestampMillis(String topic) throws Exception {
-        final int numPartitions = mKafkaClient.getNumPartitions(topic);
+        List<TopicPartition> topicPartitions = getTopicPartitions(topic);
+        Map<TopicPartition, Message> messages = mKafkaClient.getLastMessages(topicPartitions);
         long max_timestamp = Long.MIN_VALUE;
-        for (int partition = 0; partition < numPartitions; ++partition) {
-            TopicPartition topicPartition = new TopicPartition(topic, partition);
-            long timestamp = getLastTimestampMillis(topicPartition);
+        for (TopicPartition topicPartition : topicPartitions) {
+            long timestamp = getTimestampMillis(topicPartition, messages.get(topicPartition));
             if (timestamp > max_timestamp) {
                 max_timestamp = timestamp;
             }
@@ -90,22 +99,13 @@ public class PartitionFinalizer {
         return max_timestamp;
     }
 
-    private long getCommittedTimestampMillis(TopicPartition topicPartition) throws Exception {
-        Message message = mKafkaClient.getCommittedMessage(topicPartition);
-        if (message == null) {
-            LOG.error("No message found for topic " + topicPartition.getTopic() + " partition " +
-                    topicPartition.getPartition());
-            return -1;
-        }
-        return mMessageParser.extractTimestampMillis(message);
-    }
-
     private long getCommittedTimestampMillis(String topic) throws Exception {
-        final int numPartitions = mKafkaClient.getNumPartitions(topic);
+        List<TopicPartition> topicPartitions = getTopicPartitions(topic);
+        Map<TopicPartition, Message> messages =
+            mKafkaClient.getCommittedMessages(topicPartitions);
         long minTimestamp = Long.MAX_VALUE;
-        for (int partition = 0; partition < numPartitions; ++partition) {
-            TopicPartition topicPartition = new TopicPartition(topic, partition);
-            long timestamp = getCommittedTimestampMillis(topicPartition);
+        for (TopicPartition topicPartition : topicPartitions) {
+            long timestamp = getTimestampMillis(topicPartition, messages.get(topicPartition));
             if (timestamp == -1) {
                 return -1;
             } else {
@@ -178,14 +178,12 @@ public class PartitionFinalizer {
      * if the last offset for that topic partition has been committed earlier than an hour ago.
      * Otherwise, finalized timestamp is the committed timestamp.
      *
-     * @param topicPartition The topic partition for which we want to compute the finalized
-     *                       timestamp.
+     * @param lastTimestamp The timestamp of the last message in the topic partition.
+     * @param committedTimestamp The timestamp of the last committed message in the topic
+     *                           partition.
      * @return The finalized timestamp for the topic partition.
-     * @throws Exception
      */
-    private long getFinalizedTimestampMillis(TopicPartition topicPartition) throws Exception {
-        long lastTimestamp = getLastTimestampMillis(topicPartition);
-        long committedTimestamp = getCommittedTimestampMillis(topicPartition);
+    private long getFinalizedTimestampMillis(long lastTimestamp, long committedTimestamp) {
         long now = System.currentTimeMillis();
         if (lastTimestamp == committedTimestamp && (now - lastTimestamp) > 3600 * 1000) {
             return now;
@@ -194,13 +192,19 @@ public class PartitionFinalizer {
     }
 
     private long getFinalizedTimestampMillis(String topic) throws Exception {
-        final int numPartitions = mKafkaClient.getNumPartitions(topic);
+        List<TopicPartition> topicPartitions = getTopicPartitions(topic);
+        Map<TopicPartition, Message> lastMessages = mKafkaClient.getLastMessages(topicPartitions);
+        Map<TopicPartition, Message> committedMessages =
+            mKafkaClient.getCommittedMessages(topicPartitions);
         long minTimestamp = Long.MAX_VALUE;
-        for (int partition = 0; partition < numPartitions; ++partition) {
-            TopicPartition topicPartition = new TopicPartition(topic, partition);
-            long timestamp = getFinalizedTimestampMillis(topicPartition);
-            LOG.info("finalized timestamp for topic " + topic + " partition " + partition +
-                    " is " + timestamp);
+        for (TopicPartition topicPartition : topicPartitions) {
+            long lastTimestamp = getTimestampMillis(topicPartition,
+                                                    lastMessages.get(topicPartition));
+            long committedTimestamp = getTimestampMillis(topicPartition,
+                                                         committedMessages.get(topicPartition));
+            long timestamp = getFinalizedTimestampMillis(lastTimestamp, committedTimestamp);
+            LOG.info("finalized timestamp for topic " + topic + " partition " +
+                    topicPartition.getPartition() + " is " + timestamp);
             if (timestamp == -1) {
                 return -1;
             } else {
@@ -216,24 +220,28 @@ public class PartitionFinalizer {
     }
 
     public void finalizePartitions() throws Exception {
-        List<String> topics = mZookeeperConnector.getCommittedOffsetTopics();
-        for (String topic : topics) {
-            if (!topic.matches(mConfig.getKafkaTopicFilter())) {
-                LOG.info("skipping topic " + topic);
-            } else {
-                LOG.info("finalizing topic " + topic);
-                long finalizedTimestampMillis = getFinalizedTimestampMillis(topic);
-                LOG.info("finalized timestamp for topic " + topic + " is " +
-                        finalizedTimestampMillis);
-                if (finalizedTimestampMillis != -1) {
-                    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                    calendar.setTimeInMillis(finalizedTimestampMillis);
-                    // Introduce a lag of one day and one hour.
-                    calendar.add(Calendar.HOUR, -1);
-                    calendar.add(Calendar.DAY_OF_MONTH, -1);
-                    finalizePartitionsUpTo(topic, calendar);
+        List<String> topics = mOffsetStore.getCommittedOffsetTopics();
+        try {
+            for (String topic : topics) {
+                if (!topic.matches(mConfig.getKafkaTopicFilter())) {
+                    LOG.info("skipping topic " + topic);
+                } else {
+                    LOG.info("finalizing topic " + topic);
+                    long finalizedTimestampMillis = getFinalizedTimestampMillis(topic);
+                    LOG.info("finalized timestamp for topic " + topic + " is " +
+                            finalizedTimestampMillis);
+                    if (finalizedTimestampMillis != -1) {
+                        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                        calendar.setTimeInMillis(finalizedTimestampMillis);
+                        // Introduce a lag of one day and one hour.
+                        calendar.add(Calendar.HOUR, -1);
+                        calendar.add(Calendar.DAY_OF_MONTH, -1);
+                        finalizePartitionsUpTo(topic, calendar);
+                    }
                 }
             }
+        } finally {
+            mKafkaClient.close();
         }
     }
 }
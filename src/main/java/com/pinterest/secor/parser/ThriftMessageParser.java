@@ -22,39 +22,66 @@ import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
 import org.apache.thrift.TFieldIdEnum;
 
+import java.util.Arrays;
+
 /**
  * Thrift message parser extracts date partitions from thrift messages.
  *
+ * The timestamp is read with a partial deserialization of the i64 field addressed by
+ * 'message.timestamp.id'.  Other fields are skipped.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class ThriftMessageParser extends TimestampedMessageParser {
-    private TDeserializer mDeserializer;
+    private static final String DEFAULT_TIMESTAMP_ID = "1";
+
+    private final TDeserializer mDeserializer;
+    private final ThriftTemplate mTimestampTemplate;
+    private final ThriftTemplate[] mTimestampTemplatePath;
+
+    private static class ThriftTemplate implements TFieldIdEnum {
+        private final short mFieldId;
+        private final String mFieldName;
+
+        public ThriftTemplate(final short fieldId, final String fieldName) {
+            this.mFieldId = fieldId;
+            this.mFieldName = fieldName;
+        }
+
+        @Override
+        public short getThriftFieldId() {
+            return mFieldId;
+        }
+
+        @Override
+        public String getFieldName() {
+            return mFieldName;
+        }
+    }
 
     public ThriftMessageParser(SecorConfig config) {
         super(config);
+        // TDeserializer is not thread-safe so each parser gets its own.
         mDeserializer = new TDeserializer();
+        String timestampId = mConfig.getMessageTimestampId();
+        if (timestampId == null || timestampId.isEmpty()) {
+            timestampId = DEFAULT_TIMESTAMP_ID;
+        }
+        String[] fieldIds = timestampId.split("\\.");
+        String timestampName = mConfig.getMessageTimestampName();
+        ThriftTemplate[] templates = new ThriftTemplate[fieldIds.length];
+        for (int i = 0; i < fieldIds.length; ++i) {
+            String fieldName = i == fieldIds.length - 1 ? timestampName : "";
+            templates[i] = new ThriftTemplate(Short.parseShort(fieldIds[i].trim()), fieldName);
+        }
+        mTimestampTemplate = templates[0];
+        mTimestampTemplatePath = Arrays.copyOfRange(templates, 1, templates.length);
     }
 
     @Override
     public long extractTimestampMillis(final Message message) throws TException {
-        class ThriftTemplate implements TFieldIdEnum {
-            private final String mFieldName;
-            public ThriftTemplate(final String fieldName) {
-                this.mFieldName = fieldName;
-            }
-
-            @Override
-            public short getThriftFieldId() {
-                return 1;
-            }
-
-            @Override
-            public String getFieldName() {
-                return mFieldName;
-            }
-        }
         long timestamp = mDeserializer.partialDeserializeI64(message.getPayload(),
-                new ThriftTemplate(mConfig.getMessageTimestampName()));
+                mTimestampTemplate, mTimestampTemplatePath);
         return toMillis(timestamp);
     }
 }
@@ -19,18 +19,15 @@ package com.pinterest.secor.parser;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.TimeZone;
 
 public abstract class TimestampedMessageParser extends MessageParser {
 
-    private SimpleDateFormat mFormatter;
+    private static final DatePartitionCache UTC_PARTITIONS =
+        new DatePartitionCache(TimeZone.getTimeZone("UTC"));
 
     public TimestampedMessageParser(SecorConfig config) {
         super(config);
-        mFormatter = new SimpleDateFormat("yyyy-MM-dd");
-        mFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
     public abstract long extractTimestampMillis(final Message message) throws Exception;
@@ -51,10 +48,8 @@ public abstract class TimestampedMessageParser extends MessageParser {
 
     @Override
     public String[] extractPartitions(Message message) throws Exception {
-        // Date constructor takes milliseconds since epoch.
         long timestampMillis = extractTimestampMillis(message);
-        Date date = new Date(timestampMillis);
-        String result[] = {"dt=" + mFormatter.format(date)};
-        return result;
+        // The returned array is shared by all messages from the same day.
+        return UTC_PARTITIONS.getPartitions(timestampMillis);
     }
 }
@@ -16,9 +16,11 @@
  */
 package com.pinterest.secor.reader;
 
+import com.pinterest.secor.common.LongSlotArray;
 import com.pinterest.secor.common.OffsetTracker;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
+import com.pinterest.secor.common.TopicPartitionRegistry;
 import com.pinterest.secor.message.Message;
 import com.pinterest.secor.util.IdUtil;
 import com.pinterest.secor.util.RateLimitUtil;
@@ -26,6 +28,7 @@ import com.pinterest.secor.util.StatsUtil;
 import kafka.consumer.Consumer;
 import kafka.consumer.ConsumerConfig;
 import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
 import kafka.consumer.KafkaStream;
 import kafka.consumer.TopicFilter;
 import kafka.consumer.Whitelist;
@@ -35,10 +38,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -53,12 +54,19 @@ public class MessageReader {
     private OffsetTracker mOffsetTracker;
     private ConsumerConnector mConsumerConnector;
     private ConsumerIterator mIterator;
-    private HashMap<TopicPartition, Long> mLastAccessTime;
+    private TopicPartitionRegistry mTopicPartitionRegistry;
+    // Last access time in seconds indexed by topic partition slot.  0 means not accessed recently.
+    private LongSlotArray mLastAccessTime;
+    // Whether the Kafka iterator times out after secor.consumer.batch.max.wait.ms rather than
+    // kafka.consumer.timeout.ms.
+    private boolean mBatching;
 
     public MessageReader(SecorConfig config, OffsetTracker offsetTracker) throws
             UnknownHostException {
         mConfig = config;
         mOffsetTracker = offsetTracker;
+        mTopicPartitionRegistry = offsetTracker.getTopicPartitionRegistry();
+        mBatching = mConfig.getConsumerBatchMaxMessages() > 1;
 
         mConsumerConnector = Consumer.createJavaConsumerConnector(createConsumerConfig());
 
@@ -67,26 +75,33 @@ public class MessageReader {
             mConsumerConnector.createMessageStreamsByFilter(topicFilter);
         KafkaStream<byte[], byte[]> stream = streams.get(0);
         mIterator = stream.iterator();
-        mLastAccessTime = new HashMap<TopicPartition, Long>();
+        mLastAccessTime = new LongSlotArray(0);
         StatsUtil.setLabel("secor.kafka.consumer.id", IdUtil.getConsumerId());
     }
 
-    private void updateAccessTime(TopicPartition topicPartition) {
+    private void updateAccessTime(int slot) {
         long now = System.currentTimeMillis() / 1000L;
-        mLastAccessTime.put(topicPartition, now);
-        Iterator iterator = mLastAccessTime.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry pair = (Map.Entry) iterator.next();
-            long lastAccessTime = (Long) pair.getValue();
-            if (now - lastAccessTime > mConfig.getTopicPartitionForgetSeconds()) {
-                iterator.remove();
+        mLastAccessTime.set(slot, now);
+        forgetStaleTopicPartitions(now);
+    }
+
+    private void forgetStaleTopicPartitions(long now) {
+        for (int slot = 0; slot < mLastAccessTime.capacity(); ++slot) {
+            long lastAccessTime = mLastAccessTime.get(slot);
+            if (lastAccessTime != 0 &&
+                now - lastAccessTime > mConfig.getTopicPartitionForgetSeconds()) {
+                mLastAccessTime.clear(slot);
             }
         }
     }
 
     private void exportStats() {
         StringBuffer topicPartitions = new StringBuffer();
-        for (TopicPartition topicPartition : mLastAccessTime.keySet()) {
+        for (int slot = 0; slot < mLastAccessTime.capacity(); ++slot) {
+            if (mLastAccessTime.get(slot) == 0) {
+                continue;
+            }
+            TopicPartition topicPartition = mTopicPartitionRegistry.getTopicPartition(slot);
             if (topicPartitions.length() > 0) {
                 topicPartitions.append(' ');
             }
@@ -108,7 +123,14 @@ public class MessageReader {
         // This option is required to make sure that messages are not lost for new topics and
         // topics whose number of partitions has changed.
         props.put("auto.offset.reset", "smallest");
-        props.put("consumer.timeout.ms", Integer.toString(mConfig.getConsumerTimeoutMs()));
+        if (mBatching) {
+            // Batches end once no more messages arrive shortly.  hasNext() waits for the full
+            // consumer timeout.
+            props.put("consumer.timeout.ms",
+                      Integer.toString(mConfig.getConsumerBatchMaxWaitMs()));
+        } else {
+            props.put("consumer.timeout.ms", Integer.toString(mConfig.getConsumerTimeoutMs()));
+        }
         props.put("consumer.id", IdUtil.getConsumerId());
         if (mConfig.getRebalanceMaxRetries() != null &&
             !mConfig.getRebalanceMaxRetries().isEmpty()) {
@@ -136,7 +158,21 @@ public class MessageReader {
     }
 
     public boolean hasNext() {
-        return mIterator.hasNext();
+        if (!mBatching) {
+            return mIterator.hasNext();
+        }
+        final long timeoutMs = mConfig.getConsumerTimeoutMs();
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            try {
+                return mIterator.hasNext();
+            } catch (ConsumerTimeoutException e) {
+                // The iterator times out after the batch wait time.
+                if (timeoutMs >= 0 && System.currentTimeMillis() >= deadline) {
+                    throw e;
+                }
+            }
+        }
     }
 
     public Message read() {
@@ -145,11 +181,11 @@ public class MessageReader {
         MessageAndMetadata<byte[], byte[]> kafkaMessage = mIterator.next();
         Message message = new Message(kafkaMessage.topic(), kafkaMessage.partition(),
                                       kafkaMessage.offset(), kafkaMessage.message());
-        TopicPartition topicPartition = new TopicPartition(message.getTopic(),
-                                                           message.getKafkaPartition());
-        updateAccessTime(topicPartition);
+        int slot = mTopicPartitionRegistry.getSlot(message.getTopic(),
+                                                   message.getKafkaPartition());
+        updateAccessTime(slot);
         // Skip already committed messages.
-        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
+        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(slot);
         LOG.debug("read message" + message);
         exportStats();
         if (message.getOffset() < committedOffsetCount) {
@@ -159,4 +195,81 @@ public class MessageReader {
         }
         return message;
     }
+
+    /**
+     * Read a batch of messages.  The batch is filled with messages the consumer has already
+     * fetched until either secor.consumer.batch.max.messages or secor.consumer.batch.max.bytes is
+     * reached, or no message arrives within secor.consumer.batch.max.wait.ms.  Rate limiting, stale
+     * partition cleanup and stats export are amortized over the entire batch.
+     *
+     * @return List of messages in the order they were delivered by Kafka.  Messages whose offsets
+     *     precede the committed offset count are skipped.
+     */
+    public List<Message> readBatch() {
+        return readBatch(true);
+    }
+
+    /**
+     * Read a batch of messages.
+     *
+     * @param skipCommitted Whether to drop messages whose offsets precede the committed offset
+     *     count.  If false, the offset tracker is not accessed and the caller is responsible for
+     *     dropping committed messages.  This allows reading from a thread other than the one
+     *     updating the offset tracker.
+     * @return List of messages in the order they were delivered by Kafka.
+     */
+    public List<Message> readBatch(boolean skipCommitted) {
+        assert hasNext();
+        final int maxMessages = mConfig.getConsumerBatchMaxMessages();
+        final long maxBytes = mConfig.getConsumerBatchMaxBytes();
+        ArrayList<Message> result = new ArrayList<Message>();
+        final long now = System.currentTimeMillis() / 1000L;
+        String topic = null;
+        int partition = -1;
+        long committedOffsetCount = -1;
+        int numMessages = 0;
+        long numBytes = 0;
+        try {
+            // The first message has been waited for by hasNext().  The iterator waits for
+            // subsequent ones for the batch wait time only.
+            while (numMessages < maxMessages && numBytes < maxBytes && mIterator.hasNext()) {
+                MessageAndMetadata<byte[], byte[]> kafkaMessage = mIterator.next();
+                numMessages++;
+                Message message = new Message(kafkaMessage.topic(), kafkaMessage.partition(),
+                                              kafkaMessage.offset(), kafkaMessage.message());
+                if (message.getPayload() != null) {
+                    numBytes += message.getPayload().length;
+                }
+                // Consecutive messages usually come from the same fetched chunk so we reuse the
+                // topic partition slot and its committed offset count until the partition changes.
+                if (partition != message.getKafkaPartition() ||
+                    !message.getTopic().equals(topic)) {
+                    topic = message.getTopic();
+                    partition = message.getKafkaPartition();
+                    int slot = mTopicPartitionRegistry.getSlot(topic, partition);
+                    mLastAccessTime.set(slot, now);
+                    if (skipCommitted) {
+                        committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(slot);
+                    }
+                }
+                if (message.getOffset() < committedOffsetCount) {
+                    LOG.debug("skipping message message " + message + " because its offset " +
+                              "precedes committed offset count " + committedOffsetCount);
+                } else {
+                    result.add(message);
+                }
+            }
+        } catch (ConsumerTimeoutException e) {
+            // No more messages arrived in time.  Return what we have so far.
+            LOG.trace("Consumer timed out while reading a batch of " + numMessages + " messages",
+                      e);
+        }
+        if (numMessages > 0) {
+            RateLimitUtil.acquire(numMessages);
+            forgetStaleTopicPartitions(now);
+            exportStats();
+        }
+        LOG.debug("read batch of " + numMessages + " messages (" + numBytes + " bytes)");
+        return result;
+    }
 }
@@ -21,6 +21,8 @@ import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.SeekableFileReader;
 import com.pinterest.secor.util.CompressionUtil;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.ReflectionUtil;
@@ -61,7 +63,9 @@ public class LogFileVerifier {
         String topicPrefix = getTopicPrefix();
         String[] paths = FileUtil.listRecursively(topicPrefix);
         for (String path : paths) {
-            if (!path.endsWith("/_SUCCESS")) {
+            String basename = path.substring(path.lastIndexOf('/') + 1);
+            // Skip success markers and hidden files such as offset indexes.
+            if (!basename.equals("_SUCCESS") && !basename.startsWith(".")) {
                 LogFilePath logFilePath = new LogFilePath(prefix, path);
                 TopicPartition topicPartition = new TopicPartition(logFilePath.getTopic(),
                     logFilePath.getKafkaPartition());
@@ -107,6 +111,10 @@ public class LogFileVerifier {
     }
 
     private int getMessageCount(LogFilePath logFilePath) throws Exception {
+        OffsetIndex index = OffsetIndex.read(logFilePath);
+        if (index != null) {
+            return (int) index.getMessageCount();
+        }
         FileReader reader = createFileReader(logFilePath);
         int result = 0;
         while (reader.next() != null) {
@@ -155,16 +163,50 @@ public class LogFileVerifier {
         }
     }
 
+    private static void addOffset(LogFilePath logFilePath, long offset, Set<Long> offsets) {
+        if (!offsets.add(offset)) {
+            throw new RuntimeException("duplicate key " + offset + " found in file " +
+                logFilePath.getLogFilePath());
+        }
+    }
+
     private void getOffsets(LogFilePath logFilePath, Set<Long> offsets) throws Exception {
-        FileReader reader = createFileReader(logFilePath);
-        KeyValue record;
-        while ((record = reader.next()) != null) {
-            if (!offsets.add(record.getKey())) {
-                throw new RuntimeException("duplicate key " + record.getKey() + " found in file " +
-                    logFilePath.getLogFilePath());
+        OffsetIndex index = OffsetIndex.read(logFilePath);
+        FileReader reader = null;
+        try {
+            if (index == null) {
+                reader = createFileReader(logFilePath);
+                KeyValue record;
+                while ((record = reader.next()) != null) {
+                    addOffset(logFilePath, record.getKey(), offsets);
+                }
+                return;
+            }
+            // Offsets in contiguous blocks are taken from the index.  Other blocks are read.
+            for (OffsetIndex.Entry entry : index.getEntries()) {
+                if (entry.isContiguous()) {
+                    for (int i = 0; i < entry.getCount(); ++i) {
+                        addOffset(logFilePath, entry.getFirstOffset() + i, offsets);
+                    }
+                    continue;
+                }
+                if (reader == null) {
+                    reader = createFileReader(logFilePath);
+                }
+                if (!(reader instanceof SeekableFileReader)) {
+                    throw new RuntimeException("Cannot seek in indexed file " +
+                        logFilePath.getLogFilePath());
+                }
+                ((SeekableFileReader) reader).seek(entry);
+                for (int i = 0; i < entry.getCount(); ++i) {
+                    addOffset(logFilePath, reader.next().getKey(), offsets);
+                }
+            }
+        } finally {
+            if (reader != null) {
+                reader.close();
             }
         }
-        reader.close();
     }
 
     public void verifySequences(long fromOffset, long toOffset) throws Exception {
@@ -20,9 +20,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.net.HostAndPort;
 import com.pinterest.secor.common.KafkaClient;
+import com.pinterest.secor.common.OffsetStore;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
-import com.pinterest.secor.common.ZookeeperConnector;
 import com.pinterest.secor.message.Message;
 import com.pinterest.secor.parser.MessageParser;
 import com.pinterest.secor.parser.TimestampedMessageParser;
@@ -57,7 +57,7 @@ public class ProgressMonitor {
     private static final String PERIOD = ".";
 
     private SecorConfig mConfig;
-    private ZookeeperConnector mZookeeperConnector;
+    private OffsetStore mOffsetStore;
     private KafkaClient mKafkaClient;
     private MessageParser mMessageParser;
 
@@ -65,7 +65,7 @@ public class ProgressMonitor {
             throws Exception
     {
         mConfig = config;
-        mZookeeperConnector = new ZookeeperConnector(mConfig);
+        mOffsetStore = ReflectionUtil.createOffsetStore(mConfig.getOffsetStoreClass(), mConfig);
         mKafkaClient = new KafkaClient(mConfig);
         mMessageParser = (MessageParser) ReflectionUtil.createMessageParser(
                 mConfig.getMessageParserClass(), mConfig);
@@ -120,7 +120,12 @@ public class ProgressMonitor {
     }
 
     public void exportStats() throws Exception {
-        List<Stat> stats = getStats();
+        List<Stat> stats;
+        try {
+            stats = getStats();
+        } finally {
+            mKafkaClient.close();
+        }
         System.out.println(JSONArray.toJSONString(stats));
 
         // if there is a valid openTSDB port configured export to openTSDB
@@ -160,7 +165,7 @@ public class ProgressMonitor {
     }
 
     private List<Stat> getStats() throws Exception {
-        List<String> topics = mZookeeperConnector.getCommittedOffsetTopics();
+        List<String> topics = mOffsetStore.getCommittedOffsetTopics();
         List<Stat> stats = Lists.newArrayList();
 
         for (String topic : topics) {
@@ -169,10 +174,19 @@ public class ProgressMonitor {
                 LOG.info("skipping topic " + topic);
                 continue;
             }
-            List<Integer> partitions = mZookeeperConnector.getCommittedOffsetPartitions(topic);
+            List<Integer> partitions = mOffsetStore.getCommittedOffsetPartitions(topic);
+            List<TopicPartition> topicPartitions =
+                Lists.newArrayListWithCapacity(partitions.size());
             for (Integer partition : partitions) {
-                TopicPartition topicPartition = new TopicPartition(topic, partition);
-                Message committedMessage = mKafkaClient.getCommittedMessage(topicPartition);
+                topicPartitions.add(new TopicPartition(topic, partition));
+            }
+            Map<TopicPartition, Message> committedMessages =
+                mKafkaClient.getCommittedMessages(topicPartitions);
+            Map<TopicPartition, Message> lastMessages =
+                mKafkaClient.getLastMessages(topicPartitions);
+            for (TopicPartition topicPartition : topicPartitions) {
+                int partition = topicPartition.getPartition();
+                Message committedMessage = committedMessages.get(topicPartition);
                 long committedOffset = - 1;
                 long committedTimestampMillis = -1;
                 if (committedMessage == null) {
@@ -183,7 +197,7 @@ public class ProgressMonitor {
                     committedTimestampMillis = getTimestamp(committedMessage);
                 }
 
-                Message lastMessage = mKafkaClient.getLastMessage(topicPartition);
+                Message lastMessage = lastMessages.get(topicPartition);
                 if (lastMessage == null) {
                     LOG.warn("no message found in topic " + topic + " partition " + partition);
                 } else {
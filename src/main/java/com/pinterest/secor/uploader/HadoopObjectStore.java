@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.util.FileUtil;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hadoop object store spools parts to a staging file on the local disk and moves the file to the
+ * destination Hadoop file system when the upload is completed.  Parts uploaded out of order are
+ * held in memory until the preceding parts arrive.  Aborted uploads never touch the destination,
+ * which may hold an object committed by another consumer under the same name.
+ *
+ * This store exercises the streaming upload path against any Hadoop file system and is meant for
+ * testing.  It does not upload parts as they arrive so streaming to it writes every byte to the
+ * local disk twice and still sends the whole object after the file is rotated.
+ */
+public class HadoopObjectStore implements ObjectStore {
+    private final File mStagingDir;
+    private final ConcurrentHashMap<String, Upload> mUploads;
+
+    public HadoopObjectStore(SecorConfig config) {
+        this(config, new File(config.getLocalPath(), ".multipart"));
+    }
+
+    // For testing use only.
+    public HadoopObjectStore(SecorConfig config, File stagingDir) {
+        FileUtil.configure(config);
+        mStagingDir = stagingDir;
+        mUploads = new ConcurrentHashMap<String, Upload>();
+    }
+
+    private Upload getUpload(String path, String uploadId) throws IOException {
+        Upload upload = mUploads.get(uploadId);
+        if (upload == null) {
+            throw new IOException("Unknown upload " + uploadId + " of " + path);
+        }
+        return upload;
+    }
+
+    @Override
+    public String startMultipartUpload(String path) throws IOException {
+        if (!mStagingDir.isDirectory() && !mStagingDir.mkdirs()) {
+            throw new IOException("Failed to create staging directory " + mStagingDir);
+        }
+        String uploadId = UUID.randomUUID().toString();
+        mUploads.put(uploadId, new Upload(new File(mStagingDir, uploadId)));
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(String path, String uploadId, int partNumber, byte[] data,
+                             int length) throws IOException {
+        getUpload(path, uploadId).write(partNumber, data, length);
+        return Integer.toString(partNumber);
+    }
+
+    @Override
+    public void completeMultipartUpload(String path, String uploadId, List<String> partTags)
+            throws IOException {
+        Upload upload = getUpload(path, uploadId);
+        upload.close(partTags.size());
+        mUploads.remove(uploadId);
+        File file = upload.getFile();
+        try {
+            // Moving deletes the staging file.
+            FileUtil.getFileSystem(path).moveFromLocalFile(new Path(file.getAbsolutePath()),
+                                                           new Path(path));
+        } finally {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete staging file " + file);
+            }
+        }
+    }
+
+    @Override
+    public void abortMultipartUpload(String path, String uploadId) throws IOException {
+        Upload upload = mUploads.remove(uploadId);
+        if (upload != null) {
+            upload.abort();
+        }
+    }
+
+    private static class Upload {
+        private final File mFile;
+        private final OutputStream mOutputStream;
+        private final TreeMap<Integer, byte[]> mPendingParts;
+        private int mNextPartNumber;
+        private boolean mClosed;
+
+        public Upload(File file) throws IOException {
+            mFile = file;
+            mOutputStream = new FileOutputStream(file);
+            mPendingParts = new TreeMap<Integer, byte[]>();
+            mNextPartNumber = 1;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public synchronized void write(int partNumber, byte[] data, int length)
+                throws IOException {
+            if (mClosed || partNumber < mNextPartNumber || mPendingParts.containsKey(partNumber)) {
+                throw new IOException("Unexpected part " + partNumber);
+            }
+            if (partNumber > mNextPartNumber) {
+                byte[] part = new byte[length];
+                System.arraycopy(data, 0, part, 0, length);
+                mPendingParts.put(partNumber, part);
+                return;
+            }
+            mOutputStream.write(data, 0, length);
+            mNextPartNumber++;
+            while (!mPendingParts.isEmpty() && mPendingParts.firstKey() == mNextPartNumber) {
+                mOutputStream.write(mPendingParts.remove(mNextPartNumber));
+                mNextPartNumber++;
+            }
+        }
+
+        public synchronized void close(int numParts) throws IOException {
+            if (mNextPartNumber != numParts + 1 || !mPendingParts.isEmpty()) {
+                throw new IOException("Missing parts, expected " + numParts + " parts, got " +
+                                      (mNextPartNumber - 1));
+            }
+            mClosed = true;
+            mOutputStream.close();
+        }
+
+        public synchronized void abort() throws IOException {
+            mClosed = true;
+            mPendingParts.clear();
+            try {
+                mOutputStream.close();
+            } finally {
+                if (mFile.exists() && !mFile.delete()) {
+                    throw new IOException("Failed to delete staging file " + mFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.SecorConfig;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Local object store keeps objects in a local directory.  It stands in for a remote object store
+ * in tests and local setups.  Object paths are mapped to files under the root directory, e.g.,
+ * s3n://bucket/dir/file is stored at root/bucket/dir/file.  Parts of pending uploads are kept in
+ * root/.multipart/upload_id.
+ *
+ * See the secor.upload.local.object.store.path config option.
+ */
+public class LocalObjectStore implements ObjectStore {
+    private final File mRoot;
+
+    public LocalObjectStore(SecorConfig config) {
+        this(new File(config.getUploadLocalObjectStorePath()));
+    }
+
+    public LocalObjectStore(File root) {
+        mRoot = root;
+    }
+
+    public File getFile(String path) {
+        URI uri = URI.create(path);
+        String host = uri.getHost() == null ? "" : uri.getHost();
+        return new File(new File(mRoot, host), uri.getPath());
+    }
+
+    private File getUploadDir(String uploadId) {
+        return new File(new File(mRoot, ".multipart"), uploadId);
+    }
+
+    @Override
+    public String startMultipartUpload(String path) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        File uploadDir = getUploadDir(uploadId);
+        if (!uploadDir.mkdirs()) {
+            throw new IOException("Failed to create " + uploadDir);
+        }
+        return uploadId;
+    }
+
+    @Override
+    public String uploadPart(String path, String uploadId, int partNumber, byte[] data,
+                             int length) throws IOException {
+        File uploadDir = getUploadDir(uploadId);
+        if (!uploadDir.isDirectory()) {
+            throw new IOException("Unknown upload " + uploadId + " of " + path);
+        }
+        String tag = Integer.toString(partNumber);
+        OutputStream outputStream = new FileOutputStream(new File(uploadDir, tag));
+        try {
+            outputStream.write(data, 0, length);
+        } finally {
+            outputStream.close();
+        }
+        return tag;
+    }
+
+    @Override
+    public void completeMultipartUpload(String path, String uploadId, List<String> partTags)
+            throws IOException {
+        File uploadDir = getUploadDir(uploadId);
+        File file = getFile(path);
+        Files.createParentDirs(file);
+        // Assemble the object next to its final location so that it appears atomically.
+        File tmpFile = new File(file.getParentFile(), "." + file.getName() + "." + uploadId);
+        OutputStream outputStream = new FileOutputStream(tmpFile);
+        try {
+            for (String partTag : partTags) {
+                Files.copy(new File(uploadDir, partTag), outputStream);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tmpFile + " to " + file);
+        }
+        deleteUploadDir(uploadDir);
+    }
+
+    @Override
+    public void abortMultipartUpload(String path, String uploadId) throws IOException {
+        deleteUploadDir(getUploadDir(uploadId));
+    }
+
+    private static void deleteUploadDir(File uploadDir) throws IOException {
+        File[] parts = uploadDir.listFiles();
+        if (parts != null) {
+            for (File part : parts) {
+                if (!part.delete()) {
+                    throw new IOException("Failed to delete " + part);
+                }
+            }
+        }
+        if (uploadDir.exists() && !uploadDir.delete()) {
+            throw new IOException("Failed to delete " + uploadDir);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multipart upload streams a local file to an object store while the file is being written.  Data
+ * that reached the local file is uploaded in parts of a fixed size.  Completing the upload sends
+ * the remainder of the file as the last part.  The file must not be modified once the upload is
+ * being completed.
+ *
+ * Parts are uploaded in the background by the upload scheduler so they count against the same
+ * thread, bandwidth, and bytes in flight limits as regular uploads.  Parts are scheduled with the
+ * creation time of the upload.  The writer blocks if too many parts are pending.
+ */
+public class MultipartUpload {
+    private static final int MAX_PENDING_PARTS = 4;
+
+    private final ObjectStore mStore;
+    private final UploadScheduler mScheduler;
+    private final String mTopic;
+    private final long mCreationTimeSec;
+    private final File mFile;
+    private final String mPath;
+    private final int mPartSize;
+    private final String mUploadId;
+    private final List<Part> mParts;
+    // Number of leading parts known to be done.
+    private int mDoneParts;
+    private long mUploadedBytes;
+
+    public MultipartUpload(ObjectStore store, UploadScheduler scheduler, String topic,
+                           String localPath, String path, int partSize) throws IOException {
+        mStore = store;
+        mScheduler = scheduler;
+        mTopic = topic;
+        mCreationTimeSec = System.currentTimeMillis() / 1000L;
+        mFile = new File(localPath);
+        mPath = path;
+        mPartSize = partSize;
+        mUploadId = store.startMultipartUpload(path);
+        mParts = new ArrayList<Part>();
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * @return Creation time of the upload.  Tasks depending on the parts of the upload should be
+     *     scheduled with this time so they run after the parts.
+     */
+    public long getCreationTimeSec() {
+        return mCreationTimeSec;
+    }
+
+    /**
+     * @return Number of bytes handed over for upload so far.
+     */
+    public long getUploadedBytes() {
+        return mUploadedBytes;
+    }
+
+    /**
+     * @return Number of parts handed over for upload so far.
+     */
+    public int getNumParts() {
+        return mParts.size();
+    }
+
+    /**
+     * Upload full parts of the data that reached the local file.
+     * @param length Length of the file as seen by its writer.  Data buffered by the writer is not
+     *     in the file yet.
+     * @throws IOException
+     */
+    public void uploadParts(long length) throws IOException {
+        if (length - mUploadedBytes >= mPartSize && mFile.length() - mUploadedBytes >= mPartSize) {
+            uploadParts(false);
+        }
+    }
+
+    /**
+     * Upload the remainder of the local file.  Should be called by the writer before the upload is
+     * completed so that completing does not have to schedule parts.
+     * @throws IOException
+     */
+    public void uploadLastPart() throws IOException {
+        uploadParts(true);
+    }
+
+    private void uploadParts(boolean last) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            long length = file.length();
+            // An object has at least one part, even if it is empty.
+            while (length - mUploadedBytes >= mPartSize ||
+                   (last && (length > mUploadedBytes || mParts.isEmpty()))) {
+                byte[] part = new byte[(int) Math.min(mPartSize, length - mUploadedBytes)];
+                file.seek(mUploadedBytes);
+                file.readFully(part);
+                uploadPart(part);
+                mUploadedBytes += part.length;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void uploadPart(byte[] data) throws IOException {
+        while (mParts.size() - mDoneParts >= MAX_PENDING_PARTS) {
+            mParts.get(mDoneParts++).waitFor();
+        }
+        Part part = new Part(mParts.size() + 1, data);
+        try {
+            part.setFuture(mScheduler.submit(mTopic, data.length, mCreationTimeSec, part));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scheduling a part upload", e);
+        }
+        mParts.add(part);
+    }
+
+    /**
+     * Upload the remainder of the local file and complete the upload.
+     * @throws IOException
+     */
+    public void complete() throws IOException {
+        List<String> partTags = new ArrayList<String>(mParts.size());
+        try {
+            uploadParts(true);
+            for (Part part : mParts) {
+                partTags.add(part.waitFor());
+            }
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        mStore.completeMultipartUpload(mPath, mUploadId, partTags);
+    }
+
+    /**
+     * Abort the upload discarding the uploaded parts.
+     * @throws IOException
+     */
+    public void abort() throws IOException {
+        for (Part part : mParts) {
+            part.cancel();
+        }
+        // Parts being uploaded could outlive the upload otherwise.  Cancelling a future does not
+        // wait for its task to finish so parts track their completion themselves.
+        for (Part part : mParts) {
+            try {
+                part.awaitStopped();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a part upload", e);
+            }
+        }
+        mStore.abortMultipartUpload(mPath, mUploadId);
+    }
+
+    private class Part implements Runnable {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int CANCELLED = 2;
+
+        private final int mPartNumber;
+        private final byte[] mData;
+        private final AtomicInteger mState;
+        // Released once the part has finished running or has been cancelled before it started.
+        private final CountDownLatch mStopped;
+        private Future<?> mFuture;
+        private volatile String mTag;
+
+        public Part(int partNumber, byte[] data) {
+            mPartNumber = partNumber;
+            mData = data;
+            mState = new AtomicInteger(NEW);
+            mStopped = new CountDownLatch(1);
+        }
+
+        public void setFuture(Future<?> future) {
+            mFuture = future;
+        }
+
+        public void cancel() {
+            if (mState.compareAndSet(NEW, CANCELLED)) {
+                mStopped.countDown();
+            }
+            mFuture.cancel(false);
+        }
+
+        public void awaitStopped() throws InterruptedException {
+            mStopped.await();
+        }
+
+        @Override
+        public void run() {
+            if (!mState.compareAndSet(NEW, RUNNING)) {
+                return;
+            }
+            try {
+                mTag = mStore.uploadPart(mPath, mUploadId, mPartNumber, mData, mData.length);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                mStopped.countDown();
+            }
+        }
+
+        public String waitFor() throws IOException {
+            try {
+                mFuture.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a part upload", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to upload part", e.getCause());
+            }
+            return mTag;
+        }
+    }
+}
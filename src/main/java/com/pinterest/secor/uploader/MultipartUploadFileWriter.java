@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.RawFileWriter;
+
+import java.io.IOException;
+
+/**
+ * Multipart upload file writer streams the file written by another writer to an object store.
+ * Closing the writer does not complete the upload.  It is completed when the file gets uploaded
+ * and aborted when the file gets deleted.
+ */
+public class MultipartUploadFileWriter implements RawFileWriter {
+    private final FileWriter mWriter;
+    private final MultipartUpload mUpload;
+
+    public MultipartUploadFileWriter(FileWriter writer, MultipartUpload upload) {
+        mWriter = writer;
+        mUpload = upload;
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return mWriter.getLength();
+    }
+
+    @Override
+    public void write(KeyValue keyValue) throws IOException {
+        mWriter.write(keyValue);
+        mUpload.uploadParts(mWriter.getLength());
+    }
+
+    @Override
+    public long appendRaw(LogFilePath srcPath, long startOffset) throws IOException {
+        if (!(mWriter instanceof RawFileWriter)) {
+            return -1;
+        }
+        long result = ((RawFileWriter) mWriter).appendRaw(srcPath, startOffset);
+        mUpload.uploadParts(mWriter.getLength());
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Object store accepts objects uploaded in parts.  Parts of a given upload may be uploaded
+ * concurrently and in any order.  The object becomes visible once the upload is completed.
+ *
+ * Implementations must have a constructor accepting a SecorConfig.
+ *
+ * See the secor.upload.object.store.class config option.
+ */
+public interface ObjectStore {
+    /**
+     * Start a multipart upload.
+     * @param path Destination path of the object.
+     * @return Id of the upload.
+     * @throws IOException
+     */
+    public String startMultipartUpload(String path) throws IOException;
+
+    /**
+     * Upload a part of an object.
+     * @param path Destination path of the object.
+     * @param uploadId Id of the upload.
+     * @param partNumber Number of the part, starting at 1.
+     * @param data Buffer holding the part.
+     * @param length Length of the part.
+     * @return Tag identifying the uploaded part.
+     * @throws IOException
+     */
+    public String uploadPart(String path, String uploadId, int partNumber, byte[] data, int length)
+        throws IOException;
+
+    /**
+     * Complete a multipart upload making the object visible.
+     * @param path Destination path of the object.
+     * @param uploadId Id of the upload.
+     * @param partTags Tags of all parts of the object, ordered by part number.
+     * @throws IOException
+     */
+    public void completeMultipartUpload(String path, String uploadId, List<String> partTags)
+        throws IOException;
+
+    /**
+     * Abort a multipart upload discarding the uploaded parts.
+     * @param path Destination path of the object.
+     * @param uploadId Id of the upload.
+     * @throws IOException
+     */
+    public void abortMultipartUpload(String path, String uploadId) throws IOException;
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.util.StatsUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Priority upload scheduler runs uploads on a fixed number of threads.  Among pending uploads,
+ * those in topics with the fewest uploads in progress go first so that a burst of uploads in one
+ * topic does not starve other topics.  Within a topic, files created earlier go first.
+ *
+ * The aggregate upload bandwidth may be capped.  Uploads are charged for their size before they
+ * start.  Submitting uploads blocks when the queue of pending uploads is full.
+ *
+ * Queue depth, bytes in flight, and queue and upload latencies are exported to Ostrich.
+ */
+public class PriorityUploadScheduler implements UploadScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(PriorityUploadScheduler.class);
+
+    private final int mQueueCapacity;
+    // Null if the bandwidth is not capped.
+    private final RateLimiter mRateLimiter;
+    // Pending uploads by topic.
+    private final HashMap<String, PriorityQueue<Task>> mQueues;
+    // Number of uploads in progress by topic.
+    private final HashMap<String, Integer> mRunning;
+    private int mQueued;
+    private long mBytesInFlight;
+    private long mSequence;
+
+    public PriorityUploadScheduler(SecorConfig config) {
+        this(config.getUploadThreads(), config.getUploadQueueCapacity(),
+             config.getUploadMaxBytesPerSecond());
+    }
+
+    public PriorityUploadScheduler(int numThreads, int queueCapacity, long maxBytesPerSecond) {
+        mQueueCapacity = queueCapacity;
+        mRateLimiter = maxBytesPerSecond > 0 ? RateLimiter.create(maxBytesPerSecond) : null;
+        mQueues = new HashMap<String, PriorityQueue<Task>>();
+        mRunning = new HashMap<String, Integer>();
+        for (int i = 0; i < numThreads; ++i) {
+            Thread thread = new Thread(new Worker(), "secor-uploader-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public synchronized Future<?> submit(String topic, long sizeBytes, long creationTimeSec,
+                                         Runnable upload) throws InterruptedException {
+        while (mQueued >= mQueueCapacity) {
+            wait();
+        }
+        FutureTask<Void> future = new FutureTask<Void>(upload, null);
+        PriorityQueue<Task> queue = mQueues.get(topic);
+        if (queue == null) {
+            queue = new PriorityQueue<Task>();
+            mQueues.put(topic, queue);
+        }
+        queue.add(new Task(topic, sizeBytes, creationTimeSec, mSequence++, future));
+        mQueued++;
+        StatsUtil.setProcessGauge("secor.upload.queue_depth", mQueued);
+        notifyAll();
+        return future;
+    }
+
+    private int getRunning(String topic) {
+        Integer running = mRunning.get(topic);
+        return running == null ? 0 : running;
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (mQueued == 0) {
+            wait();
+        }
+        Task result = null;
+        int resultRunning = 0;
+        for (Map.Entry<String, PriorityQueue<Task>> entry : mQueues.entrySet()) {
+            Task task = entry.getValue().peek();
+            int running = getRunning(entry.getKey());
+            if (result == null || running < resultRunning ||
+                (running == resultRunning && task.compareTo(result) < 0)) {
+                result = task;
+                resultRunning = running;
+            }
+        }
+        PriorityQueue<Task> queue = mQueues.get(result.getTopic());
+        queue.poll();
+        if (queue.isEmpty()) {
+            mQueues.remove(result.getTopic());
+        }
+        mQueued--;
+        mRunning.put(result.getTopic(), resultRunning + 1);
+        StatsUtil.setProcessGauge("secor.upload.queue_depth", mQueued);
+        notifyAll();
+        return result;
+    }
+
+    private synchronized void start(Task task) {
+        mBytesInFlight += task.getSizeBytes();
+        StatsUtil.setProcessGauge("secor.upload.bytes_in_flight", mBytesInFlight);
+    }
+
+    private synchronized void finish(Task task) {
+        mBytesInFlight -= task.getSizeBytes();
+        StatsUtil.setProcessGauge("secor.upload.bytes_in_flight", mBytesInFlight);
+        int running = getRunning(task.getTopic()) - 1;
+        if (running == 0) {
+            mRunning.remove(task.getTopic());
+        } else {
+            mRunning.put(task.getTopic(), running);
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = take();
+                } catch (InterruptedException e) {
+                    LOG.warn("Upload worker interrupted", e);
+                    return;
+                }
+                long startNanos = System.nanoTime();
+                StatsUtil.addProcessMetric("secor.upload.queue_latency_ms",
+                    (int) TimeUnit.NANOSECONDS.toMillis(startNanos - task.getSubmitNanos()));
+                try {
+                    if (mRateLimiter != null && task.getSizeBytes() > 0) {
+                        mRateLimiter.acquire((int) Math.min(task.getSizeBytes(),
+                                                            Integer.MAX_VALUE));
+                    }
+                    start(task);
+                    task.getFuture().run();
+                } finally {
+                    finish(task);
+                }
+                StatsUtil.addProcessMetric("secor.upload.latency_ms",
+                    (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        }
+    }
+
+    private static class Task implements Comparable<Task> {
+        private final String mTopic;
+        private final long mSizeBytes;
+        private final long mCreationTimeSec;
+        private final long mSequence;
+        private final long mSubmitNanos;
+        private final FutureTask<Void> mFuture;
+
+        public Task(String topic, long sizeBytes, long creationTimeSec, long sequence,
+                    FutureTask<Void> future) {
+            mTopic = topic;
+            mSizeBytes = sizeBytes;
+            mCreationTimeSec = creationTimeSec;
+            mSequence = sequence;
+            mSubmitNanos = System.nanoTime();
+            mFuture = future;
+        }
+
+        public String getTopic() {
+            return mTopic;
+        }
+
+        public long getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public long getSubmitNanos() {
+            return mSubmitNanos;
+        }
+
+        public FutureTask<Void> getFuture() {
+            return mFuture;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mCreationTimeSec != other.mCreationTimeSec) {
+                return mCreationTimeSec < other.mCreationTimeSec ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.FileWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Streaming uploader keeps track of multipart uploads of local log files being written.  Files
+ * are uploaded to the same location as by the regular upload path.  Parts are uploaded by the
+ * upload scheduler shared with the regular upload path.
+ *
+ * The uploader is not thread-safe.
+ */
+public class StreamingUploader {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingUploader.class);
+
+    private final SecorConfig mConfig;
+    private final ObjectStore mStore;
+    private final UploadScheduler mScheduler;
+    private final HashMap<LogFilePath, MultipartUpload> mUploads;
+
+    public StreamingUploader(SecorConfig config, ObjectStore store, UploadScheduler scheduler) {
+        mConfig = config;
+        mStore = store;
+        mScheduler = scheduler;
+        mUploads = new HashMap<LogFilePath, MultipartUpload>();
+    }
+
+    /**
+     * Start uploading a local file.
+     * @param localPath The path of the file.
+     * @param writer Writer of the file.
+     * @return Writer streaming the file to the object store.
+     * @throws IOException
+     */
+    public FileWriter createWriter(LogFilePath localPath, FileWriter writer) throws IOException {
+        abort(localPath);
+        String path = Uploader.getS3Path(mConfig, localPath).getLogFilePath();
+        MultipartUpload upload = new MultipartUpload(mStore, mScheduler, localPath.getTopic(),
+            localPath.getLogFilePath(), path, mConfig.getUploadMultipartPartSizeBytes());
+        mUploads.put(localPath, upload);
+        LOG.debug("started multipart upload of file " + localPath.getLogFilePath() + " to " + path);
+        return new MultipartUploadFileWriter(writer, upload);
+    }
+
+    /**
+     * Stop tracking the upload of a local file.
+     * @param localPath The path of the file.
+     * @return The upload of the file or null if the file is not being uploaded.
+     */
+    public MultipartUpload remove(LogFilePath localPath) {
+        return mUploads.remove(localPath);
+    }
+
+    /**
+     * Abort the upload of a local file.
+     * @param localPath The path of the file.
+     * @throws IOException
+     */
+    public void abort(LogFilePath localPath) throws IOException {
+        MultipartUpload upload = mUploads.remove(localPath);
+        if (upload != null) {
+            LOG.info("aborting multipart upload of file " + localPath.getLogFilePath());
+            upload.abort();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import java.util.concurrent.Future;
+
+/**
+ * Upload scheduler runs uploads of local log files.  A single scheduler is shared by all
+ * consumer threads of a process.
+ *
+ * Implementations must be thread-safe and have a constructor accepting a SecorConfig.
+ *
+ * See the secor.upload.scheduler.class config option.
+ */
+public interface UploadScheduler {
+    /**
+     * Schedule an upload.  May block if too many uploads are pending.
+     * @param topic Topic of the uploaded file.
+     * @param sizeBytes Number of bytes to upload.
+     * @param creationTimeSec Creation time of the uploaded file.
+     * @param upload The upload to run.
+     * @return Future of the upload.
+     * @throws InterruptedException
+     */
+    public Future<?> submit(String topic, long sizeBytes, long creationTimeSec, Runnable upload)
+        throws InterruptedException;
+}
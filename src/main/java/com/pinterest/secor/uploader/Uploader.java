@@ -20,66 +20,191 @@ import com.pinterest.secor.common.*;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
 import com.pinterest.secor.util.CompressionUtil;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.IdUtil;
 import com.pinterest.secor.util.ReflectionUtil;
+import com.pinterest.secor.util.StatsUtil;
 
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Uploader applies a set of policies to determine if any of the locally stored files should be
- * uploaded to s3.
+ * uploaded to s3.  Topic partitions due for upload in the same policy check are uploaded together
+ * and their offsets are committed in a single batch.
+ *
+ * With asynchronous uploads enabled, files due for upload are sealed, i.e., removed from the file
+ * registry, and uploaded in the background.  The Zookeeper lock of a topic partition is held from
+ * sealing its first file batch until the last pending batch is committed.  Leases are renewed on
+ * every policy check while batches are pending.  Batches are committed in the order they were
+ * sealed.  Topic partitions whose offsets are not stored in Zookeeper are locked within the
+ * process only.
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class Uploader {
     private static final Logger LOG = LoggerFactory.getLogger(Uploader.class);
 
-    private static final ExecutorService executor = Executors.newFixedThreadPool(256);
+    // Shared by all consumer threads.
+    private static UploadScheduler mScheduler = null;
+    // Locks of topic partitions whose offsets are not stored in Zookeeper.  Shared by all consumer
+    // threads.
+    private static final ConcurrentHashMap<TopicPartition, ReentrantLock> mLocalLocks =
+        new ConcurrentHashMap<TopicPartition, ReentrantLock>();
 
     private SecorConfig mConfig;
     private OffsetTracker mOffsetTracker;
     private FileRegistry mFileRegistry;
+    private OffsetStore mOffsetStore;
+    // Null unless offsets are stored in Zookeeper.
     private ZookeeperConnector mZookeeperConnector;
+    private StreamingUploader mStreamingUploader;
+    // Batches of sealed files pending upload or commit, in the order they were sealed.
+    private LinkedHashMap<TopicPartition, LinkedList<SealedBatch>> mSealedBatches;
+    private long mSealedBytes;
 
-    public Uploader(SecorConfig config, OffsetTracker offsetTracker, FileRegistry fileRegistry) {
-        this(config, offsetTracker, fileRegistry, new ZookeeperConnector(config));
+    public Uploader(SecorConfig config, OffsetTracker offsetTracker, FileRegistry fileRegistry)
+            throws Exception {
+        this(config, offsetTracker, fileRegistry,
+             ReflectionUtil.createOffsetStore(config.getOffsetStoreClass(), config));
     }
 
     // For testing use only.
     public Uploader(SecorConfig config, OffsetTracker offsetTracker, FileRegistry fileRegistry,
-                    ZookeeperConnector zookeeperConnector) {
+                    OffsetStore offsetStore) throws Exception {
         mConfig = config;
         mOffsetTracker = offsetTracker;
         mFileRegistry = fileRegistry;
-        mZookeeperConnector = zookeeperConnector;
+        mOffsetStore = offsetStore;
+        if (offsetStore instanceof ZookeeperConnector) {
+            mZookeeperConnector = (ZookeeperConnector) offsetStore;
+        }
+        mSealedBatches = new LinkedHashMap<TopicPartition, LinkedList<SealedBatch>>();
+        createScheduler(mConfig);
+        String objectStoreClass = mConfig.getUploadObjectStoreClass();
+        if (objectStoreClass != null && !objectStoreClass.isEmpty()) {
+            mStreamingUploader = new StreamingUploader(mConfig,
+                ReflectionUtil.createObjectStore(objectStoreClass, mConfig), mScheduler);
+            mFileRegistry.setStreamingUploader(mStreamingUploader);
+        }
+    }
+
+    private static synchronized void createScheduler(SecorConfig config) throws Exception {
+        if (mScheduler == null) {
+            mScheduler = ReflectionUtil.createUploadScheduler(config.getUploadSchedulerClass(),
+                                                              config);
+        }
+    }
+
+    static LogFilePath getS3Path(SecorConfig config, LogFilePath localPath) {
+        String s3Prefix = "s3n://" + config.getS3Bucket() + "/" + config.getS3Path();
+        return new LogFilePath(s3Prefix, localPath.getTopic(), localPath.getPartitions(),
+                               localPath.getGeneration(), localPath.getKafkaPartition(),
+                               localPath.getOffset(), localPath.getExtension());
+    }
+
+    private static String getLockPath(TopicPartition topicPartition) {
+        return "/secor/locks/" + topicPartition.getTopic() + "/" + topicPartition.getPartition();
+    }
+
+    private static ReentrantLock getLocalLock(TopicPartition topicPartition) {
+        ReentrantLock lock = mLocalLocks.get(topicPartition);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = mLocalLocks.putIfAbsent(topicPartition, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    // @return whether the topic partition has been locked
+    private boolean lock(TopicPartition topicPartition) throws Exception {
+        if (mZookeeperConnector == null) {
+            // Other offset stores are local to the process.  Like leases, locks held by other
+            // consumer threads are not waited for.
+            return getLocalLock(topicPartition).tryLock();
+        }
+        if (mConfig.getUploadLeaseSeconds() > 0) {
+            return mZookeeperConnector.acquireLease(topicPartition,
+                                                    mConfig.getUploadLeaseSeconds() * 1000L);
+        }
+        mZookeeperConnector.lock(getLockPath(topicPartition));
+        return true;
+    }
+
+    private void unlock(TopicPartition topicPartition) throws Exception {
+        if (mZookeeperConnector == null) {
+            getLocalLock(topicPartition).unlock();
+            return;
+        }
+        // Leases are kept across uploads.
+        if (mConfig.getUploadLeaseSeconds() <= 0) {
+            mZookeeperConnector.unlock(getLockPath(topicPartition));
+        }
     }
 
-    private Future<?> upload(LogFilePath localPath) throws Exception {
-        String s3Prefix = "s3n://" + mConfig.getS3Bucket() + "/" + mConfig.getS3Path();
-        LogFilePath s3Path = new LogFilePath(s3Prefix, localPath.getTopic(),
-                                             localPath.getPartitions(),
-                                             localPath.getGeneration(),
-                                             localPath.getKafkaPartition(),
-                                             localPath.getOffset(),
-                                             localPath.getExtension());
+    // The offset index, if any, is uploaded after the log file so that the log file verifier can
+    // count messages without downloading the log file.
+    private static void uploadIndex(LogFilePath localPath, LogFilePath s3Path)
+            throws IOException {
+        if (FileUtil.exists(localPath.getLogFileIndexPath())) {
+            FileUtil.moveToS3(localPath.getLogFileIndexPath(), s3Path.getLogFileIndexPath());
+        }
+    }
+
+    private Future<?> upload(final LogFilePath localPath, long creationTimeSec) throws Exception {
+        final LogFilePath s3Path = getS3Path(mConfig, localPath);
         final String localLogFilename = localPath.getLogFilePath();
         final String s3LogFilename = s3Path.getLogFilePath();
+        long size = new File(localLogFilename).length();
+        final MultipartUpload multipartUpload =
+            mStreamingUploader == null ? null : mStreamingUploader.remove(localPath);
+        if (multipartUpload != null) {
+            // Most of the file has been uploaded while it was being written.
+            LOG.info("completing upload of file " + localLogFilename + " to " + s3LogFilename);
+            // The last part is scheduled from this thread and charged for its size.  Completing
+            // the upload waits for the parts so it is scheduled with the creation time of the
+            // upload to make sure it runs after them.
+            try {
+                multipartUpload.uploadLastPart();
+            } catch (IOException e) {
+                multipartUpload.abort();
+                throw e;
+            }
+            return mScheduler.submit(localPath.getTopic(), 0,
+                                     multipartUpload.getCreationTimeSec(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        multipartUpload.complete();
+                        uploadIndex(localPath, s3Path);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
         LOG.info("uploading file " + localLogFilename + " to " + s3LogFilename);
-        return executor.submit(new Runnable() {
+        return mScheduler.submit(localPath.getTopic(), size, creationTimeSec, new Runnable() {
             @Override
             public void run() {
                 try {
                     FileUtil.moveToS3(localLogFilename, s3LogFilename);
+                    uploadIndex(localPath, s3Path);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -87,36 +212,230 @@ public class Uploader {
         });
     }
 
-    private void uploadFiles(TopicPartition topicPartition) throws Exception {
+    /**
+     * Upload files in a group of topic partitions and commit their offsets in a single batch.
+     * Locks are acquired in lock path order so processes uploading overlapping groups cannot
+     * deadlock.  Topic partitions whose leases are held by others are skipped.
+     * @param topicPartitions The topic partitions to upload files in.
+     * @throws Exception
+     */
+    private void uploadFiles(List<TopicPartition> topicPartitions) throws Exception {
+        TreeMap<String, TopicPartition> lockPaths = new TreeMap<String, TopicPartition>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            lockPaths.put(getLockPath(topicPartition), topicPartition);
+        }
+        HashMap<TopicPartition, Long> offsetCounts = new HashMap<TopicPartition, Long>();
+        List<TopicPartition> lockedTopicPartitions = new ArrayList<TopicPartition>();
+        try {
+            List<Future<?>> uploadFutures = new ArrayList<Future<?>>();
+            for (TopicPartition topicPartition : lockPaths.values()) {
+                long committedOffsetCount =
+                    mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
+                long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
+                long creationTimeSec = mFileRegistry.getCreationTimeSec(topicPartition);
+                if (!lock(topicPartition)) {
+                    // The lease is held by someone else.  Writers are left open so that the files
+                    // keep growing until they can be uploaded on a later policy check.
+                    continue;
+                }
+                lockedTopicPartitions.add(topicPartition);
+                // Deleting writers closes their streams flushing all pending data to the disk.
+                mFileRegistry.deleteWriters(topicPartition);
+                // Check if the committed offset has changed.
+                long zookeeperComittedOffsetCount = mOffsetStore.getCommittedOffsetCount(
+                        topicPartition);
+                if (zookeeperComittedOffsetCount == committedOffsetCount) {
+                    LOG.info("uploading topic " + topicPartition.getTopic() + " partition " +
+                             topicPartition.getPartition());
+                    Collection<LogFilePath> paths = mFileRegistry.getPaths(topicPartition);
+                    for (LogFilePath path : paths) {
+                        uploadFutures.add(upload(path, creationTimeSec));
+                    }
+                    offsetCounts.put(topicPartition, lastSeenOffset + 1);
+                }
+            }
+            for (Future<?> uploadFuture : uploadFutures) {
+                uploadFuture.get();
+            }
+            if (!offsetCounts.isEmpty()) {
+                for (TopicPartition topicPartition : offsetCounts.keySet()) {
+                    mFileRegistry.deleteTopicPartition(topicPartition);
+                }
+                mOffsetStore.setCommittedOffsetCounts(offsetCounts);
+                for (Map.Entry<TopicPartition, Long> entry : offsetCounts.entrySet()) {
+                    mOffsetTracker.setCommittedOffsetCount(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            for (TopicPartition topicPartition : lockedTopicPartitions) {
+                unlock(topicPartition);
+            }
+        }
+    }
+
+    private void sealFiles(TopicPartition topicPartition) throws Exception {
         long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
         long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
-        final String lockPath = "/secor/locks/" + topicPartition.getTopic() + "/" +
-                                topicPartition.getPartition();
-        // Deleting writers closes their streams flushing all pending data to the disk.
-        mFileRegistry.deleteWriters(topicPartition);
-        mZookeeperConnector.lock(lockPath);
+        LinkedList<SealedBatch> batches = mSealedBatches.get(topicPartition);
+        if (batches == null) {
+            // No one else can commit offsets in the topic partition while we hold the lock so
+            // the committed offset has to be checked only before sealing the first batch.
+            if (!lock(topicPartition)) {
+                return;
+            }
+            boolean locked = false;
+            try {
+                long zookeeperComittedOffsetCount = mOffsetStore.getCommittedOffsetCount(
+                        topicPartition);
+                locked = zookeeperComittedOffsetCount == committedOffsetCount;
+            } finally {
+                if (!locked) {
+                    unlock(topicPartition);
+                }
+            }
+            if (!locked) {
+                return;
+            }
+            batches = new LinkedList<SealedBatch>();
+            mSealedBatches.put(topicPartition, batches);
+        }
+        long size = mFileRegistry.getSize(topicPartition);
+        long creationTimeSec = mFileRegistry.getCreationTimeSec(topicPartition);
+        Collection<LogFilePath> paths = mFileRegistry.sealTopicPartition(topicPartition);
+        mOffsetTracker.setSealedOffsetCount(topicPartition, lastSeenOffset + 1);
+        LOG.info("sealed " + paths.size() + " files of size " + size + " in topic " +
+                 topicPartition.getTopic() + " partition " + topicPartition.getPartition() +
+                 " up to offset count " + (lastSeenOffset + 1));
+        List<Future<?>> uploadFutures = new ArrayList<Future<?>>();
+        for (LogFilePath path : paths) {
+            uploadFutures.add(upload(path, creationTimeSec));
+        }
+        batches.add(new SealedBatch(paths, lastSeenOffset + 1, size, uploadFutures));
+        mSealedBytes += size;
+        // Wait for the oldest uploads if too much data is waiting to be uploaded.
+        while (mSealedBytes > mConfig.getUploadMaxSealedBytes()) {
+            TopicPartition oldest = mSealedBatches.keySet().iterator().next();
+            commitSealedFiles(Collections.singletonList(oldest), true);
+        }
+        StatsUtil.setGauge("secor.upload.sealed_bytes", mSealedBytes);
+    }
+
+    /**
+     * Commit offsets of uploaded file batches in given topic partitions.  Batches of a topic
+     * partition are committed in the order they were sealed.  Offsets of all topic partitions are
+     * written to the offset store in a single batch.
+     * @param topicPartitions The topic partitions to commit offsets in.
+     * @param wait Whether to wait for the upload of the oldest batch of each topic partition to
+     *     complete.
+     * @throws Exception
+     */
+    private void commitSealedFiles(Collection<TopicPartition> topicPartitions, boolean wait)
+            throws Exception {
+        HashMap<TopicPartition, Long> offsetCounts = new HashMap<TopicPartition, Long>();
         try {
-            // Check if the committed offset has changed.
-            long zookeeperComittedOffsetCount = mZookeeperConnector.getCommittedOffsetCount(
-                    topicPartition);
-            if (zookeeperComittedOffsetCount == committedOffsetCount) {
-                LOG.info("uploading topic " + topicPartition.getTopic() + " partition " +
-                         topicPartition.getPartition());
-                Collection<LogFilePath> paths = mFileRegistry.getPaths(topicPartition);
-                List<Future<?>> uploadFutures = new ArrayList<Future<?>>();
-                for (LogFilePath path : paths) {
-                    uploadFutures.add(upload(path));
-                }
-                for (Future<?> uploadFuture : uploadFutures) {
-                    uploadFuture.get();
+            for (TopicPartition topicPartition : topicPartitions) {
+                LinkedList<SealedBatch> batches = mSealedBatches.get(topicPartition);
+                boolean waitForFirst = wait;
+                try {
+                    while (!batches.isEmpty() &&
+                           (waitForFirst || batches.getFirst().isDone())) {
+                        waitForFirst = false;
+                        SealedBatch batch = batches.getFirst();
+                        batch.waitForUploads();
+                        batches.removeFirst();
+                        mSealedBytes -= batch.getSize();
+                        for (LogFilePath path : batch.getPaths()) {
+                            // Uploads leave companion files and, if streamed, data files behind.
+                            FileUtil.delete(path.getLogFilePath());
+                            FileUtil.delete(path.getLogFileCrcPath());
+                            FileUtil.delete(path.getLogFileIndexPath());
+                        }
+                        offsetCounts.put(topicPartition, batch.getOffsetCount());
+                    }
+                } catch (Exception e) {
+                    // Batches sealed after a failed one cannot be committed.
+                    for (SealedBatch batch : batches) {
+                        mSealedBytes -= batch.getSize();
+                    }
+                    batches.clear();
+                    throw e;
                 }
-                mFileRegistry.deleteTopicPartition(topicPartition);
-                mZookeeperConnector.setCommittedOffsetCount(topicPartition, lastSeenOffset + 1);
-                mOffsetTracker.setCommittedOffsetCount(topicPartition, lastSeenOffset + 1);
             }
         } finally {
-            mZookeeperConnector.unlock(lockPath);
+            try {
+                // Offsets of batches uploaded before a failure are still committed.
+                if (!offsetCounts.isEmpty()) {
+                    mOffsetStore.setCommittedOffsetCounts(offsetCounts);
+                    for (Map.Entry<TopicPartition, Long> entry : offsetCounts.entrySet()) {
+                        mOffsetTracker.setCommittedOffsetCount(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                for (TopicPartition topicPartition : topicPartitions) {
+                    LinkedList<SealedBatch> batches = mSealedBatches.get(topicPartition);
+                    if (batches != null && batches.isEmpty()) {
+                        mSealedBatches.remove(topicPartition);
+                        unlock(topicPartition);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Renew leases on topic partitions with sealed batches pending commit.  Offsets of topic
+     * partitions whose leases have been taken over can no longer be committed so their batches are
+     * dropped.  The new lease holder uploads the same messages again.
+     * @throws Exception
+     */
+    private void renewLeases() throws Exception {
+        if (mZookeeperConnector == null || mConfig.getUploadLeaseSeconds() <= 0) {
+            return;
         }
+        Iterator<Map.Entry<TopicPartition, LinkedList<SealedBatch>>> iterator =
+            mSealedBatches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TopicPartition, LinkedList<SealedBatch>> entry = iterator.next();
+            TopicPartition topicPartition = entry.getKey();
+            if (lock(topicPartition)) {
+                continue;
+            }
+            LOG.warn("lost lease on topic " + topicPartition.getTopic() + " partition " +
+                     topicPartition.getPartition() + ".  Dropping " + entry.getValue().size() +
+                     " sealed batches");
+            for (SealedBatch batch : entry.getValue()) {
+                mSealedBytes -= batch.getSize();
+                try {
+                    // Local files cannot be deleted while they are being uploaded.
+                    batch.waitForUploads();
+                } catch (Exception e) {
+                    LOG.warn("upload of dropped batch failed", e);
+                }
+                for (LogFilePath path : batch.getPaths()) {
+                    FileUtil.delete(path.getLogFilePath());
+                    FileUtil.delete(path.getLogFileCrcPath());
+                    FileUtil.delete(path.getLogFileIndexPath());
+                }
+            }
+            iterator.remove();
+            // New files start at the committed offset again.
+            mOffsetTracker.setSealedOffsetCount(topicPartition, -1);
+        }
+    }
+
+    private void commitSealedFiles(boolean wait) throws Exception {
+        do {
+            commitSealedFiles(new ArrayList<TopicPartition>(mSealedBatches.keySet()), wait);
+        } while (wait && !mSealedBatches.isEmpty());
+        StatsUtil.setGauge("secor.upload.sealed_bytes", mSealedBytes);
+    }
+
+    /**
+     * Wait for uploads of all sealed files to complete and commit their offsets.
+     * @throws Exception
+     */
+    public void flush() throws Exception {
+        commitSealedFiles(true);
     }
 
     /**
@@ -131,6 +450,14 @@ public class Uploader {
         );
     }
 
+    private LogFilePath getTrimmedPath(LogFilePath srcPath, long startOffset, String extension)
+            throws Exception {
+        String localPrefix = mConfig.getLocalPath() + '/' + IdUtil.getLocalMessageDir();
+        return new LogFilePath(localPrefix, srcPath.getTopic(), srcPath.getPartitions(),
+                               srcPath.getGeneration(), srcPath.getKafkaPartition(), startOffset,
+                               extension);
+    }
+
     private void trim(LogFilePath srcPath, long startOffset) throws Exception {
         if (startOffset == srcPath.getOffset()) {
             return;
@@ -138,7 +465,7 @@ public class Uploader {
         FileReader reader = null;
         FileWriter writer = null;
         LogFilePath dstPath = null;
-        int copiedMessages = 0;
+        long copiedMessages = -1;
         // Deleting the writer closes its stream flushing all pending data to the disk.
         mFileRegistry.deleteWriter(srcPath);
         try {
@@ -148,24 +475,40 @@ public class Uploader {
                 codec = CompressionUtil.createCompressionCodec(mConfig.getCompressionCodec());
                 extension = codec.getDefaultExtension();
             }
-            reader = createReader(srcPath, codec);
-            KeyValue keyVal;
-            while ((keyVal = reader.next()) != null) {
-                if (keyVal.getKey() >= startOffset) {
-                    if (writer == null) {
-                        String localPrefix = mConfig.getLocalPath() + '/' +
-                            IdUtil.getLocalMessageDir();
-                        dstPath = new LogFilePath(localPrefix, srcPath.getTopic(),
-                                                  srcPath.getPartitions(), srcPath.getGeneration(),
-                                                  srcPath.getKafkaPartition(), startOffset,
-                                                  extension);
-                        writer = mFileRegistry.getOrCreateWriter(dstPath,
-                        		codec);
+            // The offset index tells which blocks of records precede the start offset.
+            OffsetIndex index = OffsetIndex.read(srcPath);
+            OffsetIndex.Entry entry = index == null ? null : index.findEntry(startOffset);
+            if (index != null && entry == null) {
+                // All records precede the start offset.
+                copiedMessages = 0;
+            } else {
+                dstPath = getTrimmedPath(srcPath, startOffset, extension);
+                writer = mFileRegistry.getOrCreateWriter(dstPath, codec);
+                // Copy records without re-encoding them if the format allows it.  Raw writers use
+                // the index, if any, to skip blocks preceding the start offset.
+                if (writer instanceof RawFileWriter) {
+                    copiedMessages = ((RawFileWriter) writer).appendRaw(srcPath, startOffset);
+                }
+            }
+            if (copiedMessages < 0) {
+                copiedMessages = 0;
+                reader = createReader(srcPath, codec);
+                if (entry != null && entry != index.getEntries().get(0) &&
+                    reader instanceof SeekableFileReader) {
+                    ((SeekableFileReader) reader).seek(entry);
+                }
+                KeyValue keyVal;
+                while ((keyVal = reader.next()) != null) {
+                    if (keyVal.getKey() >= startOffset) {
+                        writer.write(keyVal);
+                        copiedMessages++;
                     }
-                    writer.write(keyVal);
-                    copiedMessages++;
                 }
             }
+            if (copiedMessages == 0 && dstPath != null) {
+                mFileRegistry.deletePath(dstPath);
+                dstPath = null;
+            }
         } finally {
             if (reader != null) {
                 reader.close();
@@ -187,17 +530,31 @@ public class Uploader {
         }
     }
 
-    private void checkTopicPartition(TopicPartition topicPartition) throws Exception {
+    // @return whether the topic partition was due for upload
+    private boolean checkTopicPartition(TopicPartition topicPartition,
+                                        List<TopicPartition> uploadTopicPartitions)
+            throws Exception {
         final long size = mFileRegistry.getSize(topicPartition);
         final long modificationAgeSec = mFileRegistry.getModificationAgeSec(topicPartition);
-        if (size >= mConfig.getMaxFileSizeBytes() ||
-                modificationAgeSec >= mConfig.getMaxFileAgeSeconds()) {
-            long newOffsetCount = mZookeeperConnector.getCommittedOffsetCount(topicPartition);
+        // Partitions created at the same time, e.g., after a rebalance, would otherwise all reach
+        // the age limit at once.
+        final long maxAgeSec = mConfig.getMaxFileAgeSeconds() - FileRegistry.getAgeJitterSec(
+            topicPartition, mConfig.getMaxFileAgeJitterSeconds());
+        final boolean sizeDue = size >= mConfig.getMaxFileSizeBytes();
+        if (sizeDue || modificationAgeSec >= maxAgeSec) {
+            StatsUtil.incr(sizeDue ? "secor.upload.rotations.size" : "secor.upload.rotations.age",
+                           1);
+            StatsUtil.incr("secor.upload.rotated_bytes", (int) Math.min(size, Integer.MAX_VALUE));
+            StatsUtil.addProcessMetric("secor.upload.rotation_age_sec", (int) modificationAgeSec);
+            // The cached count is confirmed under the lock before files are uploaded.
+            long newOffsetCount = mZookeeperConnector == null ?
+                mOffsetStore.getCommittedOffsetCount(topicPartition) :
+                mZookeeperConnector.getCachedCommittedOffsetCount(topicPartition);
             long oldOffsetCount = mOffsetTracker.setCommittedOffsetCount(topicPartition,
                     newOffsetCount);
             long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
             if (oldOffsetCount == newOffsetCount) {
-                uploadFiles(topicPartition);
+                uploadTopicPartitions.add(topicPartition);
             } else if (newOffsetCount > lastSeenOffset) {  // && oldOffset < newOffset
                 LOG.debug("last seen offset " + lastSeenOffset +
                           " is lower than committed offset count " + newOffsetCount +
@@ -216,13 +573,77 @@ public class Uploader {
                 // of the current message.  We need to trim local files.
                 trimFiles(topicPartition, newOffsetCount);
             }
+            return true;
         }
+        return false;
     }
 
     public void applyPolicy() throws Exception {
-        Collection<TopicPartition> topicPartitions = mFileRegistry.getTopicPartitions();
+        renewLeases();
+        commitSealedFiles(false);
+        Collection<TopicPartition> topicPartitions = mFileRegistry.getDueTopicPartitions(
+            mConfig.getMaxFileSizeBytes(), mConfig.getMaxFileAgeSeconds(),
+            mConfig.getMaxFileAgeJitterSeconds());
+        int rotations = 0;
+        // Topic partitions rotating together are uploaded together so their offsets can be
+        // committed in a single batch.
+        List<TopicPartition> uploadTopicPartitions = new ArrayList<TopicPartition>();
         for (TopicPartition topicPartition : topicPartitions) {
-            checkTopicPartition(topicPartition);
+            if (checkTopicPartition(topicPartition, uploadTopicPartitions)) {
+                rotations++;
+            }
+        }
+        if (mConfig.getUploadAsync()) {
+            for (TopicPartition topicPartition : uploadTopicPartitions) {
+                sealFiles(topicPartition);
+            }
+        } else if (!uploadTopicPartitions.isEmpty()) {
+            uploadFiles(uploadTopicPartitions);
+        }
+        if (rotations > 0) {
+            StatsUtil.addProcessMetric("secor.upload.rotations_per_check", rotations);
+        }
+    }
+
+    private static class SealedBatch {
+        private final Collection<LogFilePath> mPaths;
+        private final long mOffsetCount;
+        private final long mSize;
+        private final List<Future<?>> mUploadFutures;
+
+        public SealedBatch(Collection<LogFilePath> paths, long offsetCount, long size,
+                           List<Future<?>> uploadFutures) {
+            mPaths = paths;
+            mOffsetCount = offsetCount;
+            mSize = size;
+            mUploadFutures = uploadFutures;
+        }
+
+        public Collection<LogFilePath> getPaths() {
+            return mPaths;
+        }
+
+        public long getOffsetCount() {
+            return mOffsetCount;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public boolean isDone() {
+            for (Future<?> uploadFuture : mUploadFutures) {
+                if (!uploadFuture.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void waitForUploads() throws Exception {
+            for (Future<?> uploadFuture : mUploadFutures) {
+                uploadFuture.get();
+            }
         }
     }
 }
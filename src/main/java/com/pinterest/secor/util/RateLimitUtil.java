@@ -38,4 +38,8 @@ public class RateLimitUtil {
     public static void acquire() {
         mRateLimiter.acquire();
     }
+
+    public static void acquire(int permits) {
+        mRateLimiter.acquire(permits);
+    }
 }
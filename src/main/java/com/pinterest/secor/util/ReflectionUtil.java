@@ -17,12 +17,15 @@
 package com.pinterest.secor.util;
 
 import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.OffsetStore;
 import com.pinterest.secor.common.SecorConfig;
 
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.parser.MessageParser;
+import com.pinterest.secor.uploader.ObjectStore;
+import com.pinterest.secor.uploader.UploadScheduler;
 import org.apache.hadoop.io.compress.CompressionCodec;
 
 /**
@@ -58,6 +61,72 @@ public class ReflectionUtil {
         return (MessageParser) clazz.getConstructor(SecorConfig.class).newInstance(config);
     }
 
+    /**
+     * Create an ObjectStore from its fully qualified class name.
+     * The class passed in by name must be assignable to ObjectStore and have 1-parameter constructor accepting a SecorConfig.
+     *
+     * See the secor.upload.object.store.class config option.
+     *
+     * @param className The class name of an implementation of ObjectStore
+     * @param config The SecorConfig to initialize the ObjectStore with
+     * @return an ObjectStore instance with the runtime type of the class passed by name
+     * @throws Exception
+     */
+    public static ObjectStore createObjectStore(String className,
+                                                SecorConfig config) throws Exception {
+        Class<?> clazz = Class.forName(className);
+        if (!ObjectStore.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(String.format("The class '%s' is not assignable to '%s'.",
+                    className, ObjectStore.class.getName()));
+        }
+
+        return (ObjectStore) clazz.getConstructor(SecorConfig.class).newInstance(config);
+    }
+
+    /**
+     * Create an OffsetStore from its fully qualified class name.
+     * The class passed in by name must be assignable to OffsetStore and have 1-parameter constructor accepting a SecorConfig.
+     *
+     * See the secor.offset.store.class config option.
+     *
+     * @param className The class name of an implementation of OffsetStore
+     * @param config The SecorConfig to initialize the OffsetStore with
+     * @return an OffsetStore instance with the runtime type of the class passed by name
+     * @throws Exception
+     */
+    public static OffsetStore createOffsetStore(String className,
+                                                SecorConfig config) throws Exception {
+        Class<?> clazz = Class.forName(className);
+        if (!OffsetStore.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(String.format("The class '%s' is not assignable to '%s'.",
+                    className, OffsetStore.class.getName()));
+        }
+
+        return (OffsetStore) clazz.getConstructor(SecorConfig.class).newInstance(config);
+    }
+
+    /**
+     * Create an UploadScheduler from its fully qualified class name.
+     * The class passed in by name must be assignable to UploadScheduler and have 1-parameter constructor accepting a SecorConfig.
+     *
+     * See the secor.upload.scheduler.class config option.
+     *
+     * @param className The class name of an implementation of UploadScheduler
+     * @param config The SecorConfig to initialize the UploadScheduler with
+     * @return an UploadScheduler instance with the runtime type of the class passed by name
+     * @throws Exception
+     */
+    public static UploadScheduler createUploadScheduler(String className,
+                                                        SecorConfig config) throws Exception {
+        Class<?> clazz = Class.forName(className);
+        if (!UploadScheduler.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException(String.format("The class '%s' is not assignable to '%s'.",
+                    className, UploadScheduler.class.getName()));
+        }
+
+        return (UploadScheduler) clazz.getConstructor(SecorConfig.class).newInstance(config);
+    }
+
     /**
      * Create a FileReaderWriterFactory that is able to read and write a specific type of output log file.
      * The class passed in by name must be assignable to FileReaderWriterFactory.
@@ -30,9 +30,31 @@ public class StatsUtil {
         Stats.setLabel(name, value);
     }
 
+    public static void setGauge(String name, double value) {
+        long threadId = Thread.currentThread().getId();
+        name += "." + threadId;
+        Stats.setGauge(name, value);
+    }
+
+    public static void incr(String name, int count) {
+        long threadId = Thread.currentThread().getId();
+        name += "." + threadId;
+        Stats.incr(name, count);
+    }
+
     public static void clearLabel(String name) {
         long threadId = Thread.currentThread().getId();
         name += "." + threadId;
         Stats.clearLabel(name);
     }
+
+    // Process-wide stats are not qualified with the thread id.
+
+    public static void setProcessGauge(String name, double value) {
+        Stats.setGauge(name, value);
+    }
+
+    public static void addProcessMetric(String name, int value) {
+        Stats.addMetric(name, value);
+    }
 }
@@ -42,15 +42,18 @@ public class MessageWriter {
 
     private SecorConfig mConfig;
     private OffsetTracker mOffsetTracker;
+    private TopicPartitionRegistry mTopicPartitionRegistry;
     private FileRegistry mFileRegistry;
     private String mFileExtension;
     private CompressionCodec mCodec;
     private String mLocalPrefix;
+    private LogFilePathCache mLogFilePathCache;
 
     public MessageWriter(SecorConfig config, OffsetTracker offsetTracker,
                          FileRegistry fileRegistry) throws Exception {
         mConfig = config;
         mOffsetTracker = offsetTracker;
+        mTopicPartitionRegistry = offsetTracker.getTopicPartitionRegistry();
         mFileRegistry = fileRegistry;
         if (mConfig.getCompressionCodec() != null && !mConfig.getCompressionCodec().isEmpty()) {
             mCodec = CompressionUtil.createCompressionCodec(mConfig.getCompressionCodec());
@@ -59,13 +62,16 @@ public class MessageWriter {
             mFileExtension = "";
         }
         mLocalPrefix = mConfig.getLocalPath() + '/' + IdUtil.getLocalMessageDir();
+        mLogFilePathCache = new LogFilePathCache(mLocalPrefix, mConfig.getGeneration(),
+                                                 mFileExtension);
     }
 
     public void adjustOffset(Message message) throws IOException {
-        TopicPartition topicPartition = new TopicPartition(message.getTopic(),
-                                                           message.getKafkaPartition());
-        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
+        int slot = mTopicPartitionRegistry.getSlot(message.getTopic(),
+                                                   message.getKafkaPartition());
+        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(slot);
         if (message.getOffset() != lastSeenOffset + 1) {
+            TopicPartition topicPartition = mTopicPartitionRegistry.getTopicPartition(slot);
             // There was a rebalancing event since we read the last message.
             LOG.debug("offset of message " + message +
                       " does not follow sequentially the last seen offset " + lastSeenOffset +
@@ -73,18 +79,21 @@ public class MessageWriter {
                       topicPartition.getPartition());
             mFileRegistry.deleteTopicPartition(topicPartition);
         }
-        mOffsetTracker.setLastSeenOffset(topicPartition, message.getOffset());
+        mOffsetTracker.setLastSeenOffset(slot, message.getOffset());
     }
 
     public void write(ParsedMessage message) throws Exception {
-        TopicPartition topicPartition = new TopicPartition(message.getTopic(),
-                                                           message.getKafkaPartition());
-        long offset = mOffsetTracker.getAdjustedCommittedOffsetCount(topicPartition);
-        LogFilePath path = new LogFilePath(mLocalPrefix, mConfig.getGeneration(), offset, message,
-        		mFileExtension);
+        int slot = mTopicPartitionRegistry.getSlot(message.getTopic(),
+                                                   message.getKafkaPartition());
+        long offset = mOffsetTracker.getAdjustedCommittedOffsetCount(slot);
+        LogFilePath path = mLogFilePathCache.get(slot, offset, message);
         FileWriter writer = mFileRegistry.getOrCreateWriter(path, mCodec);
+        long length = writer.getLength();
         writer.write(new KeyValue(message.getOffset(), message.getPayload()));
-        LOG.debug("appended message " + message + " to file " + path.getLogFilePath() +
-                  ".  File length " + writer.getLength());
+        mFileRegistry.addSize(slot, writer.getLength() - length);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("appended message " + message + " to file " + path.getLogFilePath() +
+                      ".  File length " + writer.getLength());
+        }
     }
 }
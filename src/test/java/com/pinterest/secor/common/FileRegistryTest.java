@@ -32,6 +32,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.Collection;
+import java.util.HashSet;
 
 /**
  * FileRegistryTest tests the file registry logic.
@@ -47,6 +48,8 @@ public class FileRegistryTest extends TestCase {
             + "10_0_00000000000000000100.gz";
     private static final String CRC_PATH = "/some_parent_dir/some_topic/some_partition/some_other_partition/"
             + ".10_0_00000000000000000100.crc";
+    private static final String INDEX_PATH = "/some_parent_dir/some_topic/some_partition/some_other_partition/"
+            + ".10_0_00000000000000000100.index";
     private LogFilePath mLogFilePath;
     private LogFilePath mLogFilePathGz;
     private TopicPartition mTopicPartition;
@@ -101,6 +104,8 @@ public class FileRegistryTest extends TestCase {
         FileUtil.delete(PATH);
         PowerMockito.verifyStatic();
         FileUtil.delete(CRC_PATH);
+        PowerMockito.verifyStatic();
+        FileUtil.delete(INDEX_PATH);
 
         TopicPartition topicPartition = new TopicPartition("some_topic", 0);
         Collection<TopicPartition> topicPartitions = mRegistry
@@ -173,6 +178,8 @@ public class FileRegistryTest extends TestCase {
         FileUtil.delete(PATH);
         PowerMockito.verifyStatic();
         FileUtil.delete(CRC_PATH);
+        PowerMockito.verifyStatic();
+        FileUtil.delete(INDEX_PATH);
 
         assertTrue(mRegistry.getPaths(mTopicPartition).isEmpty());
         assertTrue(mRegistry.getTopicPartitions().isEmpty());
@@ -188,6 +195,8 @@ public class FileRegistryTest extends TestCase {
         FileUtil.delete(PATH);
         PowerMockito.verifyStatic();
         FileUtil.delete(CRC_PATH);
+        PowerMockito.verifyStatic();
+        FileUtil.delete(INDEX_PATH);
 
         assertTrue(mRegistry.getTopicPartitions().isEmpty());
         assertTrue(mRegistry.getPaths(mTopicPartition).isEmpty());
@@ -199,6 +208,58 @@ public class FileRegistryTest extends TestCase {
         assertEquals(123L, mRegistry.getSize(mTopicPartition));
     }
 
+    public void testGetDueTopicPartitions() throws Exception {
+        createWriter();
+
+        // The writer length counts towards the size.
+        assertTrue(mRegistry.getDueTopicPartitions(1000L, 3600L, 0L).isEmpty());
+        int slot = TopicPartitionRegistry.getInstance().getSlot(mTopicPartition);
+        mRegistry.addSize(slot, 900L);
+        Collection<TopicPartition> topicPartitions = mRegistry.getDueTopicPartitions(1000L, 3600L, 0L);
+        assertEquals(1, topicPartitions.size());
+        assertTrue(topicPartitions.contains(mTopicPartition));
+        // Due topic partitions are returned until they are not due anymore.
+        assertEquals(1, mRegistry.getDueTopicPartitions(1000L, 3600L, 0L).size());
+        assertTrue(mRegistry.getDueTopicPartitions(2000L, 3600L, 0L).isEmpty());
+
+        // The file reached the age limit.
+        topicPartitions = mRegistry.getDueTopicPartitions(2000L, 0L, 0L);
+        assertEquals(1, topicPartitions.size());
+        assertTrue(topicPartitions.contains(mTopicPartition));
+
+        mRegistry.deleteTopicPartition(mTopicPartition);
+        assertTrue(mRegistry.getDueTopicPartitions(0L, 0L, 0L).isEmpty());
+    }
+
+    public void testGetDueTopicPartitionsWithJitter() throws Exception {
+        createWriter();
+
+        // The age limit is reduced by the jitter of the topic partition.
+        long jitter = FileRegistry.getAgeJitterSec(mTopicPartition, 7200L);
+        assertTrue(mRegistry.getDueTopicPartitions(2000L, jitter + 100L, 7200L).isEmpty());
+        Collection<TopicPartition> topicPartitions = mRegistry.getDueTopicPartitions(2000L,
+                jitter, 7200L);
+        assertEquals(1, topicPartitions.size());
+        assertTrue(topicPartitions.contains(mTopicPartition));
+    }
+
+    public void testGetAgeJitterSec() throws Exception {
+        assertEquals(0L, FileRegistry.getAgeJitterSec(mTopicPartition, 0L));
+        assertEquals(FileRegistry.getAgeJitterSec(mTopicPartition, 600L),
+                     FileRegistry.getAgeJitterSec(new TopicPartition(mTopicPartition.getTopic(),
+                         mTopicPartition.getPartition()), 600L));
+
+        // Jitter of partitions of a topic is bounded and spread out.
+        HashSet<Long> jitters = new HashSet<Long>();
+        for (int partition = 0; partition < 100; ++partition) {
+            long jitter = FileRegistry.getAgeJitterSec(new TopicPartition("some_topic", partition),
+                                                       600L);
+            assertTrue(jitter >= 0L && jitter <= 600L);
+            jitters.add(jitter);
+        }
+        assertTrue(jitters.size() > 50);
+    }
+
     public void testGetModificationAgeSec() throws Exception {
         PowerMockito.mockStatic(System.class);
         PowerMockito.when(System.currentTimeMillis()).thenReturn(10000L)
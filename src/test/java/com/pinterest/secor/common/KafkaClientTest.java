@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import com.pinterest.secor.message.Message;
+import junit.framework.TestCase;
+import kafka.cluster.Broker;
+import kafka.api.FetchRequest;
+import kafka.common.ErrorMapping;
+import kafka.javaapi.OffsetRequest;
+import kafka.javaapi.OffsetResponse;
+import kafka.javaapi.PartitionMetadata;
+import kafka.javaapi.TopicMetadata;
+import kafka.javaapi.TopicMetadataRequest;
+import kafka.javaapi.TopicMetadataResponse;
+import kafka.javaapi.FetchResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.javaapi.message.ByteBufferMessageSet;
+import kafka.message.NoCompressionCodec$;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * KafkaClient tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({KafkaClient.class})
+@PowerMockIgnore({"javax.management.*"})
+public class KafkaClientTest extends TestCase {
+    private SecorConfig mConfig;
+    private SimpleConsumer mConsumer;
+    private KafkaClient mKafkaClient;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getOffsetStoreClass()).thenReturn(
+            "com.pinterest.secor.common.MemoryOffsetStore");
+        Mockito.when(mConfig.getKafkaSeedBrokerHost()).thenReturn("seed_host");
+        Mockito.when(mConfig.getKafkaSeedBrokerPort()).thenReturn(9092);
+        Mockito.when(mConfig.getKafkaMetadataTtlSeconds()).thenReturn(60);
+        Mockito.when(mConfig.getMaxMessageSizeBytes()).thenReturn(100000);
+
+        mConsumer = Mockito.mock(SimpleConsumer.class);
+        PowerMockito.whenNew(SimpleConsumer.class).withAnyArguments().thenReturn(mConsumer);
+
+        PartitionMetadata partitionMetadata = Mockito.mock(PartitionMetadata.class);
+        Mockito.when(partitionMetadata.partitionId()).thenReturn(0);
+        Mockito.when(partitionMetadata.leader()).thenReturn(new Broker(1, "leader_host", 9092));
+        TopicMetadata topicMetadata = Mockito.mock(TopicMetadata.class);
+        Mockito.when(topicMetadata.partitionsMetadata()).thenReturn(
+            Arrays.asList(partitionMetadata));
+        TopicMetadataResponse metadataResponse = Mockito.mock(TopicMetadataResponse.class);
+        Mockito.when(metadataResponse.topicsMetadata()).thenReturn(Arrays.asList(topicMetadata));
+        Mockito.when(mConsumer.send(Mockito.any(TopicMetadataRequest.class)))
+            .thenReturn(metadataResponse);
+
+        mKafkaClient = new KafkaClient(mConfig);
+    }
+
+    public void testGetNumPartitions() throws Exception {
+        assertEquals(1, mKafkaClient.getNumPartitions("some_topic"));
+        assertEquals(1, mKafkaClient.getNumPartitions("some_topic"));
+
+        // Metadata is cached.
+        Mockito.verify(mConsumer, Mockito.times(1)).send(Mockito.any(TopicMetadataRequest.class));
+    }
+
+    public void testGetLastMessageAfterLeaderChange() throws Exception {
+        OffsetResponse notLeaderResponse = Mockito.mock(OffsetResponse.class);
+        Mockito.when(notLeaderResponse.hasError()).thenReturn(true);
+        Mockito.when(notLeaderResponse.errorCode("some_topic", 0)).thenReturn(
+            ErrorMapping.NotLeaderForPartitionCode());
+        OffsetResponse offsetResponse = Mockito.mock(OffsetResponse.class);
+        Mockito.when(offsetResponse.offsets("some_topic", 0)).thenReturn(new long[]{1});
+        Mockito.when(mConsumer.getOffsetsBefore(Mockito.any(OffsetRequest.class)))
+            .thenReturn(notLeaderResponse).thenReturn(offsetResponse);
+
+        assertNull(mKafkaClient.getLastMessage(new TopicPartition("some_topic", 0)));
+
+        // Metadata is looked up again after the leader changed.
+        Mockito.verify(mConsumer, Mockito.times(2)).send(Mockito.any(TopicMetadataRequest.class));
+        Mockito.verify(mConsumer, Mockito.times(2)).getOffsetsBefore(
+            Mockito.any(OffsetRequest.class));
+    }
+
+    private void setUpPartitions(int numPartitions) {
+        PartitionMetadata[] partitionsMetadata = new PartitionMetadata[numPartitions];
+        for (int i = 0; i < numPartitions; ++i) {
+            partitionsMetadata[i] = Mockito.mock(PartitionMetadata.class);
+            Mockito.when(partitionsMetadata[i].partitionId()).thenReturn(i);
+            Mockito.when(partitionsMetadata[i].leader()).thenReturn(
+                new Broker(1, "leader_host", 9092));
+        }
+        TopicMetadata topicMetadata = Mockito.mock(TopicMetadata.class);
+        Mockito.when(topicMetadata.partitionsMetadata()).thenReturn(
+            Arrays.asList(partitionsMetadata));
+        TopicMetadataResponse metadataResponse = Mockito.mock(TopicMetadataResponse.class);
+        Mockito.when(metadataResponse.topicsMetadata()).thenReturn(Arrays.asList(topicMetadata));
+        Mockito.when(mConsumer.send(Mockito.any(TopicMetadataRequest.class)))
+            .thenReturn(metadataResponse);
+    }
+
+    public void testGetLastMessagesBatchesRequestsPerLeader() throws Exception {
+        setUpPartitions(2);
+
+        // Both topic partitions are empty.
+        OffsetResponse offsetResponse = Mockito.mock(OffsetResponse.class);
+        Mockito.when(offsetResponse.offsets("some_topic", 0)).thenReturn(new long[]{1});
+        Mockito.when(offsetResponse.offsets("some_topic", 1)).thenReturn(new long[]{1});
+        Mockito.when(mConsumer.getOffsetsBefore(Mockito.any(OffsetRequest.class)))
+            .thenReturn(offsetResponse);
+
+        Map<TopicPartition, Message> messages = mKafkaClient.getLastMessages(Arrays.asList(
+            new TopicPartition("some_topic", 0), new TopicPartition("some_topic", 1)));
+        assertTrue(messages.isEmpty());
+
+        // Offsets of both topic partitions are looked up in a single request to their leader.
+        Mockito.verify(mConsumer, Mockito.times(1)).getOffsetsBefore(
+            Mockito.any(OffsetRequest.class));
+    }
+
+    public void testGetLastMessagesCapsPartitionsPerFetch() throws Exception {
+        // Two partitions fit in a single fetch response.
+        Mockito.when(mConfig.getMaxMessageSizeBytes()).thenReturn(16 * 1024 * 1024);
+        setUpPartitions(3);
+
+        OffsetResponse offsetResponse = Mockito.mock(OffsetResponse.class);
+        FetchResponse fetchResponse = Mockito.mock(FetchResponse.class);
+        for (int i = 0; i < 3; ++i) {
+            Mockito.when(offsetResponse.offsets("some_topic", i)).thenReturn(new long[]{2});
+            Mockito.when(fetchResponse.messageSet("some_topic", i)).thenReturn(
+                new ByteBufferMessageSet(NoCompressionCodec$.MODULE$, Arrays.asList(
+                    new kafka.message.Message(new byte[]{'a'}))));
+        }
+        Mockito.when(mConsumer.getOffsetsBefore(Mockito.any(OffsetRequest.class)))
+            .thenReturn(offsetResponse);
+        Mockito.when(mConsumer.fetch(Mockito.any(FetchRequest.class))).thenReturn(fetchResponse);
+
+        Map<TopicPartition, Message> messages = mKafkaClient.getLastMessages(Arrays.asList(
+            new TopicPartition("some_topic", 0), new TopicPartition("some_topic", 1),
+            new TopicPartition("some_topic", 2)));
+        assertEquals(3, messages.size());
+
+        Mockito.verify(mConsumer, Mockito.times(2)).fetch(Mockito.any(FetchRequest.class));
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * LocalFileOffsetStore tests.
+ */
+public class LocalFileOffsetStoreTest extends TestCase {
+    private File mDir;
+    private File mFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mDir = Files.createTempDir();
+        mFile = new File(mDir, "offsets/secor_offsets");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        new File(mDir, "offsets/secor_offsets").delete();
+        new File(mDir, "offsets").delete();
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testSetCommittedOffsetCounts() throws Exception {
+        LocalFileOffsetStore offsetStore = new LocalFileOffsetStore(mFile);
+        TopicPartition topicPartition = new TopicPartition("some_topic", 0);
+        assertEquals(-1L, offsetStore.getCommittedOffsetCount(topicPartition));
+
+        HashMap<TopicPartition, Long> counts = new HashMap<TopicPartition, Long>();
+        counts.put(topicPartition, 10L);
+        counts.put(new TopicPartition("some_topic", 1), 20L);
+        counts.put(new TopicPartition("other_topic", 0), 30L);
+        offsetStore.setCommittedOffsetCounts(counts);
+        offsetStore.setCommittedOffsetCount(topicPartition, 11L);
+
+        // Stores of the same file share offsets.
+        OffsetStore otherOffsetStore = new LocalFileOffsetStore(mFile);
+        assertEquals(11L, otherOffsetStore.getCommittedOffsetCount(topicPartition));
+        assertEquals(Arrays.asList("other_topic", "some_topic"),
+                     otherOffsetStore.getCommittedOffsetTopics());
+        assertEquals(Arrays.asList(0, 1),
+                     otherOffsetStore.getCommittedOffsetPartitions("some_topic"));
+
+        List<String> lines = Files.readLines(mFile, Charsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertTrue(lines.contains("some_topic\t0\t11"));
+        assertTrue(lines.contains("some_topic\t1\t20"));
+        assertTrue(lines.contains("other_topic\t0\t30"));
+    }
+}
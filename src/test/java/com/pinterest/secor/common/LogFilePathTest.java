@@ -76,6 +76,30 @@ public class LogFilePathTest extends TestCase {
         assertEquals(LAST_COMMITTED_OFFSET, mLogFilePath.getOffset());
     }
 
+    public void testCache() throws Exception {
+        LogFilePathCache cache = new LogFilePathCache(PREFIX, GENERATION, "");
+        ParsedMessage message = new ParsedMessage(TOPIC, KAFKA_PARTITION, 1000,
+                                                  "some_payload".getBytes(), PARTITIONS);
+        LogFilePath logFilePath = cache.get(0, LAST_COMMITTED_OFFSET, message);
+        assertEquals(PATH, logFilePath.getLogFilePath());
+        assertEquals(CRC_PATH, logFilePath.getLogFileCrcPath());
+
+        ParsedMessage equalPartitionsMessage = new ParsedMessage(TOPIC, KAFKA_PARTITION, 1001,
+            "some_payload".getBytes(), PARTITIONS.clone());
+        assertSame(logFilePath, cache.get(0, LAST_COMMITTED_OFFSET, equalPartitionsMessage));
+
+        ParsedMessage otherPartitionsMessage = new ParsedMessage(TOPIC, KAFKA_PARTITION, 1002,
+            "some_payload".getBytes(), new String[]{"some_partition"});
+        LogFilePath otherLogFilePath = cache.get(0, LAST_COMMITTED_OFFSET,
+                                                 otherPartitionsMessage);
+        assertNotSame(logFilePath, otherLogFilePath);
+        assertSame(logFilePath, cache.get(0, LAST_COMMITTED_OFFSET, message));
+
+        LogFilePath committedLogFilePath = cache.get(0, LAST_COMMITTED_OFFSET + 10, message);
+        assertEquals(LAST_COMMITTED_OFFSET + 10, committedLogFilePath.getOffset());
+        assertSame(committedLogFilePath, cache.get(0, LAST_COMMITTED_OFFSET + 10, message));
+    }
+
     public void testGetLogFilePath() throws Exception {
         assertEquals(PATH, mLogFilePath.getLogFilePath());
     }
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.common;
+
+import junit.framework.TestCase;
+
+/**
+ * TopicPartitionRegistryTest tests the topic partition to slot mapping and the slot-indexed
+ * offset tracker state.
+ */
+public class TopicPartitionRegistryTest extends TestCase {
+    private TopicPartitionRegistry mRegistry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRegistry = new TopicPartitionRegistry();
+    }
+
+    public void testGetSlot() throws Exception {
+        assertEquals(0, mRegistry.getSlot("some_topic", 3));
+        assertEquals(1, mRegistry.getSlot("some_topic", 0));
+        assertEquals(2, mRegistry.getSlot("some_other_topic", 0));
+        assertEquals(0, mRegistry.getSlot(new TopicPartition("some_topic", 3)));
+        assertEquals(1, mRegistry.getSlot("some_topic", 0));
+        assertEquals(3, mRegistry.size());
+
+        TopicPartition topicPartition = mRegistry.getTopicPartition(0);
+        assertEquals(new TopicPartition("some_topic", 3), topicPartition);
+        assertSame(topicPartition, mRegistry.getTopicPartition(mRegistry.getSlot("some_topic", 3)));
+    }
+
+    public void testOffsetTracker() throws Exception {
+        OffsetTracker offsetTracker = new OffsetTracker(mRegistry);
+        TopicPartition topicPartition = new TopicPartition("some_topic", 1);
+        int slot = mRegistry.getSlot(topicPartition);
+
+        assertEquals(-2, offsetTracker.getLastSeenOffset(slot));
+        assertEquals(-1, offsetTracker.getTrueCommittedOffsetCount(slot));
+        assertEquals(-1, offsetTracker.getAdjustedCommittedOffsetCount(slot));
+
+        assertEquals(-2, offsetTracker.setLastSeenOffset(topicPartition, 10));
+        assertEquals(10, offsetTracker.setLastSeenOffset(slot, 11));
+        assertEquals(11, offsetTracker.getLastSeenOffset(topicPartition));
+        assertEquals(10, offsetTracker.getAdjustedCommittedOffsetCount(topicPartition));
+
+        assertEquals(-1, offsetTracker.setCommittedOffsetCount(slot, 12));
+        assertEquals(12, offsetTracker.getTrueCommittedOffsetCount(topicPartition));
+        assertEquals(12, offsetTracker.getAdjustedCommittedOffsetCount(slot));
+    }
+}
@@ -1,9 +1,24 @@
 package com.pinterest.secor.common;
 
+import com.twitter.common.zookeeper.ZooKeeperClient;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.apache.zookeeper.data.Stat;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.powermock.reflect.Whitebox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 
 public class ZookeeperConnectorTest {
 
@@ -18,13 +33,138 @@ public class ZookeeperConnectorTest {
         verify("/chroot/", "/chroot/consumers/secor_cg/offsets");
     }
 
-    protected void verify(String zookeeperPath, String expectedOffsetPath) {
+    @Test
+    public void testSetCommittedOffsetCounts() throws Exception {
+        ZooKeeper zookeeper = Mockito.mock(ZooKeeper.class);
+        ZooKeeperClient zookeeperClient = Mockito.mock(ZooKeeperClient.class);
+        Mockito.when(zookeeperClient.get()).thenReturn(zookeeper);
+        ZookeeperConnector zookeeperConnector = createZookeeperConnector("/");
+        Whitebox.setInternalState(zookeeperConnector, "mZookeeperClient", zookeeperClient);
+
+        LinkedHashMap<TopicPartition, Long> counts = new LinkedHashMap<TopicPartition, Long>();
+        counts.put(new TopicPartition("some_topic", 0), 10L);
+        counts.put(new TopicPartition("some_topic", 1), 20L);
+        zookeeperConnector.setCommittedOffsetCounts(counts);
+
+        // Missing offset paths are created in a single transaction.
+        final String topicPath = "/consumers/secor_cg/offsets/some_topic";
+        Mockito.verify(zookeeper).multi(Arrays.asList(
+            Op.create(topicPath + "/0", "10".getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                      CreateMode.PERSISTENT),
+            Op.create(topicPath + "/1", "20".getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                      CreateMode.PERSISTENT)));
+        Mockito.verify(zookeeper).create(topicPath, null, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                                         CreateMode.PERSISTENT);
+
+        counts.put(new TopicPartition("some_topic", 0), 30L);
+        counts.put(new TopicPartition("some_topic", 1), 40L);
+        zookeeperConnector.setCommittedOffsetCounts(counts);
+
+        // Known paths are neither created nor looked up again.
+        Mockito.verify(zookeeper).multi(Arrays.asList(
+            Op.setData(topicPath + "/0", "30".getBytes(), -1),
+            Op.setData(topicPath + "/1", "40".getBytes(), -1)));
+        Mockito.verify(zookeeper, Mockito.times(4)).create(Mockito.anyString(),
+            Mockito.any(byte[].class), Mockito.anyList(), Mockito.any(CreateMode.class));
+        Mockito.verify(zookeeper, Mockito.times(2)).exists(Mockito.anyString(),
+                                                           Mockito.anyBoolean());
+    }
+
+    @Test
+    public void testGetCachedCommittedOffsetCount() throws Exception {
+        ZooKeeper zookeeper = Mockito.mock(ZooKeeper.class);
+        ZooKeeperClient zookeeperClient = Mockito.mock(ZooKeeperClient.class);
+        Mockito.when(zookeeperClient.get()).thenReturn(zookeeper);
+        ZookeeperConnector zookeeperConnector = createZookeeperConnector("/");
+        Whitebox.setInternalState(zookeeperConnector, "mZookeeperClient", zookeeperClient);
+
+        final String offsetPath = "/consumers/secor_cg/offsets/some_topic/0";
+        Mockito.when(zookeeper.getData(Mockito.eq(offsetPath), Mockito.any(Watcher.class),
+                                       Mockito.any(Stat.class)))
+            .thenReturn("10".getBytes()).thenReturn("20".getBytes());
+        TopicPartition topicPartition = new TopicPartition("some_topic", 0);
+        Assert.assertEquals(10L, zookeeperConnector.getCachedCommittedOffsetCount(topicPartition));
+        Assert.assertEquals(10L, zookeeperConnector.getCachedCommittedOffsetCount(topicPartition));
+        ArgumentCaptor<Watcher> watcher = ArgumentCaptor.forClass(Watcher.class);
+        Mockito.verify(zookeeper).getData(Mockito.eq(offsetPath), watcher.capture(),
+                                          Mockito.any(Stat.class));
+
+        // A change of the offset node invalidates the cached count.
+        watcher.getValue().process(new WatchedEvent(Watcher.Event.EventType.NodeDataChanged,
+                                                    Watcher.Event.KeeperState.SyncConnected,
+                                                    offsetPath));
+        Assert.assertEquals(20L, zookeeperConnector.getCachedCommittedOffsetCount(topicPartition));
+        Mockito.verify(zookeeper, Mockito.times(2)).getData(Mockito.eq(offsetPath),
+            Mockito.any(Watcher.class), Mockito.any(Stat.class));
+    }
+
+    @Test
+    public void testAcquireLease() throws Exception {
+        ZooKeeper zookeeper = Mockito.mock(ZooKeeper.class);
+        ZooKeeperClient zookeeperClient = Mockito.mock(ZooKeeperClient.class);
+        Mockito.when(zookeeperClient.get()).thenReturn(zookeeper);
+        ZookeeperConnector zookeeperConnector = createZookeeperConnector("/");
+        Whitebox.setInternalState(zookeeperConnector, "mZookeeperClient", zookeeperClient);
+
+        final String leasePath = "/secor/leases/some_topic/0";
+        TopicPartition topicPartition = new TopicPartition("some_topic", 0);
+        Assert.assertTrue(zookeeperConnector.acquireLease(topicPartition, 60000L));
+        Mockito.verify(zookeeper).create(Mockito.eq(leasePath), Mockito.any(byte[].class),
+            Mockito.anyList(), Mockito.eq(CreateMode.EPHEMERAL));
+
+        // A fresh lease is not renewed.
+        Assert.assertTrue(zookeeperConnector.acquireLease(topicPartition, 60000L));
+        Mockito.verify(zookeeper, Mockito.times(1)).create(Mockito.eq(leasePath),
+            Mockito.any(byte[].class), Mockito.anyList(), Mockito.eq(CreateMode.EPHEMERAL));
+
+        // Committed offsets are fenced with the lease version.
+        zookeeperConnector.setCommittedOffsetCount(topicPartition, 10L);
+        Mockito.verify(zookeeper).multi(Arrays.asList(
+            Op.create("/consumers/secor_cg/offsets/some_topic/0", "10".getBytes(),
+                      ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT),
+            Op.check(leasePath, 0)));
+    }
+
+    @Test
+    public void testAcquireLeaseHeldByOthers() throws Exception {
+        ZooKeeper zookeeper = Mockito.mock(ZooKeeper.class);
+        ZooKeeperClient zookeeperClient = Mockito.mock(ZooKeeperClient.class);
+        Mockito.when(zookeeperClient.get()).thenReturn(zookeeper);
+        ZookeeperConnector zookeeperConnector = createZookeeperConnector("/");
+        Whitebox.setInternalState(zookeeperConnector, "mZookeeperClient", zookeeperClient);
+
+        final String leasePath = "/secor/leases/some_topic/0";
+        Mockito.when(zookeeper.create(Mockito.eq(leasePath), Mockito.any(byte[].class),
+                                      Mockito.anyList(), Mockito.eq(CreateMode.EPHEMERAL)))
+            .thenThrow(new KeeperException.NodeExistsException())
+            .thenThrow(new KeeperException.NodeExistsException())
+            .thenReturn(leasePath);
+        long now = System.currentTimeMillis();
+        Mockito.when(zookeeper.getData(Mockito.eq(leasePath), Mockito.eq(false),
+                                       Mockito.any(Stat.class)))
+            .thenReturn(("other_host:" + (now + 60000L)).getBytes())
+            .thenReturn(("other_host:" + (now - 1000L)).getBytes());
+
+        TopicPartition topicPartition = new TopicPartition("some_topic", 0);
+        Assert.assertFalse(zookeeperConnector.acquireLease(topicPartition, 60000L));
+
+        // Expired leases are taken over.
+        Assert.assertTrue(zookeeperConnector.acquireLease(topicPartition, 60000L));
+        Mockito.verify(zookeeper).delete(leasePath, 0);
+    }
+
+    private ZookeeperConnector createZookeeperConnector(String zookeeperPath) {
         ZookeeperConnector zookeeperConnector = new ZookeeperConnector();
         PropertiesConfiguration properties = new PropertiesConfiguration();
         properties.setProperty("kafka.zookeeper.path", zookeeperPath);
         properties.setProperty("secor.kafka.group", "secor_cg");
         SecorConfig secorConfig = new SecorConfig(properties);
         zookeeperConnector.setConfig(secorConfig);
+        return zookeeperConnector;
+    }
+
+    protected void verify(String zookeeperPath, String expectedOffsetPath) {
+        ZookeeperConnector zookeeperConnector = createZookeeperConnector(zookeeperPath);
         Assert.assertEquals(expectedOffsetPath, zookeeperConnector.getCommittedOffsetGroupPath());
     }
 }
\ No newline at end of file
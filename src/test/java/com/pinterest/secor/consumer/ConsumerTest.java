@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.FileRegistry;
+import com.pinterest.secor.common.OffsetTracker;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.message.ParsedMessage;
+import com.pinterest.secor.parser.MessageParser;
+import com.pinterest.secor.reader.MessageReader;
+import com.pinterest.secor.uploader.Uploader;
+import com.pinterest.secor.util.ReflectionUtil;
+import com.pinterest.secor.writer.MessageWriter;
+
+import junit.framework.TestCase;
+
+import kafka.consumer.ConsumerTimeoutException;
+
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConsumerTest tests the batched and pipelined consumer loops.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Consumer.class, ReflectionUtil.class })
+@PowerMockIgnore({"javax.management.*"})
+public class ConsumerTest extends TestCase {
+    private SecorConfig mConfig;
+    private MessageReader mMessageReader;
+    private MessageWriter mMessageWriter;
+    private MessageParser mMessageParser;
+    private Uploader mUploader;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMaxFileAgeSeconds()).thenReturn(3600L);
+        Mockito.when(mConfig.getMessagesPerSecond()).thenReturn(1000);
+        Mockito.when(mConfig.getConsumerBatchMaxMessages()).thenReturn(3);
+        Mockito.when(mConfig.getConsumerBatchParserThreads()).thenReturn(1);
+        Mockito.when(mConfig.getMessageParserClass()).thenReturn("some_parser");
+
+        mMessageReader = Mockito.mock(MessageReader.class);
+        mMessageWriter = Mockito.mock(MessageWriter.class);
+        mMessageParser = Mockito.mock(MessageParser.class);
+        mUploader = Mockito.mock(Uploader.class);
+
+        PowerMockito.whenNew(MessageReader.class).withAnyArguments().thenReturn(mMessageReader);
+        PowerMockito.whenNew(FileRegistry.class).withAnyArguments().thenReturn(
+            Mockito.mock(FileRegistry.class));
+        PowerMockito.whenNew(MessageWriter.class).withAnyArguments().thenReturn(mMessageWriter);
+        PowerMockito.whenNew(Uploader.class).withAnyArguments().thenReturn(mUploader);
+        PowerMockito.mockStatic(ReflectionUtil.class);
+        Mockito.when(ReflectionUtil.createMessageParser("some_parser", mConfig)).thenReturn(
+            mMessageParser);
+        Mockito.when(mMessageParser.parse(Matchers.any(Message.class))).thenAnswer(
+            new Answer<ParsedMessage>() {
+                @Override
+                public ParsedMessage answer(InvocationOnMock invocation) throws Throwable {
+                    Message message = (Message) invocation.getArguments()[0];
+                    return new ParsedMessage(message.getTopic(), message.getKafkaPartition(),
+                                             message.getOffset(), message.getPayload(),
+                                             new String[]{"some_partition"});
+                }
+            });
+    }
+
+    private static Message createMessage(long offset) {
+        return new Message("some_topic", 0, offset, new byte[]{'a'});
+    }
+
+    public void testRunBatched() throws Exception {
+        Message[] messages = new Message[]{createMessage(0), createMessage(1), createMessage(2)};
+        Mockito.when(mMessageReader.hasNext()).thenReturn(true, true, true, false);
+        Mockito.when(mMessageReader.readBatch())
+            .thenReturn(Arrays.asList(messages[0], messages[1]))
+            .thenThrow(new ConsumerTimeoutException())
+            .thenReturn(Arrays.asList(messages[2]));
+
+        Consumer consumer = new Consumer(mConfig);
+        consumer.run();
+
+        InOrder inOrder = Mockito.inOrder(mMessageWriter, mUploader);
+        for (Message message : messages) {
+            inOrder.verify(mMessageWriter).adjustOffset(message);
+            inOrder.verify(mMessageWriter).write(Matchers.any(ParsedMessage.class));
+        }
+        inOrder.verify(mUploader).applyPolicy();
+        inOrder.verify(mUploader).flush();
+        Mockito.verify(mMessageReader, Mockito.never()).read();
+    }
+
+    public void testRunBatchedSkipsUnparsableMessages() throws Exception {
+        Message unparsable = createMessage(1);
+        Mockito.when(mMessageParser.parse(unparsable)).thenThrow(new RuntimeException("bad"));
+        Mockito.when(mMessageReader.hasNext()).thenReturn(true, false);
+        Mockito.when(mMessageReader.readBatch()).thenReturn(
+            Arrays.asList(createMessage(0), unparsable, createMessage(2)));
+
+        Consumer consumer = new Consumer(mConfig);
+        consumer.run();
+
+        Mockito.verify(mMessageWriter, Mockito.times(3)).adjustOffset(Matchers.any(Message.class));
+        Mockito.verify(mMessageWriter, Mockito.times(2)).write(Matchers.any(ParsedMessage.class));
+        Mockito.verify(mUploader).flush();
+    }
+
+    public void testRunPipelinedDrainsOnInterrupt() throws Exception {
+        Mockito.when(mConfig.getConsumerBatchMaxMessages()).thenReturn(1);
+        Mockito.when(mConfig.getConsumerPipelineParserThreads()).thenReturn(1);
+        Mockito.when(mConfig.getConsumerPipelineQueueCapacity()).thenReturn(1);
+        Mockito.when(mConfig.getConsumerTimeoutMs()).thenReturn(100);
+        final AtomicInteger numRead = new AtomicInteger();
+        Mockito.when(mMessageReader.hasNext()).thenReturn(true);
+        Mockito.when(mMessageReader.readBatch(false)).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return Arrays.asList(createMessage(numRead.getAndIncrement()));
+            }
+        });
+        final Consumer consumer = new Consumer(mConfig);
+        final AtomicInteger numWritten = new AtomicInteger();
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                // The fetcher keeps the pipeline queues full so there are messages to drain.
+                if (numWritten.incrementAndGet() == 10) {
+                    consumer.interrupt();
+                }
+                return null;
+            }
+        }).when(mMessageWriter).write(Matchers.any(ParsedMessage.class));
+
+        consumer.start();
+        consumer.join(10000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(numRead.get(), numWritten.get());
+        Mockito.verify(mUploader).flush();
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.reader.MessageReader;
+
+import junit.framework.TestCase;
+
+import kafka.consumer.ConsumerTimeoutException;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MessagePipelineTest tests message ordering, backpressure and shutdown of the message pipeline.
+ */
+public class MessagePipelineTest extends TestCase {
+    private static final int NUM_PARTITIONS = 5;
+    private static final int BATCH_SIZE = 10;
+
+    private SecorConfig mConfig;
+    private MessageReader mMessageReader;
+    // Number of batches read from the message reader.
+    private AtomicInteger mBatchesRead;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMessageParserClass()).thenReturn(
+            "com.pinterest.secor.parser.JsonMessageParser");
+        Mockito.when(mConfig.getMessageTimestampName()).thenReturn("timestamp");
+        Mockito.when(mConfig.getConsumerPipelineParserThreads()).thenReturn(3);
+        Mockito.when(mConfig.getConsumerPipelineQueueCapacity()).thenReturn(2);
+        mMessageReader = Mockito.mock(MessageReader.class);
+        mBatchesRead = new AtomicInteger();
+    }
+
+    // The reader delivers the given number of batches, or an unbounded number if negative.  Each
+    // batch interleaves messages from all partitions.  Every other call to hasNext() times out.
+    private void setUpMessages(final int numBatches) {
+        Mockito.when(mMessageReader.hasNext()).thenAnswer(new Answer<Boolean>() {
+            private int mCalls = 0;
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                if (mCalls++ % 2 == 1) {
+                    throw new ConsumerTimeoutException();
+                }
+                return numBatches < 0 || mBatchesRead.get() < numBatches;
+            }
+        });
+        Mockito.when(mMessageReader.readBatch(false)).thenAnswer(new Answer<List<Message>>() {
+            @Override
+            public List<Message> answer(InvocationOnMock invocation) throws Throwable {
+                int batch = mBatchesRead.getAndIncrement();
+                ArrayList<Message> messages = new ArrayList<Message>(BATCH_SIZE);
+                for (int i = 0; i < BATCH_SIZE; ++i) {
+                    long offset = (long) batch * BATCH_SIZE + i;
+                    byte[] payload = ("{\"timestamp\":" + (1405970352000L + offset) + "}")
+                        .getBytes("UTF-8");
+                    messages.add(new Message("test", (int) (offset % NUM_PARTITIONS), offset,
+                                             payload));
+                }
+                return messages;
+            }
+        });
+    }
+
+    // Poll the pipeline until it is drained, checking that the messages of each partition arrive
+    // in the order they were fetched.
+    // @return the number of delivered messages
+    private static int drain(MessagePipeline pipeline) throws Exception {
+        HashMap<Integer, Long> lastOffsets = new HashMap<Integer, Long>();
+        int numMessages = 0;
+        while (true) {
+            List<ParseResult> results = pipeline.poll(1000);
+            if (results == null) {
+                return numMessages;
+            }
+            for (ParseResult result : results) {
+                assertNull(result.getParseException());
+                Message message = result.getRawMessage();
+                assertEquals(message.getOffset(), result.getParsedMessage().getOffset());
+                Long lastOffset = lastOffsets.get(message.getKafkaPartition());
+                if (lastOffset != null) {
+                    assertEquals(lastOffset + NUM_PARTITIONS, message.getOffset());
+                }
+                lastOffsets.put(message.getKafkaPartition(), message.getOffset());
+                numMessages++;
+            }
+        }
+    }
+
+    public void testPreservesPartitionOrder() throws Exception {
+        setUpMessages(100);
+        MessagePipeline pipeline = new MessagePipeline(mConfig, mMessageReader);
+        pipeline.start();
+
+        assertEquals(100 * BATCH_SIZE, drain(pipeline));
+        pipeline.join();
+    }
+
+    public void testBoundedQueuesStallFetcher() throws Exception {
+        Mockito.when(mConfig.getConsumerPipelineParserThreads()).thenReturn(1);
+        Mockito.when(mConfig.getConsumerPipelineQueueCapacity()).thenReturn(1);
+        setUpMessages(100);
+        MessagePipeline pipeline = new MessagePipeline(mConfig, mMessageReader);
+        pipeline.start();
+
+        // Without a writer at most one batch sits in each queue, one is held by the parser and one
+        // by the fetcher.
+        Thread.sleep(500);
+        assertTrue(Integer.toString(mBatchesRead.get()), mBatchesRead.get() <= 4);
+
+        assertEquals(100 * BATCH_SIZE, drain(pipeline));
+        pipeline.join();
+    }
+
+    public void testStopDeliversFetchedMessages() throws Exception {
+        setUpMessages(-1);
+        MessagePipeline pipeline = new MessagePipeline(mConfig, mMessageReader);
+        pipeline.start();
+
+        List<ParseResult> results = pipeline.poll(1000);
+        assertFalse(results.isEmpty());
+        pipeline.stop();
+        int numMessages = results.size() + drain(pipeline);
+        pipeline.join();
+
+        assertEquals(mBatchesRead.get() * BATCH_SIZE, numMessages);
+    }
+}
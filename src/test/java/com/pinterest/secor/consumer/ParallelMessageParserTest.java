@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+public class ParallelMessageParserTest extends TestCase {
+    private SecorConfig mConfig;
+
+    @Override
+    public void setUp() throws Exception {
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMessageParserClass()).thenReturn(
+            "com.pinterest.secor.parser.JsonMessageParser");
+        Mockito.when(mConfig.getMessageTimestampName()).thenReturn("timestamp");
+    }
+
+    private List<Message> createMessages(int count) throws Exception {
+        ArrayList<Message> messages = new ArrayList<Message>(count);
+        for (int i = 0; i < count; ++i) {
+            byte[] payload;
+            if (i % 100 == 99) {
+                payload = "not json".getBytes("UTF-8");
+            } else {
+                payload = ("{\"timestamp\":" + (1405970352000L + i) + "}").getBytes("UTF-8");
+            }
+            messages.add(new Message("test", i % 3, i, payload));
+        }
+        return messages;
+    }
+
+    @Test
+    public void testParsePreservesOrder() throws Exception {
+        ParallelMessageParser parser = new ParallelMessageParser(mConfig, 4);
+        List<Message> messages = createMessages(1000);
+        List<ParseResult> results = parser.parse(messages);
+        parser.shutdown();
+
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            ParseResult result = results.get(i);
+            assertSame(messages.get(i), result.getRawMessage());
+            if (i % 100 == 99) {
+                assertNull(result.getParsedMessage());
+                assertNotNull(result.getParseException());
+            } else {
+                assertNull(result.getParseException());
+                assertEquals(i, result.getParsedMessage().getOffset());
+                assertEquals(i % 3, result.getParsedMessage().getKafkaPartition());
+            }
+        }
+    }
+
+    @Test
+    public void testParseSmallBatch() throws Exception {
+        ParallelMessageParser parser = new ParallelMessageParser(mConfig, 4);
+        List<Message> messages = createMessages(10);
+        List<ParseResult> results = parser.parse(messages);
+        parser.shutdown();
+
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            assertSame(messages.get(i), results.get(i).getRawMessage());
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.io.impl;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.FileReader;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DelimitedTextFileReaderWriterFactoryTest {
+    @Before
+    public void setUp() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getOffsetIndexEnabled()).thenReturn(true);
+        OffsetIndex.configure(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        OffsetIndex.configure(null);
+    }
+
+    private static LogFilePath createTempLogFilePath(String extension) {
+        return new LogFilePath(Files.createTempDir().toString(),
+                "test-topic",
+                new String[]{"part-1"},
+                0,
+                1,
+                100,
+                extension
+        );
+    }
+
+    private static List<byte[]> createMessages() {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        messages.add("first".getBytes());
+        messages.add(new byte[0]);
+        // Larger than the reader buffer.
+        byte[] largeMessage = new byte[200 * 1024];
+        Arrays.fill(largeMessage, (byte) 'x');
+        messages.add(largeMessage);
+        for (int i = 0; i < 10000; ++i) {
+            messages.add(("message " + i).getBytes());
+        }
+        return messages;
+    }
+
+    private void testRoundTrip(CompressionCodec codec, String extension) throws Exception {
+        DelimitedTextFileReaderWriterFactory factory = new DelimitedTextFileReaderWriterFactory();
+        LogFilePath tempLogFilePath = createTempLogFilePath(extension);
+        List<byte[]> messages = createMessages();
+        FileWriter fileWriter = factory.BuildFileWriter(tempLogFilePath, codec);
+        for (int i = 0; i < messages.size(); ++i) {
+            // Write messages as slices of a larger buffer.
+            byte[] message = messages.get(i);
+            byte[] buffer = new byte[message.length + 2];
+            System.arraycopy(message, 0, buffer, 1, message.length);
+            fileWriter.write(new KeyValue(100 + i, buffer, 1, message.length));
+        }
+        fileWriter.close();
+
+        FileReader fileReader = factory.BuildFileReader(tempLogFilePath, codec);
+        for (int i = 0; i < messages.size(); ++i) {
+            KeyValue kvout = fileReader.next();
+            assertEquals(100 + i, kvout.getKey());
+            assertArrayEquals(messages.get(i), kvout.getValue());
+        }
+        assertNull(fileReader.next());
+        fileReader.close();
+    }
+
+    @Test
+    public void testDelimitedTextReadWriteRoundTrip() throws Exception {
+        testRoundTrip(null, "");
+    }
+
+    @Test
+    public void testCompressedDelimitedTextReadWriteRoundTrip() throws Exception {
+        GzipCodec codec = new GzipCodec();
+        codec.setConf(new Configuration());
+        testRoundTrip(codec, codec.getDefaultExtension());
+    }
+
+    @Test
+    public void testMissingDelimiter() throws Exception {
+        DelimitedTextFileReaderWriterFactory factory = new DelimitedTextFileReaderWriterFactory();
+        LogFilePath tempLogFilePath = createTempLogFilePath("");
+        File file = new File(tempLogFilePath.getLogFilePath());
+        file.getParentFile().mkdirs();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write("complete\nincomplete".getBytes());
+        outputStream.close();
+
+        FileReader fileReader = factory.BuildFileReader(tempLogFilePath, null);
+        assertArrayEquals("complete".getBytes(), fileReader.next().getValue());
+        try {
+            fileReader.next();
+            fail("Expected EOFException");
+        } catch (EOFException e) {
+            // Expected.
+        }
+        fileReader.close();
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        DelimitedTextFileReaderWriterFactory factory = new DelimitedTextFileReaderWriterFactory();
+        LogFilePath tempLogFilePath = createTempLogFilePath("");
+        List<byte[]> messages = createMessages();
+        FileWriter fileWriter = factory.BuildFileWriter(tempLogFilePath, null);
+        for (int i = 0; i < 10; ++i) {
+            for (byte[] message : messages) {
+                fileWriter.write(new KeyValue(0, message));
+            }
+        }
+        fileWriter.close();
+
+        OffsetIndex index = OffsetIndex.read(tempLogFilePath);
+        assertEquals(10 * messages.size(), index.getMessageCount());
+        assertTrue(index.getEntries().size() > 1);
+        SeekableFileReader fileReader =
+            (SeekableFileReader) factory.BuildFileReader(tempLogFilePath, null);
+        for (int i = index.getEntries().size() - 1; i >= 0; --i) {
+            OffsetIndex.Entry entry = index.getEntries().get(i);
+            // Keys are assigned sequentially starting at the file offset.
+            assertTrue(entry.isContiguous());
+            fileReader.seek(entry);
+            KeyValue kvout = fileReader.next();
+            assertEquals(entry.getFirstOffset(), kvout.getKey());
+            assertArrayEquals(messages.get((int) (kvout.getKey() - 100) % messages.size()),
+                              kvout.getValue());
+        }
+        fileReader.close();
+    }
+
+    @Test
+    public void testAppendRaw() throws Exception {
+        DelimitedTextFileReaderWriterFactory factory = new DelimitedTextFileReaderWriterFactory();
+        LogFilePath srcLogFilePath = createTempLogFilePath("");
+        List<byte[]> messages = createMessages();
+        FileWriter fileWriter = factory.BuildFileWriter(srcLogFilePath, null);
+        for (int i = 0; i < 10; ++i) {
+            for (byte[] message : messages) {
+                fileWriter.write(new KeyValue(0, message));
+            }
+        }
+        fileWriter.close();
+
+        // Start in the middle of an index block.
+        long startOffset = 100 + 5 * messages.size() + 17;
+        LogFilePath dstLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic", new String[]{"part-1"}, 0, 1, startOffset, "");
+        RawFileWriter rawFileWriter =
+            (RawFileWriter) factory.BuildFileWriter(dstLogFilePath, null);
+        long copied = rawFileWriter.appendRaw(srcLogFilePath, startOffset);
+        assertEquals(100 + 10 * messages.size() - startOffset, copied);
+        rawFileWriter.close();
+
+        FileReader fileReader = factory.BuildFileReader(dstLogFilePath, null);
+        for (long offset = startOffset; offset < startOffset + copied; ++offset) {
+            KeyValue kvout = fileReader.next();
+            assertEquals(offset, kvout.getKey());
+            assertArrayEquals(messages.get((int) (offset - 100) % messages.size()),
+                              kvout.getValue());
+        }
+        assertNull(fileReader.next());
+        fileReader.close();
+        assertEquals(copied, OffsetIndex.read(dstLogFilePath).getMessageCount());
+
+        // Records of compressed files are not copied.
+        GzipCodec codec = new GzipCodec();
+        codec.setConf(new Configuration());
+        rawFileWriter = (RawFileWriter) factory.BuildFileWriter(
+            createTempLogFilePath(codec.getDefaultExtension()), codec);
+        assertEquals(-1, rawFileWriter.appendRaw(srcLogFilePath, startOffset));
+        rawFileWriter.close();
+    }
+}
@@ -18,19 +18,45 @@ package com.pinterest.secor.io.impl;
 
 import com.google.common.io.Files;
 import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class SequenceFileReaderWriterFactoryTest {
     private SequenceFileReaderWriterFactory mFactory;
 
+    @Before
     public void setUp() throws Exception {
         mFactory = new SequenceFileReaderWriterFactory();
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getOffsetIndexEnabled()).thenReturn(true);
+        OffsetIndex.configure(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        OffsetIndex.configure(null);
     }
 
     @Test
@@ -60,5 +86,225 @@ public class SequenceFileReaderWriterFactoryTest {
         assertArrayEquals(kv2.getValue(), kvout.getValue());
     }
 
+    @Test
+    public void testValuesOutliveNextRecord() throws Exception {
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory();
+        LogFilePath tempLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic", new String[]{"part-1"}, 0, 1, 0, ".log");
+        FileWriter fileWriter = factory.BuildFileWriter(tempLogFilePath, null);
+        // The reader grows its value buffer to 6 bytes for the first record so the following
+        // records fill the reused buffer exactly.
+        fileWriter.write(new KeyValue(1, new byte[]{1, 2, 3, 4}));
+        fileWriter.write(new KeyValue(2, new byte[]{5, 6, 7, 8, 9, 10}));
+        fileWriter.write(new KeyValue(3, new byte[]{11, 12, 13, 14, 15, 16}));
+        fileWriter.close();
+        FileReader fileReader = factory.BuildFileReader(tempLogFilePath, null);
+
+        fileReader.next();
+        byte[] value2 = fileReader.next().getValue();
+        byte[] value3 = fileReader.next().getValue();
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10}, value2);
+        assertArrayEquals(new byte[]{11, 12, 13, 14, 15, 16}, value3);
+        assertNull(fileReader.next());
+        fileReader.close();
+    }
+
+    @Test
+    public void testSequenceReadWriteSlices() throws Exception {
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory();
+        DefaultCodec codec = new DefaultCodec();
+        codec.setConf(new Configuration());
+        LogFilePath tempLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic",
+                new String[]{"part-1"},
+                0,
+                1,
+                0,
+                codec.getDefaultExtension()
+        );
+        byte[] buffer = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+        FileWriter fileWriter = factory.BuildFileWriter(tempLogFilePath, codec);
+        fileWriter.write(new KeyValue(-1L, buffer, 2, 3));
+        fileWriter.write(new KeyValue(Long.MAX_VALUE, buffer, 8, 0));
+        fileWriter.write(new KeyValue(1L << 40, buffer, 0, 8));
+        fileWriter.close();
+        FileReader fileReader = factory.BuildFileReader(tempLogFilePath, codec);
+
+        KeyValue kvout = fileReader.next();
+        assertEquals(-1L, kvout.getKey());
+        assertArrayEquals(new byte[]{3, 4, 5}, kvout.getValue());
+        kvout = fileReader.next();
+        assertEquals(Long.MAX_VALUE, kvout.getKey());
+        assertEquals(0, kvout.getValueLength());
+        kvout = fileReader.next();
+        assertEquals(1L << 40, kvout.getKey());
+        assertArrayEquals(buffer, kvout.getValue());
+        assertNull(fileReader.next());
+        fileReader.close();
+    }
+
+    @Test
+    public void testRecordCompressedReadWriteSlices() throws Exception {
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory();
+        LogFilePath tempLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic",
+                new String[]{"part-1"},
+                0,
+                1,
+                0,
+                ""
+        );
+        byte[] buffer = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+        // Without a codec, values are record compressed with the default codec.
+        FileWriter fileWriter = factory.BuildFileWriter(tempLogFilePath, null);
+        fileWriter.write(new KeyValue(1L, buffer, 2, 3));
+        fileWriter.write(new KeyValue(2L, buffer, 8, 0));
+        fileWriter.write(new KeyValue(3L, buffer, 0, 8));
+        fileWriter.close();
+
+        SequenceFile.Reader reader = new SequenceFile.Reader(FileSystem.getLocal(
+            new Configuration()), new Path(tempLogFilePath.getLogFilePath()),
+            new Configuration());
+        assertTrue(reader.isCompressed());
+        assertFalse(reader.isBlockCompressed());
+        reader.close();
+
+        FileReader fileReader = factory.BuildFileReader(tempLogFilePath, null);
+        KeyValue kvout = fileReader.next();
+        assertEquals(1L, kvout.getKey());
+        assertArrayEquals(new byte[]{3, 4, 5}, kvout.getValue());
+        kvout = fileReader.next();
+        assertEquals(2L, kvout.getKey());
+        assertEquals(0, kvout.getValueLength());
+        kvout = fileReader.next();
+        assertEquals(3L, kvout.getKey());
+        assertArrayEquals(buffer, kvout.getValue());
+        assertNull(fileReader.next());
+        fileReader.close();
+    }
+
+    private void testIndex(CompressionCodec codec) throws Exception {
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory();
+        LogFilePath tempLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic",
+                new String[]{"part-1"},
+                0,
+                1,
+                0,
+                codec == null ? "" : codec.getDefaultExtension()
+        );
+        // Enough data for a few index blocks.  Offsets are contiguous in the first half only.
+        byte[] value = new byte[1024];
+        FileWriter fileWriter = factory.BuildFileWriter(tempLogFilePath, codec);
+        for (int i = 0; i < 4000; ++i) {
+            fileWriter.write(new KeyValue(i < 2000 ? i : 2 * i, value));
+        }
+        fileWriter.close();
+
+        OffsetIndex index = OffsetIndex.read(tempLogFilePath);
+        assertEquals(4000, index.getMessageCount());
+        assertEquals(4, index.getEntries().size());
+        assertTrue(index.getEntries().get(0).isContiguous());
+        assertFalse(index.getEntries().get(3).isContiguous());
+        assertSame(index.getEntries().get(3), index.findEntry(7000));
+        assertNull(index.findEntry(8000));
+
+        SeekableFileReader fileReader =
+            (SeekableFileReader) factory.BuildFileReader(tempLogFilePath, codec);
+        for (int i = index.getEntries().size() - 1; i >= 0; --i) {
+            OffsetIndex.Entry entry = index.getEntries().get(i);
+            fileReader.seek(entry);
+            assertEquals(entry.getFirstOffset(), fileReader.next().getKey());
+        }
+        fileReader.close();
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void testIndex() throws Exception {
+        testIndex(null);
+    }
+
+    @Test
+    public void testCompressedIndex() throws Exception {
+        DefaultCodec codec = new DefaultCodec();
+        codec.setConf(new Configuration());
+        testIndex(codec);
+    }
+
+    private void testAppendRaw(CompressionCodec codec) throws Exception {
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory();
+        String extension = codec == null ? "" : codec.getDefaultExtension();
+        LogFilePath srcLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic", new String[]{"part-1"}, 0, 1, 0, extension);
+        LogFilePath dstLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic", new String[]{"part-1"}, 0, 1, 2500, extension);
+        FileWriter fileWriter = factory.BuildFileWriter(srcLogFilePath, codec);
+        for (int i = 0; i < 4000; ++i) {
+            byte[] value = new byte[1024];
+            value[i % value.length] = (byte) i;
+            fileWriter.write(new KeyValue(i, value));
+        }
+        fileWriter.close();
+
+        RawFileWriter rawFileWriter =
+            (RawFileWriter) factory.BuildFileWriter(dstLogFilePath, codec);
+        assertEquals(1500, rawFileWriter.appendRaw(srcLogFilePath, 2500));
+        // Regular writes may follow raw ones.
+        rawFileWriter.write(new KeyValue(4000, new byte[]{1, 2, 3}));
+        rawFileWriter.close();
+
+        FileReader fileReader = factory.BuildFileReader(dstLogFilePath, codec);
+        for (int i = 2500; i < 4000; ++i) {
+            KeyValue kvout = fileReader.next();
+            assertEquals(i, kvout.getKey());
+            assertEquals(1024, kvout.getValueLength());
+            assertEquals((byte) i, kvout.getValue()[i % 1024]);
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, fileReader.next().getValue());
+        assertNull(fileReader.next());
+        fileReader.close();
+        assertEquals(1501, OffsetIndex.read(dstLogFilePath).getMessageCount());
+    }
+
+    @Test
+    public void testAppendRaw() throws Exception {
+        testAppendRaw(null);
+    }
+
+    @Test
+    public void testAppendRawWithoutIndex() throws Exception {
+        OffsetIndex.configure(null);
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory();
+        LogFilePath srcLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic", new String[]{"part-1"}, 0, 1, 0, "");
+        LogFilePath dstLogFilePath = new LogFilePath(Files.createTempDir().toString(),
+                "test-topic", new String[]{"part-1"}, 0, 1, 20, "");
+        FileWriter fileWriter = factory.BuildFileWriter(srcLogFilePath, null);
+        for (int i = 0; i < 30; ++i) {
+            fileWriter.write(new KeyValue(i, new byte[]{(byte) i}));
+        }
+        fileWriter.close();
+        assertNull(OffsetIndex.read(srcLogFilePath));
+
+        // Records preceding the start offset are skipped by scanning the file.
+        RawFileWriter rawFileWriter =
+            (RawFileWriter) factory.BuildFileWriter(dstLogFilePath, null);
+        assertEquals(10, rawFileWriter.appendRaw(srcLogFilePath, 20));
+        rawFileWriter.close();
+        assertNull(OffsetIndex.read(dstLogFilePath));
+
+        FileReader fileReader = factory.BuildFileReader(dstLogFilePath, null);
+        for (int i = 20; i < 30; ++i) {
+            assertEquals(i, fileReader.next().getKey());
+        }
+        assertNull(fileReader.next());
+        fileReader.close();
+    }
+
+    @Test
+    public void testCompressedAppendRaw() throws Exception {
+        DefaultCodec codec = new DefaultCodec();
+        codec.setConf(new Configuration());
+        testAppendRaw(codec);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.thrift.TestMessage;
+import junit.framework.TestCase;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.thrift.TSerializer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.HashMap;
+
+@RunWith(PowerMockRunner.class)
+public class CompositeMessageParserTest extends TestCase {
+    private SecorConfig mConfig;
+    private byte[] mJsonPayload;
+    private byte[] mMessagePackPayload;
+    private byte[] mThriftPayload;
+
+    @Override
+    public void setUp() throws Exception {
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMessageTimestampName()).thenReturn("timestamp");
+        Mockito.when(mConfig.getMessageTimestampId()).thenReturn("1");
+        Mockito.when(mConfig.getOffsetsPerPartition()).thenReturn(10000000L);
+        Mockito.when(mConfig.getMessageParserRoutes()).thenReturn(new String[]{
+            "offsets_.*:com.pinterest.secor.parser.OffsetMessageParser"});
+
+        mJsonPayload = "{\"timestamp\":1405970352123}".getBytes("UTF-8");
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("timestamp", 1405970352123L);
+        mMessagePackPayload = new ObjectMapper(new MessagePackFactory()).writeValueAsBytes(map);
+        mThriftPayload = new TSerializer().serialize(new TestMessage(1405970352123L, "value"));
+    }
+
+    @Test
+    public void testSniffParserClass() throws Exception {
+        assertEquals(JsonMessageParser.class.getName(),
+                     CompositeMessageParser.sniffParserClass(mJsonPayload));
+        assertEquals(JsonMessageParser.class.getName(),
+                     CompositeMessageParser.sniffParserClass(" \n{}".getBytes("UTF-8")));
+        assertEquals(MessagePackParser.class.getName(),
+                     CompositeMessageParser.sniffParserClass(mMessagePackPayload));
+        assertEquals(ThriftMessageParser.class.getName(),
+                     CompositeMessageParser.sniffParserClass(mThriftPayload));
+        assertNull(CompositeMessageParser.sniffParserClass(new byte[0]));
+        assertNull(CompositeMessageParser.sniffParserClass("plain text".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        CompositeMessageParser parser = new CompositeMessageParser(mConfig);
+
+        Message offsetsMessage = new Message("offsets_topic", 0, 20000000L, mJsonPayload);
+        assertTrue(parser.getParser(offsetsMessage) instanceof OffsetMessageParser);
+        assertEquals("offset=20000000", parser.parse(offsetsMessage).getPartitions()[0]);
+
+        Message jsonMessage = new Message("json_topic", 0, 0, mJsonPayload);
+        Message messagePackMessage = new Message("msgpack_topic", 0, 0, mMessagePackPayload);
+        Message thriftMessage = new Message("thrift_topic", 0, 0, mThriftPayload);
+        assertTrue(parser.getParser(jsonMessage) instanceof JsonMessageParser);
+        assertTrue(parser.getParser(messagePackMessage) instanceof MessagePackParser);
+        assertTrue(parser.getParser(thriftMessage) instanceof ThriftMessageParser);
+        assertEquals("dt=2014-07-21", parser.extractPartitions(jsonMessage)[0]);
+        assertEquals("dt=2014-07-21", parser.extractPartitions(messagePackMessage)[0]);
+        assertEquals("dt=2014-07-21", parser.extractPartitions(thriftMessage)[0]);
+
+        // The route of a topic is fixed by its first message.
+        Message otherJsonMessage = new Message("thrift_topic", 0, 1, mJsonPayload);
+        assertSame(parser.getParser(thriftMessage), parser.getParser(otherJsonMessage));
+    }
+
+    @Test
+    public void testRoutesWithCommas() throws Exception {
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.setProperty("message.timestamp.name", "timestamp");
+        properties.setProperty("message.timestamp.id", "1");
+        properties.setProperty("secor.offsets.per.partition", "10000000");
+        properties.setProperty("secor.message.parser.routes",
+                               "offsets_[a-z]{1,10}:com.pinterest.secor.parser.OffsetMessageParser " +
+                               "json_.*:com.pinterest.secor.parser.JsonMessageParser");
+        CompositeMessageParser parser = new CompositeMessageParser(new SecorConfig(properties));
+
+        Message offsetsMessage = new Message("offsets_topic", 0, 20000000L, mJsonPayload);
+        assertTrue(parser.getParser(offsetsMessage) instanceof OffsetMessageParser);
+        Message jsonMessage = new Message("json_topic", 0, 0, mThriftPayload);
+        assertTrue(parser.getParser(jsonMessage) instanceof JsonMessageParser);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownFormat() throws Exception {
+        CompositeMessageParser parser = new CompositeMessageParser(mConfig);
+        parser.parse(new Message("text_topic", 0, 0, "plain text".getBytes("UTF-8")));
+    }
+}
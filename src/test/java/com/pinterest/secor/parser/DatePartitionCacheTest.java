@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import junit.framework.TestCase;
+
+import java.util.TimeZone;
+
+public class DatePartitionCacheTest extends TestCase {
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+    public void testUtc() throws Exception {
+        DatePartitionCache cache = new DatePartitionCache(TimeZone.getTimeZone("UTC"));
+        // 2014-07-21T19:19:12Z
+        String[] partitions = cache.getPartitions(1405970352000L);
+        assertEquals(1, partitions.length);
+        assertEquals("dt=2014-07-21", partitions[0]);
+        // Same day, same array.
+        assertSame(partitions, cache.getPartitions(1405970352000L - 19 * 60 * 60 * 1000L));
+        assertEquals("dt=2014-07-22", cache.getPartitions(1405970352000L + 5 * 60 * 60 * 1000L)[0]);
+        // Back to the previous day after a day that maps to the same cache slot.
+        assertEquals("dt=2014-08-06", cache.getPartitions(1405970352000L + 16 * MILLIS_PER_DAY)[0]);
+        assertEquals("dt=2014-07-21", cache.getPartitions(1405970352000L)[0]);
+
+        assertEquals("dt=1970-01-01", cache.getPartitions(0)[0]);
+        assertEquals("dt=1969-12-31", cache.getPartitions(-1)[0]);
+    }
+
+    public void testTimeZone() throws Exception {
+        DatePartitionCache cache =
+            new DatePartitionCache(TimeZone.getTimeZone("America/Los_Angeles"));
+        // 2014-07-21T19:19:12Z is 2014-07-21T12:19:12 PDT.
+        assertEquals("dt=2014-07-21", cache.getPartitions(1405970352000L)[0]);
+        // 2014-07-22T05:00:00Z is 2014-07-21T22:00:00 PDT.
+        assertEquals("dt=2014-07-21", cache.getPartitions(1405990800000L)[0]);
+        // 2014-07-22T08:00:00Z is 2014-07-22T01:00:00 PDT.
+        assertEquals("dt=2014-07-22", cache.getPartitions(1406016000000L)[0]);
+    }
+}
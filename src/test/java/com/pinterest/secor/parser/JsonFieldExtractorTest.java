@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import junit.framework.TestCase;
+
+public class JsonFieldExtractorTest extends TestCase {
+    private JsonFieldExtractor mExtractor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExtractor = new JsonFieldExtractor("timestamp");
+    }
+
+    private String extract(String json) throws Exception {
+        return mExtractor.extract(json.getBytes("UTF-8"));
+    }
+
+    private void assertUnsupported(String json) throws Exception {
+        try {
+            extract(json);
+            fail("Expected UnsupportedInputException for " + json);
+        } catch (JsonFieldExtractor.UnsupportedInputException e) {
+            // Expected.
+        }
+    }
+
+    public void testExtract() throws Exception {
+        assertEquals("1405970352", extract("{\"timestamp\":\"1405970352\"}"));
+        assertEquals("1405970352123.0", extract(" { \"timestamp\" : 1405970352123.0 } "));
+        assertEquals("-1", extract("{\"id\":0,\"timestamp\":-1}"));
+        assertEquals("true", extract("{\"timestamp\":true}"));
+        assertNull(extract("{\"timestamp\":null}"));
+        assertNull(extract("{}"));
+        assertNull(extract("{\"id\":1}"));
+        assertNull(extract("{\"timestamps\":1,\"time\":2}"));
+    }
+
+    public void testSkipNestedValues() throws Exception {
+        assertEquals("5", extract(
+            "{\"a\":{\"timestamp\":1,\"b\":[1,{\"c\":\"}]\"}]},\"s\":\"\\\"timestamp\\\":2\"," +
+            "\"timestamp\":5}"));
+    }
+
+    public void testEscapes() throws Exception {
+        assertEquals("a\"b\\c/é\n", extract(
+            "{\"timestamp\":\"a\\\"b\\\\c\\/\\u00e9\\n\"}"));
+        assertEquals("7", extract("{\"time\\u0073tamp\":7}"));
+        assertEquals("zéz", extract("{\"timestamp\":\"zéz\"}"));
+    }
+
+    public void testUnsupported() throws Exception {
+        assertUnsupported("");
+        assertUnsupported("[]");
+        assertUnsupported("{'timestamp':1}");
+        assertUnsupported("{\"timestamp\":{\"seconds\":1}}");
+        assertUnsupported("{\"timestamp\":[1]}");
+        assertUnsupported("{\"id\":\"unterminated");
+        assertUnsupported("{\"id\":1 \"timestamp\":2}");
+    }
+}
@@ -27,7 +27,9 @@ import org.mockito.Mockito;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 @RunWith(PowerMockRunner.class)
 public class MessagePackParserTest extends TestCase {
@@ -90,6 +92,23 @@ public class MessagePackParserTest extends TestCase {
                 mMessageWithMillisStringTimestamp));
     }
 
+    @Test
+    public void testSkipNestedValues() throws Exception {
+        HashMap<String, Object> nested = new HashMap<String, Object>();
+        nested.put("ts", 1L);
+        nested.put("list", Arrays.asList(1, "two", 3.0));
+        LinkedHashMap<String, Object> mapWithNestedValues = new LinkedHashMap<String, Object>();
+        mapWithNestedValues.put("blob", new byte[4096]);
+        mapWithNestedValues.put("nested", nested);
+        mapWithNestedValues.put("tsx", 2L);
+        mapWithNestedValues.put("ts", 1405970352123L);
+        mapWithNestedValues.put("after", "ignored");
+        Message messageWithNestedValues = new Message("test", 0, 0,
+                mObjectMapper.writeValueAsBytes(mapWithNestedValues));
+        assertEquals(1405970352123l, mMessagePackParser.extractTimestampMillis(
+                messageWithNestedValues));
+    }
+
     @Test(expected=NullPointerException.class)
     public void testMissingTimestamp() throws Exception {
         HashMap<String, Object> mapWithoutTimestamp = new HashMap<String, Object>();
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.parser;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.thrift.TestEnum;
+import com.pinterest.secor.thrift.TestMessage;
+import junit.framework.TestCase;
+import org.apache.thrift.TSerializer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class ThriftMessageParserTest extends TestCase {
+    private SecorConfig mConfig;
+    private Message mMessage;
+
+    @Override
+    public void setUp() throws Exception {
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMessageTimestampName()).thenReturn("timestamp");
+
+        TestMessage testMessage = new TestMessage(1405970352123L, "some_value");
+        testMessage.setOptionalField("some_optional_value");
+        testMessage.setEnumField(TestEnum.SOME_OTHER_VALUE);
+        mMessage = new Message("test", 0, 0, new TSerializer().serialize(testMessage));
+    }
+
+    @Test
+    public void testExtractTimestampMillis() throws Exception {
+        Mockito.when(mConfig.getMessageTimestampId()).thenReturn("1");
+        ThriftMessageParser parser = new ThriftMessageParser(mConfig);
+
+        assertEquals(1405970352123L, parser.extractTimestampMillis(mMessage));
+        // Templates are reused across messages.
+        assertEquals(1405970352123L, parser.extractTimestampMillis(mMessage));
+    }
+
+    @Test
+    public void testDefaultTimestampId() throws Exception {
+        Mockito.when(mConfig.getMessageTimestampId()).thenReturn("");
+        ThriftMessageParser parser = new ThriftMessageParser(mConfig);
+
+        assertEquals(1405970352123L, parser.extractTimestampMillis(mMessage));
+    }
+
+    @Test
+    public void testExtractPartitions() throws Exception {
+        Mockito.when(mConfig.getMessageTimestampId()).thenReturn("1");
+        ThriftMessageParser parser = new ThriftMessageParser(mConfig);
+
+        String partitions[] = parser.extractPartitions(mMessage);
+        assertEquals(1, partitions.length);
+        assertEquals("dt=2014-07-21", partitions[0]);
+    }
+}
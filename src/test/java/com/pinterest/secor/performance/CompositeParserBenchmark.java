@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.performance;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.parser.CompositeMessageParser;
+import com.pinterest.secor.parser.JsonMessageParser;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.util.Random;
+
+/**
+ * Measures the routing overhead of CompositeMessageParser by comparing it against a
+ * JsonMessageParser invoked directly on the same messages spread over multiple topics.
+ *
+ * Run:
+ *     java -cp "secor-0.1-SNAPSHOT-tests.jar:lib/*:secor-0.1-SNAPSHOT.jar" \
+ *         com.pinterest.secor.performance.CompositeParserBenchmark [num_messages] [iterations] \
+ *         [num_topics]
+ */
+public class CompositeParserBenchmark {
+    public static void main(String[] args) throws Exception {
+        int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int numTopics = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.setProperty("message.timestamp.name", "timestamp");
+        properties.setProperty("message.timestamp.id", "1");
+        properties.setProperty("secor.message.parser.routes",
+                               "routed_.*:com.pinterest.secor.parser.JsonMessageParser");
+        SecorConfig config = new SecorConfig(properties);
+        JsonMessageParser directParser = new JsonMessageParser(config);
+        CompositeMessageParser compositeParser = new CompositeMessageParser(config);
+
+        // Half of the topics are routed by regex, the other half by sniffing.
+        String[] topics = new String[numTopics];
+        for (int i = 0; i < numTopics; ++i) {
+            topics[i] = (i % 2 == 0 ? "routed_" : "sniffed_") + i;
+        }
+        Random random = new Random(0);
+        Message[] messages = new Message[numMessages];
+        for (int i = 0; i < numMessages; ++i) {
+            String payload = "{\"timestamp\":" + (1405970352000L + random.nextInt(1000000)) +
+                ",\"id\":" + i + "}";
+            // Messages of a topic arrive in runs like they do in Kafka fetch responses.
+            String topic = topics[(i / 64) % numTopics];
+            messages[i] = new Message(topic, 0, i, payload.getBytes("UTF-8"));
+        }
+
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (Message message : messages) {
+                checksum += directParser.parse(message).getPartitions()[0].length();
+            }
+            long directNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Message message : messages) {
+                checksum -= compositeParser.parse(message).getPartitions()[0].length();
+            }
+            long compositeNanos = System.nanoTime() - start;
+
+            if (checksum != 0) {
+                throw new IllegalStateException("Partition mismatch, checksum " + checksum);
+            }
+            System.out.println(String.format(
+                "iteration %d: direct %.0f ns/msg, composite %.0f ns/msg, overhead %.0f ns/msg",
+                iteration, (double) directNanos / numMessages,
+                (double) compositeNanos / numMessages,
+                (double) (compositeNanos - directNanos) / numMessages));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.performance;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.io.FileReader;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.impl.DelimitedTextFileReaderWriterFactory;
+import com.pinterest.secor.util.FileUtil;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Compares DelimitedTextFileReader against a reader consuming the stream one byte at a time, on
+ * uncompressed and gzip-compressed files.
+ *
+ * Run:
+ *     java -cp "secor-0.1-SNAPSHOT-tests.jar:lib/*:secor-0.1-SNAPSHOT.jar" \
+ *         com.pinterest.secor.performance.DelimitedTextReaderBenchmark [num_messages] \
+ *         [iterations] [message_size]
+ */
+public class DelimitedTextReaderBenchmark {
+    private static LogFilePath writeFile(int numMessages, int messageSize, CompressionCodec codec)
+            throws Exception {
+        String extension = codec == null ? "" : codec.getDefaultExtension();
+        LogFilePath path = new LogFilePath(Files.createTempDir().toString(), "test",
+                                           new String[]{"part-1"}, 0, 0, 0, extension);
+        Random random = new Random(0);
+        FileWriter writer = new DelimitedTextFileReaderWriterFactory().BuildFileWriter(path, codec);
+        for (int i = 0; i < numMessages; ++i) {
+            byte[] message = new byte[random.nextInt(messageSize * 2) + 1];
+            for (int j = 0; j < message.length; ++j) {
+                message[j] = (byte) ('a' + random.nextInt(26));
+            }
+            writer.write(new KeyValue(i, message));
+        }
+        writer.close();
+        return path;
+    }
+
+    // The reader DelimitedTextFileReader used before it switched to bulk reads.
+    private static long readByteAtATime(LogFilePath path, CompressionCodec codec)
+            throws IOException {
+        FileSystem fs = FileUtil.getFileSystem(path.getLogFilePath());
+        InputStream inputStream = fs.open(new Path(path.getLogFilePath()));
+        BufferedInputStream reader = new BufferedInputStream(
+            codec == null ? inputStream : codec.createInputStream(inputStream));
+        long bytes = 0;
+        try {
+            while (true) {
+                ByteArrayOutputStream messageBuffer = new ByteArrayOutputStream();
+                int nextByte;
+                while ((nextByte = reader.read()) != '\n') {
+                    if (nextByte == -1) {
+                        return bytes;
+                    }
+                    messageBuffer.write(nextByte);
+                }
+                bytes += messageBuffer.toByteArray().length;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static long readBulk(LogFilePath path, CompressionCodec codec) throws Exception {
+        FileReader reader = new DelimitedTextFileReaderWriterFactory().BuildFileReader(path, codec);
+        long bytes = 0;
+        try {
+            KeyValue keyValue;
+            while ((keyValue = reader.next()) != null) {
+                bytes += keyValue.getValue().length;
+            }
+        } finally {
+            reader.close();
+        }
+        return bytes;
+    }
+
+    private static void run(String name, LogFilePath path, CompressionCodec codec, int iterations)
+            throws Exception {
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            long start = System.nanoTime();
+            long byteAtATimeBytes = readByteAtATime(path, codec);
+            long byteAtATimeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long bulkBytes = readBulk(path, codec);
+            long bulkNanos = System.nanoTime() - start;
+
+            if (byteAtATimeBytes != bulkBytes) {
+                throw new IllegalStateException("Size mismatch " + byteAtATimeBytes + " != " +
+                                                bulkBytes);
+            }
+            System.out.println(String.format(
+                "%s iteration %d: byte-at-a-time %.1f MB/s, bulk %.1f MB/s, speedup %.1fx",
+                name, iteration, bulkBytes * 1000.0 / byteAtATimeNanos,
+                bulkBytes * 1000.0 / bulkNanos, (double) byteAtATimeNanos / bulkNanos));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int messageSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        run("uncompressed", writeFile(numMessages, messageSize, null), null, iterations);
+        GzipCodec codec = new GzipCodec();
+        codec.setConf(new Configuration());
+        run("gzip", writeFile(numMessages, messageSize, codec), codec, iterations);
+    }
+}
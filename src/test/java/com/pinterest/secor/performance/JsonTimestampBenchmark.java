@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.performance;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.parser.JsonMessageParser;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+import java.util.Random;
+
+/**
+ * Compares timestamp extraction with the byte-scanning JsonFieldExtractor used by
+ * JsonMessageParser against building a full json-smart object tree.
+ *
+ * Run:
+ *     java -cp "secor-0.1-SNAPSHOT-tests.jar:lib/*:secor-0.1-SNAPSHOT.jar" \
+ *         com.pinterest.secor.performance.JsonTimestampBenchmark [num_messages] [iterations]
+ */
+public class JsonTimestampBenchmark {
+    private static final String TIMESTAMP_NAME = "timestamp";
+
+    private static Message[] createMessages(int numMessages, Random random) throws Exception {
+        Message[] messages = new Message[numMessages];
+        for (int i = 0; i < numMessages; ++i) {
+            // Payloads between 2 and 10 KB with the timestamp in a random position.
+            int targetSize = 2048 + random.nextInt(8 * 1024);
+            int timestampPosition = random.nextInt(4);
+            StringBuilder json = new StringBuilder(targetSize + 256);
+            json.append('{');
+            int field = 0;
+            while (json.length() < targetSize) {
+                if (field == timestampPosition) {
+                    json.append("\"" + TIMESTAMP_NAME + "\":" +
+                                (1405970352000L + random.nextInt(1000000)) + ',');
+                }
+                json.append("\"field" + field + "\":");
+                switch (field % 4) {
+                    case 0:
+                        json.append("\"some moderately long string value with \\\"escapes\\\" " +
+                                    random.nextLong() + "\"");
+                        break;
+                    case 1:
+                        json.append(random.nextDouble());
+                        break;
+                    case 2:
+                        json.append("[1,2,3,{\"nested\":\"value\",\"flag\":true}]");
+                        break;
+                    default:
+                        json.append("{\"id\":" + random.nextInt() + ",\"name\":\"nested\"}");
+                }
+                json.append(',');
+                field++;
+            }
+            json.append("\"last\":null}");
+            messages[i] = new Message("test", 0, i, json.toString().getBytes("UTF-8"));
+        }
+        return messages;
+    }
+
+    private static long extractWithTree(Message message) {
+        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
+        Object fieldValue = jsonObject.get(TIMESTAMP_NAME);
+        return Double.valueOf(fieldValue.toString()).longValue();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.setProperty("message.timestamp.name", TIMESTAMP_NAME);
+        JsonMessageParser parser = new JsonMessageParser(new SecorConfig(properties));
+        Message[] messages = createMessages(numMessages, new Random(0));
+        long totalBytes = 0;
+        for (Message message : messages) {
+            totalBytes += message.getPayload().length;
+            if (parser.extractTimestampMillis(message) != extractWithTree(message)) {
+                throw new IllegalStateException("Timestamp mismatch for message " + message);
+            }
+        }
+
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (Message message : messages) {
+                checksum += extractWithTree(message);
+            }
+            long treeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Message message : messages) {
+                checksum -= parser.extractTimestampMillis(message);
+            }
+            long scanNanos = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                "iteration %d: json-smart %.1f MB/s (%.0f ns/msg), scanner %.1f MB/s " +
+                "(%.0f ns/msg), speedup %.1fx, checksum %d",
+                iteration, totalBytes * 1000.0 / treeNanos, (double) treeNanos / numMessages,
+                totalBytes * 1000.0 / scanNanos, (double) scanNanos / numMessages,
+                (double) treeNanos / scanNanos, checksum));
+        }
+    }
+}
@@ -194,7 +194,8 @@ public class PerformanceTest {
      * @return
      */
     private static Map<TopicPartition, Long> getTopicMetadata(
-            List<String> topics, int num_partitions, SecorConfig config) {
+            List<String> topics, int num_partitions, SecorConfig config)
+            throws Exception {
         KafkaClient mKafkaClient = new KafkaClient(config);
 
         Map<TopicPartition, Long> lastOffsets = Maps.newHashMap();
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.performance;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.parser.ThriftMessageParser;
+import com.pinterest.secor.thrift.TestEnum;
+import com.pinterest.secor.thrift.TestMessage;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+
+import java.util.Random;
+
+/**
+ * Compares timestamp extraction with the partial deserialization used by ThriftMessageParser
+ * against full deserialization of TestMessage.
+ *
+ * Run:
+ *     java -cp "secor-0.1-SNAPSHOT-tests.jar:lib/*:secor-0.1-SNAPSHOT.jar" \
+ *         com.pinterest.secor.performance.ThriftTimestampBenchmark [num_messages] [iterations] \
+ *         [string_field_size]
+ */
+public class ThriftTimestampBenchmark {
+    private static String randomString(Random random, int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            result.append((char) ('a' + random.nextInt(26)));
+        }
+        return result.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int stringFieldSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.setProperty("message.timestamp.name", "timestamp");
+        properties.setProperty("message.timestamp.id", "1");
+        ThriftMessageParser parser = new ThriftMessageParser(new SecorConfig(properties));
+
+        Random random = new Random(0);
+        TSerializer serializer = new TSerializer();
+        Message[] messages = new Message[numMessages];
+        long totalBytes = 0;
+        for (int i = 0; i < numMessages; ++i) {
+            TestMessage testMessage = new TestMessage(1405970352000L + random.nextInt(1000000),
+                                                      randomString(random, stringFieldSize));
+            testMessage.setOptionalField(randomString(random, stringFieldSize));
+            testMessage.setEnumField(TestEnum.SOME_VALUE);
+            messages[i] = new Message("test", 0, i, serializer.serialize(testMessage));
+            totalBytes += messages[i].getPayload().length;
+        }
+
+        TDeserializer deserializer = new TDeserializer();
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (Message message : messages) {
+                TestMessage testMessage = new TestMessage();
+                deserializer.deserialize(testMessage, message.getPayload());
+                checksum += testMessage.getTimestamp();
+            }
+            long fullNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Message message : messages) {
+                checksum -= parser.extractTimestampMillis(message);
+            }
+            long partialNanos = System.nanoTime() - start;
+
+            if (checksum != 0) {
+                throw new IllegalStateException("Timestamp mismatch, checksum " + checksum);
+            }
+            System.out.println(String.format(
+                "iteration %d: full %.1f MB/s (%.0f ns/msg), partial %.1f MB/s (%.0f ns/msg), " +
+                "speedup %.1fx",
+                iteration, totalBytes * 1000.0 / fullNanos, (double) fullNanos / numMessages,
+                totalBytes * 1000.0 / partialNanos, (double) partialNanos / numMessages,
+                (double) fullNanos / partialNanos));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.reader;
+
+import com.pinterest.secor.common.OffsetTracker;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+import com.pinterest.secor.common.TopicPartitionRegistry;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.util.RateLimitUtil;
+
+import junit.framework.TestCase;
+
+import kafka.consumer.Consumer;
+import kafka.consumer.ConsumerConfig;
+import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
+import kafka.consumer.KafkaStream;
+import kafka.consumer.TopicFilter;
+import kafka.javaapi.consumer.ConsumerConnector;
+import kafka.message.MessageAndMetadata;
+
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MessageReaderTest tests reading message batches from a mocked Kafka stream.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Consumer.class})
+@PowerMockIgnore({"javax.management.*"})
+public class MessageReaderTest extends TestCase {
+    private SecorConfig mConfig;
+    private OffsetTracker mOffsetTracker;
+    private ConsumerConnector mConsumerConnector;
+    private ConsumerIterator<byte[], byte[]> mIterator;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        super.setUp();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getKafkaTopicFilter()).thenReturn(".*");
+        Mockito.when(mConfig.getKafkaGroup()).thenReturn("some_group");
+        Mockito.when(mConfig.getZookeeperQuorum()).thenReturn("some_host:2181");
+        Mockito.when(mConfig.getKafkaZookeeperPath()).thenReturn("/");
+        Mockito.when(mConfig.getConsumerTimeoutMs()).thenReturn(10000);
+        Mockito.when(mConfig.getConsumerBatchMaxMessages()).thenReturn(10);
+        Mockito.when(mConfig.getConsumerBatchMaxBytes()).thenReturn(1000L);
+        Mockito.when(mConfig.getConsumerBatchMaxWaitMs()).thenReturn(10);
+        Mockito.when(mConfig.getTopicPartitionForgetSeconds()).thenReturn(600);
+        Mockito.when(mConfig.getMessagesPerSecond()).thenReturn(1000000);
+        RateLimitUtil.configure(mConfig);
+
+        mOffsetTracker = new OffsetTracker(new TopicPartitionRegistry());
+
+        mIterator = Mockito.mock(ConsumerIterator.class);
+        KafkaStream<byte[], byte[]> stream = Mockito.mock(KafkaStream.class);
+        Mockito.when(stream.iterator()).thenReturn(mIterator);
+        mConsumerConnector = Mockito.mock(ConsumerConnector.class);
+        Mockito.when(mConsumerConnector.createMessageStreamsByFilter(
+            Mockito.any(TopicFilter.class))).thenReturn(Arrays.asList(stream));
+        PowerMockito.mockStatic(Consumer.class);
+        Mockito.when(Consumer.createJavaConsumerConnector(Mockito.any(ConsumerConfig.class)))
+            .thenReturn(mConsumerConnector);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MessageAndMetadata<byte[], byte[]> createMessage(long offset, int size) {
+        MessageAndMetadata<byte[], byte[]> message = Mockito.mock(MessageAndMetadata.class);
+        Mockito.when(message.topic()).thenReturn("some_topic");
+        Mockito.when(message.partition()).thenReturn(0);
+        Mockito.when(message.offset()).thenReturn(offset);
+        Mockito.when(message.message()).thenReturn(new byte[size]);
+        return message;
+    }
+
+    // The iterator holds the given number of messages of the given size with consecutive offsets
+    // starting at 0 and times out once they are consumed.
+    private void setUpMessages(int numMessages, int size) {
+        final MessageAndMetadata[] messages = new MessageAndMetadata[numMessages];
+        for (int i = 0; i < numMessages; ++i) {
+            messages[i] = createMessage(i, size);
+        }
+        final int[] next = new int[]{0};
+        Mockito.when(mIterator.hasNext()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                if (next[0] == messages.length) {
+                    throw new ConsumerTimeoutException();
+                }
+                return true;
+            }
+        });
+        Mockito.when(mIterator.next()).thenAnswer(new Answer<MessageAndMetadata>() {
+            @Override
+            public MessageAndMetadata answer(InvocationOnMock invocation) throws Throwable {
+                return messages[next[0]++];
+            }
+        });
+    }
+
+    private MessageReader createReader() throws Exception {
+        return new MessageReader(mConfig, mOffsetTracker);
+    }
+
+    public void testIteratorTimesOutAfterBatchWait() throws Exception {
+        createReader();
+
+        ArgumentCaptor<ConsumerConfig> config = ArgumentCaptor.forClass(ConsumerConfig.class);
+        PowerMockito.verifyStatic();
+        Consumer.createJavaConsumerConnector(config.capture());
+        assertEquals(10, config.getValue().consumerTimeoutMs());
+    }
+
+    public void testReadBatchMaxMessages() throws Exception {
+        Mockito.when(mConfig.getConsumerBatchMaxMessages()).thenReturn(3);
+        setUpMessages(5, 1);
+        MessageReader reader = createReader();
+
+        assertTrue(reader.hasNext());
+        assertOffsets(reader.readBatch(), 0, 1, 2);
+        assertTrue(reader.hasNext());
+        assertOffsets(reader.readBatch(), 3, 4);
+    }
+
+    public void testReadBatchMaxBytes() throws Exception {
+        Mockito.when(mConfig.getConsumerBatchMaxBytes()).thenReturn(8L);
+        setUpMessages(5, 4);
+        MessageReader reader = createReader();
+
+        assertTrue(reader.hasNext());
+        assertOffsets(reader.readBatch(), 0, 1);
+    }
+
+    public void testReadBatchSkipsCommittedMessages() throws Exception {
+        setUpMessages(4, 1);
+        mOffsetTracker.setCommittedOffsetCount(new TopicPartition("some_topic", 0), 2);
+        MessageReader reader = createReader();
+
+        assertTrue(reader.hasNext());
+        assertOffsets(reader.readBatch(), 2, 3);
+    }
+
+    public void testReadBatchDoesNotSkipCommittedMessagesIfAsked() throws Exception {
+        setUpMessages(4, 1);
+        mOffsetTracker.setCommittedOffsetCount(new TopicPartition("some_topic", 0), 2);
+        MessageReader reader = createReader();
+
+        assertTrue(reader.hasNext());
+        assertOffsets(reader.readBatch(false), 0, 1, 2, 3);
+    }
+
+    public void testReadBatchReturnsPartialBatchOnTimeout() throws Exception {
+        setUpMessages(2, 1);
+        MessageReader reader = createReader();
+
+        assertTrue(reader.hasNext());
+        // The iterator times out after the batch wait time rather than the consumer timeout.
+        long startMs = System.currentTimeMillis();
+        assertOffsets(reader.readBatch(), 0, 1);
+        assertTrue(System.currentTimeMillis() - startMs < 10000);
+    }
+
+    public void testHasNextWaitsForConsumerTimeout() throws Exception {
+        Mockito.when(mConfig.getConsumerTimeoutMs()).thenReturn(50);
+        setUpMessages(0, 1);
+        MessageReader reader = createReader();
+
+        long startMs = System.currentTimeMillis();
+        try {
+            reader.hasNext();
+            fail("Expected consumer timeout");
+        } catch (ConsumerTimeoutException e) {
+        }
+        assertTrue(System.currentTimeMillis() - startMs >= 50);
+    }
+
+    private static void assertOffsets(List<Message> messages, long... offsets) {
+        assertEquals(offsets.length, messages.size());
+        for (int i = 0; i < offsets.length; ++i) {
+            assertEquals(offsets[i], messages.get(i).getOffset());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.pinterest.secor.common.SecorConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HadoopObjectStoreTest tests multipart uploads to the local Hadoop file system.
+ */
+public class HadoopObjectStoreTest {
+    private File mStagingDir;
+    private File mDestination;
+    private HadoopObjectStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getAwsAccessKey()).thenReturn("");
+        Mockito.when(config.getAwsSecretKey()).thenReturn("");
+        mStagingDir = new File(Files.createTempDir(), ".multipart");
+        mDestination = new File(Files.createTempDir(), "10_0_00000000000000000010");
+        mStore = new HadoopObjectStore(config, mStagingDir);
+    }
+
+    private String getPath() {
+        return "file://" + mDestination.getAbsolutePath();
+    }
+
+    @Test
+    public void testCompleteMultipartUpload() throws Exception {
+        String uploadId = mStore.startMultipartUpload(getPath());
+        byte[] part2 = "second".getBytes(Charsets.UTF_8);
+        byte[] part1 = "first ".getBytes(Charsets.UTF_8);
+        mStore.uploadPart(getPath(), uploadId, 2, part2, part2.length);
+        mStore.uploadPart(getPath(), uploadId, 1, part1, part1.length);
+        assertFalse(mDestination.exists());
+
+        mStore.completeMultipartUpload(getPath(), uploadId, Arrays.asList("1", "2"));
+
+        assertEquals("first second", Files.toString(mDestination, Charsets.UTF_8));
+        assertEquals(0, mStagingDir.list().length);
+    }
+
+    @Test
+    public void testAbortMultipartUploadLeavesDestination() throws Exception {
+        // Another consumer committed an object under the same name.
+        Files.write("committed", mDestination, Charsets.UTF_8);
+
+        String uploadId = mStore.startMultipartUpload(getPath());
+        byte[] part = "partial".getBytes(Charsets.UTF_8);
+        mStore.uploadPart(getPath(), uploadId, 1, part, part.length);
+        mStore.abortMultipartUpload(getPath(), uploadId);
+
+        assertTrue(mDestination.exists());
+        assertEquals("committed", Files.toString(mDestination, Charsets.UTF_8));
+        assertEquals(0, mStagingDir.list().length);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PriorityUploadSchedulerTest tests the order in which uploads are run.
+ */
+public class PriorityUploadSchedulerTest {
+    private final List<String> mUploads =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    private Runnable createUpload(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mUploads.add(name);
+            }
+        };
+    }
+
+    private Runnable createBlockingUpload(final CountDownLatch started,
+                                          final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testOldestFileFirst() throws Exception {
+        PriorityUploadScheduler scheduler = new PriorityUploadScheduler(1, 100, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit("some_topic", 0, 0, createBlockingUpload(started, release));
+        started.await();
+
+        Future<?> newest = scheduler.submit("some_topic", 10, 30, createUpload("newest"));
+        scheduler.submit("other_topic", 10, 10, createUpload("oldest"));
+        scheduler.submit("some_topic", 10, 20, createUpload("middle"));
+        release.countDown();
+        newest.get();
+
+        assertEquals(3, mUploads.size());
+        assertEquals("oldest", mUploads.get(0));
+        assertEquals("middle", mUploads.get(1));
+        assertEquals("newest", mUploads.get(2));
+    }
+
+    @Test
+    public void testTopicFairness() throws Exception {
+        PriorityUploadScheduler scheduler = new PriorityUploadScheduler(2, 100, 0);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch releaseSome = new CountDownLatch(1);
+        CountDownLatch releaseOther = new CountDownLatch(1);
+        scheduler.submit("some_topic", 0, 0, createBlockingUpload(started, releaseSome));
+        scheduler.submit("other_topic", 0, 0, createBlockingUpload(started, releaseOther));
+        started.await();
+
+        // some_topic has an upload in progress so a newer file of a third topic goes first.
+        Future<?> older = scheduler.submit("some_topic", 10, 10, createUpload("older"));
+        Future<?> newer = scheduler.submit("third_topic", 10, 20, createUpload("newer"));
+        releaseOther.countDown();
+        newer.get();
+        older.get();
+        releaseSome.countDown();
+
+        assertEquals(2, mUploads.size());
+        assertEquals("newer", mUploads.get(0));
+        assertEquals("older", mUploads.get(1));
+    }
+
+    @Test
+    public void testFailedUpload() throws Exception {
+        PriorityUploadScheduler scheduler = new PriorityUploadScheduler(1, 100, 0);
+        Future<?> failed = scheduler.submit("some_topic", 10, 0, new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("some failure");
+            }
+        });
+        try {
+            failed.get();
+            throw new AssertionError("Expected the upload to fail");
+        } catch (ExecutionException e) {
+            assertEquals("some failure", e.getCause().getMessage());
+        }
+        // The worker survives failed uploads.
+        scheduler.submit("some_topic", 10, 0, createUpload("next")).get();
+        assertEquals(1, mUploads.size());
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.impl.DelimitedTextFileReaderWriterFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * StreamingUploaderTest tests multipart uploads of files being written against a local object
+ * store.
+ */
+public class StreamingUploaderTest {
+    private static final int PART_SIZE = 4096;
+
+    private SecorConfig mConfig;
+    private File mStoreDir;
+    private LocalObjectStore mStore;
+    private CountingUploadScheduler mScheduler;
+    private StreamingUploader mStreamingUploader;
+
+    private static class CountingUploadScheduler implements UploadScheduler {
+        private final PriorityUploadScheduler mScheduler = new PriorityUploadScheduler(4, 100, 0);
+        private final AtomicLong mSubmittedBytes = new AtomicLong();
+
+        @Override
+        public Future<?> submit(String topic, long sizeBytes, long creationTimeSec,
+                                Runnable upload) throws InterruptedException {
+            mSubmittedBytes.addAndGet(sizeBytes);
+            return mScheduler.submit(topic, sizeBytes, creationTimeSec, upload);
+        }
+
+        public long getSubmittedBytes() {
+            return mSubmittedBytes.get();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getS3Bucket()).thenReturn("some_bucket");
+        Mockito.when(mConfig.getS3Path()).thenReturn("some_s3_parent_dir");
+        Mockito.when(mConfig.getUploadMultipartPartSizeBytes()).thenReturn(PART_SIZE);
+        mStoreDir = Files.createTempDir();
+        mStore = new LocalObjectStore(mStoreDir);
+        mScheduler = new CountingUploadScheduler();
+        mStreamingUploader = new StreamingUploader(mConfig, mStore, mScheduler);
+    }
+
+    private LogFilePath createLogFilePath(String extension) {
+        return new LogFilePath(Files.createTempDir().toString(), "some_topic",
+                               new String[]{"some_partition"}, 0, 1, 100, extension);
+    }
+
+    private File getObjectFile(LogFilePath localPath) {
+        String path = Uploader.getS3Path(mConfig, localPath).getLogFilePath();
+        assertTrue(path.startsWith("s3n://some_bucket/some_s3_parent_dir/some_topic/"));
+        return mStore.getFile(path);
+    }
+
+    private int countUploadedParts() {
+        int result = 0;
+        File[] uploadDirs = new File(mStoreDir, ".multipart").listFiles();
+        if (uploadDirs != null) {
+            for (File uploadDir : uploadDirs) {
+                result += uploadDir.list().length;
+            }
+        }
+        return result;
+    }
+
+    private FileWriter createWriter(LogFilePath localPath, CompressionCodec codec)
+            throws Exception {
+        FileWriter writer = new DelimitedTextFileReaderWriterFactory().BuildFileWriter(localPath,
+                                                                                        codec);
+        return mStreamingUploader.createWriter(localPath, writer);
+    }
+
+    private void write(FileWriter writer) throws Exception {
+        for (int i = 0; i < 10000; ++i) {
+            writer.write(new KeyValue(100 + i, ("some message " + i).getBytes()));
+        }
+    }
+
+    private void testUpload(CompressionCodec codec, String extension) throws Exception {
+        LogFilePath localPath = createLogFilePath(extension);
+        FileWriter writer = createWriter(localPath, codec);
+        write(writer);
+        // Parts are uploaded while the file is being written.
+        MultipartUpload upload = mStreamingUploader.remove(localPath);
+        assertTrue(writer.getLength() > PART_SIZE * 2);
+        assertTrue(upload.getNumParts() > 0);
+        writer.close();
+        assertFalse(getObjectFile(localPath).exists());
+
+        upload.complete();
+
+        assertArrayEquals(Files.toByteArray(new File(localPath.getLogFilePath())),
+                          Files.toByteArray(getObjectFile(localPath)));
+        assertEquals(0, countUploadedParts());
+        // All parts are charged to the upload scheduler.
+        assertEquals(new File(localPath.getLogFilePath()).length(),
+                     mScheduler.getSubmittedBytes());
+    }
+
+    @Test
+    public void testUpload() throws Exception {
+        testUpload(null, "");
+    }
+
+    @Test
+    public void testCompressedUpload() throws Exception {
+        GzipCodec codec = new GzipCodec();
+        codec.setConf(new Configuration());
+        testUpload(codec, codec.getDefaultExtension());
+    }
+
+    @Test
+    public void testUploadEmptyFile() throws Exception {
+        LogFilePath localPath = createLogFilePath("");
+        FileWriter writer = createWriter(localPath, null);
+        writer.close();
+
+        mStreamingUploader.remove(localPath).complete();
+
+        assertEquals(0, getObjectFile(localPath).length());
+        assertTrue(getObjectFile(localPath).exists());
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        LogFilePath localPath = createLogFilePath("");
+        FileWriter writer = createWriter(localPath, null);
+        write(writer);
+        writer.close();
+
+        mStreamingUploader.abort(localPath);
+
+        assertEquals(0, countUploadedParts());
+        assertFalse(getObjectFile(localPath).exists());
+        assertEquals(null, mStreamingUploader.remove(localPath));
+    }
+
+    @Test
+    public void testAbortWaitsForRunningParts() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ObjectStore store = Mockito.mock(ObjectStore.class);
+        Mockito.when(store.startMultipartUpload("some_path")).thenReturn("some_upload");
+        Mockito.when(store.uploadPart(Matchers.eq("some_path"), Matchers.eq("some_upload"),
+                                      Matchers.anyInt(), Matchers.any(byte[].class),
+                                      Matchers.anyInt())).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return "some_tag";
+            }
+        });
+        File file = File.createTempFile("multipart", ".log");
+        file.deleteOnExit();
+        Files.write(new byte[PART_SIZE * 3], file);
+        // A single upload thread runs the first part while the others are queued.
+        final MultipartUpload upload = new MultipartUpload(
+            store, new PriorityUploadScheduler(1, 100, 0), "some_topic", file.getPath(),
+            "some_path", PART_SIZE);
+        upload.uploadLastPart();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Thread abortThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    upload.abort();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        abortThread.start();
+        abortThread.join(200);
+        // The upload is not aborted while a part is being uploaded.
+        assertTrue(abortThread.isAlive());
+        Mockito.verify(store, Mockito.never()).abortMultipartUpload("some_path", "some_upload");
+
+        release.countDown();
+        abortThread.join(10000);
+        assertFalse(abortThread.isAlive());
+        InOrder inOrder = Mockito.inOrder(store);
+        inOrder.verify(store).uploadPart(Matchers.eq("some_path"), Matchers.eq("some_upload"),
+                                         Matchers.eq(1), Matchers.any(byte[].class),
+                                         Matchers.eq(PART_SIZE));
+        inOrder.verify(store).abortMultipartUpload("some_path", "some_upload");
+        // Queued parts are never uploaded.
+        Mockito.verify(store, Mockito.times(1)).uploadPart(
+            Matchers.anyString(), Matchers.anyString(), Matchers.anyInt(),
+            Matchers.any(byte[].class), Matchers.anyInt());
+    }
+}
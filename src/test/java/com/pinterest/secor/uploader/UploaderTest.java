@@ -20,8 +20,12 @@ import com.pinterest.secor.common.*;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.IdUtil;
+import com.pinterest.secor.util.ReflectionUtil;
+
+import com.google.common.io.Files;
 
 import junit.framework.TestCase;
 
@@ -31,11 +35,15 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * UploaderTest tests the log file uploader logic.
@@ -44,12 +52,14 @@ import java.util.HashSet;
  */
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({ FileUtil.class, IdUtil.class })
+@PowerMockIgnore({ "javax.security.*", "com.sun.security.*" })
 public class UploaderTest extends TestCase {
     private static class TestUploader extends Uploader {
         private FileReader mReader;
 
         public TestUploader(SecorConfig config, OffsetTracker offsetTracker,
-                FileRegistry fileRegistry, ZookeeperConnector zookeeperConnector) {
+                FileRegistry fileRegistry, ZookeeperConnector zookeeperConnector)
+                throws Exception {
             super(config, offsetTracker, fileRegistry, zookeeperConnector);
             mReader = Mockito.mock(FileReader.class);
         }
@@ -88,6 +98,10 @@ public class UploaderTest extends TestCase {
         mConfig = Mockito.mock(SecorConfig.class);
         Mockito.when(mConfig.getLocalPath()).thenReturn("/some_parent_dir");
         Mockito.when(mConfig.getMaxFileSizeBytes()).thenReturn(10L);
+        Mockito.when(mConfig.getUploadSchedulerClass()).thenReturn(
+                "com.pinterest.secor.uploader.PriorityUploadScheduler");
+        Mockito.when(mConfig.getUploadThreads()).thenReturn(4);
+        Mockito.when(mConfig.getUploadQueueCapacity()).thenReturn(100);
 
         mOffsetTracker = Mockito.mock(OffsetTracker.class);
 
@@ -95,8 +109,8 @@ public class UploaderTest extends TestCase {
         Mockito.when(mFileRegistry.getSize(mTopicPartition)).thenReturn(100L);
         HashSet<TopicPartition> topicPartitions = new HashSet<TopicPartition>();
         topicPartitions.add(mTopicPartition);
-        Mockito.when(mFileRegistry.getTopicPartitions()).thenReturn(
-                topicPartitions);
+        Mockito.when(mFileRegistry.getDueTopicPartitions(Mockito.anyLong(),
+                Mockito.anyLong(), Mockito.anyLong())).thenReturn(topicPartitions);
 
         mZookeeperConnector = Mockito.mock(ZookeeperConnector.class);
         mUploader = new TestUploader(mConfig, mOffsetTracker, mFileRegistry,
@@ -107,6 +121,9 @@ public class UploaderTest extends TestCase {
         Mockito.when(
                 mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
                 .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
         Mockito.when(
                 mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
                 .thenReturn(11L);
@@ -139,17 +156,245 @@ public class UploaderTest extends TestCase {
                 "s3n://some_bucket/some_s3_parent_dir/some_topic/some_partition/"
                         + "some_other_partition/10_0_00000000000000000010");
         Mockito.verify(mFileRegistry).deleteTopicPartition(mTopicPartition);
-        Mockito.verify(mZookeeperConnector).setCommittedOffsetCount(
-                mTopicPartition, 21L);
+        Mockito.verify(mZookeeperConnector).setCommittedOffsetCounts(
+                Collections.singletonMap(mTopicPartition, 21L));
+        Mockito.verify(mOffsetTracker).setCommittedOffsetCount(mTopicPartition,
+                21L);
+        Mockito.verify(mZookeeperConnector).unlock(lockPath);
+    }
+
+    public void testUploadFilesWithIndex() throws Exception {
+        setUpLeasedUpload(true);
+        final String indexPath = "/some_parent_dir/some_topic/some_partition/"
+                + "some_other_partition/.10_0_00000000000000000010.index";
+        Mockito.when(FileUtil.exists(indexPath)).thenReturn(true);
+
+        mUploader.applyPolicy();
+
+        // The offset index is uploaded next to the log file.
+        PowerMockito.verifyStatic();
+        FileUtil.moveToS3(indexPath,
+                "s3n://some_bucket/some_s3_parent_dir/some_topic/some_partition/"
+                        + "some_other_partition/.10_0_00000000000000000010.index");
+        Mockito.verify(mZookeeperConnector).setCommittedOffsetCounts(
+                Collections.singletonMap(mTopicPartition, 21L));
+    }
+
+    private void setUpLeasedUpload(boolean leaseHeld) throws Exception {
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
+                .thenReturn(11L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(20L);
+        Mockito.when(
+                mOffsetTracker.getTrueCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(mConfig.getS3Bucket()).thenReturn("some_bucket");
+        Mockito.when(mConfig.getS3Path()).thenReturn("some_s3_parent_dir");
+        Mockito.when(mConfig.getUploadLeaseSeconds()).thenReturn(60);
+        Mockito.when(mZookeeperConnector.acquireLease(mTopicPartition, 60000L))
+                .thenReturn(leaseHeld);
+
+        HashSet<LogFilePath> logFilePaths = new HashSet<LogFilePath>();
+        logFilePaths.add(mLogFilePath);
+        Mockito.when(mFileRegistry.getPaths(mTopicPartition)).thenReturn(
+                logFilePaths);
+
+        PowerMockito.mockStatic(FileUtil.class);
+    }
+
+    public void testUploadFilesWithLease() throws Exception {
+        setUpLeasedUpload(true);
+
+        mUploader.applyPolicy();
+
+        Mockito.verify(mFileRegistry).deleteWriters(mTopicPartition);
+        PowerMockito.verifyStatic();
+        FileUtil.moveToS3(
+                "/some_parent_dir/some_topic/some_partition/some_other_partition/"
+                        + "10_0_00000000000000000010",
+                "s3n://some_bucket/some_s3_parent_dir/some_topic/some_partition/"
+                        + "some_other_partition/10_0_00000000000000000010");
+        Mockito.verify(mZookeeperConnector).setCommittedOffsetCounts(
+                Collections.singletonMap(mTopicPartition, 21L));
+        // Leases replace per-upload locks and are kept after the upload.
+        Mockito.verify(mZookeeperConnector, Mockito.never()).lock(
+                Mockito.anyString());
+        Mockito.verify(mZookeeperConnector, Mockito.never()).unlock(
+                Mockito.anyString());
+    }
+
+    public void testUploadFilesWithLeaseHeldByOthers() throws Exception {
+        setUpLeasedUpload(false);
+
+        mUploader.applyPolicy();
+
+        // Files stay open for writing until the lease is acquired.
+        Mockito.verify(mFileRegistry, Mockito.never()).deleteWriters(
+                mTopicPartition);
+        Mockito.verify(mFileRegistry, Mockito.never()).deleteTopicPartition(
+                mTopicPartition);
+        PowerMockito.verifyStatic(Mockito.never());
+        FileUtil.moveToS3(Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(mZookeeperConnector, Mockito.never())
+                .setCommittedOffsetCounts(Mockito.anyMap());
+    }
+
+    private void setUpAsyncUpload(long maxSealedBytes) throws Exception {
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
+                .thenReturn(11L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(20L);
+        Mockito.when(
+                mOffsetTracker.getTrueCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(mConfig.getS3Bucket()).thenReturn("some_bucket");
+        Mockito.when(mConfig.getS3Path()).thenReturn("some_s3_parent_dir");
+        Mockito.when(mConfig.getUploadAsync()).thenReturn(true);
+        Mockito.when(mConfig.getUploadMaxSealedBytes()).thenReturn(maxSealedBytes);
+
+        HashSet<LogFilePath> logFilePaths = new HashSet<LogFilePath>();
+        logFilePaths.add(mLogFilePath);
+        Mockito.when(mFileRegistry.sealTopicPartition(mTopicPartition))
+                .thenReturn(logFilePaths);
+
+        PowerMockito.mockStatic(FileUtil.class);
+    }
+
+    private void verifyAsyncUpload() throws Exception {
+        final String lockPath = "/secor/locks/some_topic/0";
+        Mockito.verify(mZookeeperConnector).lock(lockPath);
+        Mockito.verify(mOffsetTracker).setSealedOffsetCount(mTopicPartition, 21L);
+        PowerMockito.verifyStatic();
+        FileUtil.moveToS3(
+                "/some_parent_dir/some_topic/some_partition/some_other_partition/"
+                        + "10_0_00000000000000000010",
+                "s3n://some_bucket/some_s3_parent_dir/some_topic/some_partition/"
+                        + "some_other_partition/10_0_00000000000000000010");
+        Mockito.verify(mZookeeperConnector).setCommittedOffsetCounts(
+                Collections.singletonMap(mTopicPartition, 21L));
         Mockito.verify(mOffsetTracker).setCommittedOffsetCount(mTopicPartition,
                 21L);
         Mockito.verify(mZookeeperConnector).unlock(lockPath);
+        Mockito.verify(mFileRegistry, Mockito.never()).deleteTopicPartition(
+                mTopicPartition);
+    }
+
+    public void testUploadFilesAsync() throws Exception {
+        setUpAsyncUpload(1000L);
+
+        mUploader.applyPolicy();
+
+        // Offsets are committed once the upload completes.
+        Mockito.verify(mZookeeperConnector, Mockito.never())
+                .setCommittedOffsetCounts(Mockito.anyMap());
+        Mockito.verify(mZookeeperConnector, Mockito.never()).unlock(
+                Mockito.anyString());
+
+        mUploader.flush();
+
+        verifyAsyncUpload();
+    }
+
+    public void testUploadFilesAsyncOverSealedBytesLimit() throws Exception {
+        setUpAsyncUpload(10L);
+
+        mUploader.applyPolicy();
+
+        verifyAsyncUpload();
+    }
+
+    public void testUploadFilesAsyncAfterLeaseLost() throws Exception {
+        setUpAsyncUpload(1000L);
+        Mockito.when(mConfig.getUploadLeaseSeconds()).thenReturn(60);
+        Mockito.when(mZookeeperConnector.acquireLease(mTopicPartition, 60000L))
+                .thenReturn(true).thenReturn(false);
+
+        mUploader.applyPolicy();
+        Mockito.verify(mOffsetTracker).setSealedOffsetCount(mTopicPartition, 21L);
+
+        // The lease is renewed on the next policy check and found to be taken over.
+        mUploader.applyPolicy();
+
+        Mockito.verify(mOffsetTracker).setSealedOffsetCount(mTopicPartition, -1L);
+        PowerMockito.verifyStatic();
+        FileUtil.delete("/some_parent_dir/some_topic/some_partition/some_other_partition/"
+                + "10_0_00000000000000000010");
+        mUploader.flush();
+        Mockito.verify(mZookeeperConnector, Mockito.never())
+                .setCommittedOffsetCounts(Mockito.anyMap());
+    }
+
+    public void testUploadFilesAsyncWithLocalOffsetStore() throws Exception {
+        setUpAsyncUpload(1000L);
+        OffsetStore offsetStore = Mockito.mock(OffsetStore.class);
+        Mockito.when(offsetStore.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        final Uploader uploader = new Uploader(mConfig, mOffsetTracker,
+                mFileRegistry, offsetStore);
+        final Uploader otherUploader = new Uploader(mConfig, mOffsetTracker,
+                mFileRegistry, offsetStore);
+
+        uploader.applyPolicy();
+        Mockito.verify(mFileRegistry).sealTopicPartition(mTopicPartition);
+
+        // Another consumer thread in the process cannot seal the topic
+        // partition until the pending batch is committed.
+        Thread otherThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    otherUploader.applyPolicy();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        Mockito.verify(mFileRegistry).sealTopicPartition(mTopicPartition);
+
+        uploader.flush();
+        Mockito.verify(offsetStore).setCommittedOffsetCounts(
+                Collections.singletonMap(mTopicPartition, 21L));
+
+        otherThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    otherUploader.applyPolicy();
+                    otherUploader.flush();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        Mockito.verify(mFileRegistry, Mockito.times(2)).sealTopicPartition(
+                mTopicPartition);
     }
 
     public void testDeleteTopicPartition() throws Exception {
         Mockito.when(
                 mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
                 .thenReturn(31L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(31L);
         Mockito.when(
                 mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 30L))
                 .thenReturn(11L);
@@ -165,6 +410,9 @@ public class UploaderTest extends TestCase {
         Mockito.when(
                 mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
                 .thenReturn(21L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(21L);
         Mockito.when(
                 mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 21L))
                 .thenReturn(20L);
@@ -191,6 +439,9 @@ public class UploaderTest extends TestCase {
             }
         });
 
+        // The file has no offset index.
+        PowerMockito.mockStatic(FileUtil.class);
+
         PowerMockito.mockStatic(IdUtil.class);
         Mockito.when(IdUtil.getLocalMessageDir())
                 .thenReturn("some_message_dir");
@@ -208,4 +459,82 @@ public class UploaderTest extends TestCase {
         Mockito.verify(writer).write(Mockito.any(KeyValue.class));
         Mockito.verify(mFileRegistry).deletePath(mLogFilePath);
     }
+
+    private void testTrimFilesRaw(String factoryClass) throws Exception {
+        String localPath = Files.createTempDir().toString();
+        Mockito.when(mConfig.getLocalPath()).thenReturn(localPath);
+        Mockito.when(mConfig.getFileReaderWriterFactory()).thenReturn(factoryClass);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(21L);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 21L))
+                .thenReturn(20L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(29L);
+
+        // The file is written without an offset index.
+        OffsetIndex.configure(null);
+        LogFilePath srcLogFilePath = new LogFilePath(localPath, "some_topic",
+                new String[]{"some_partition"}, 0, 0, 10, "");
+        FileWriter srcWriter = ReflectionUtil.createFileWriter(factoryClass,
+                srcLogFilePath, null);
+        for (int i = 10; i < 30; ++i) {
+            srcWriter.write(new KeyValue(i, ("value" + i).getBytes()));
+        }
+        srcWriter.close();
+        HashSet<LogFilePath> logFilePaths = new HashSet<LogFilePath>();
+        logFilePaths.add(srcLogFilePath);
+        Mockito.when(mFileRegistry.getPaths(mTopicPartition)).thenReturn(
+                logFilePaths);
+
+        PowerMockito.mockStatic(IdUtil.class);
+        Mockito.when(IdUtil.getLocalMessageDir())
+                .thenReturn("some_message_dir");
+
+        final List<FileWriter> writers = new ArrayList<FileWriter>();
+        Mockito.when(mFileRegistry.getOrCreateWriter(Mockito.any(LogFilePath.class),
+                Mockito.any(CompressionCodec.class))).thenAnswer(
+                new Answer<FileWriter>() {
+                    @Override
+                    public FileWriter answer(InvocationOnMock invocation)
+                            throws Throwable {
+                        FileWriter writer = ReflectionUtil.createFileWriter(
+                                mConfig.getFileReaderWriterFactory(),
+                                (LogFilePath) invocation.getArguments()[0], null);
+                        writers.add(writer);
+                        return writer;
+                    }
+                });
+
+        mUploader.applyPolicy();
+
+        // Records are copied raw rather than read back and written again.
+        Mockito.verifyZeroInteractions(mUploader.getReader());
+        assertEquals(1, writers.size());
+        writers.get(0).close();
+        LogFilePath dstLogFilePath = new LogFilePath(
+                localPath + "/some_message_dir", "some_topic",
+                new String[]{"some_partition"}, 0, 0, 21, "");
+        FileReader reader = ReflectionUtil.createFileReader(factoryClass,
+                dstLogFilePath, null);
+        for (int i = 21; i < 30; ++i) {
+            KeyValue keyValue = reader.next();
+            assertEquals(i, keyValue.getKey());
+            assertEquals("value" + i, new String(keyValue.getValue()));
+        }
+        assertNull(reader.next());
+        reader.close();
+        Mockito.verify(mFileRegistry).deletePath(srcLogFilePath);
+    }
+
+    public void testTrimSequenceFileRaw() throws Exception {
+        testTrimFilesRaw(
+                "com.pinterest.secor.io.impl.SequenceFileReaderWriterFactory");
+    }
+
+    public void testTrimDelimitedTextFileRaw() throws Exception {
+        testTrimFilesRaw(
+                "com.pinterest.secor.io.impl.DelimitedTextFileReaderWriterFactory");
+    }
 }